@@ -0,0 +1,119 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import com.github.miltenplescott.pswdmngrserver.user.User;
+import com.github.miltenplescott.pswdmngrserver.user.User_;
+import com.github.miltenplescott.pswdmngrserver.vault.VaultEntry;
+import com.github.miltenplescott.pswdmngrserver.vault.VaultEntry_;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// per call cost of the user and vault queries against in-memory H2, built as criteria on every call (as before) and as
+// named queries; cacheStatements=true also keeps the prepared statements, like the server's connection pool does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DaoQueryBenchmark {
+
+    private static final int USERS = 1000;
+    private static final int ENTRIES_PER_USER = 10;
+    private static final String USERNAME = "user" + (USERS / 2);
+
+    @Param({"false", "true"})
+    public boolean cacheStatements;
+
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private long userId;
+
+    @Setup
+    public void setUp() {
+        emf = Persistence.createEntityManagerFactory("test-resource-local", Map.of(
+            "eclipselink.jdbc.cache-statements", String.valueOf(cacheStatements),
+            "eclipselink.logging.level", "OFF"));
+        em = emf.createEntityManager();
+        em.getTransaction().begin();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User("user" + i, CryptoUtils.genRandomBytes(CryptoUtils.KDF_INPUT_LENGTH_BYTES));
+            user.setSalt(CryptoUtils.genSalt());
+            em.persist(user);
+            for (int j = 0; j < ENTRIES_PER_USER; j++) {
+                em.persist(new VaultEntry(new byte[64], user));
+            }
+        }
+        em.getTransaction().commit();
+        userId = namedFindByName().get(0).getId();
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public List<User> criteriaFindByName() {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<User> cq = cb.createQuery(User.class);
+        Root<User> user = cq.from(User.class);
+        cq.select(user).where(cb.equal(user.get(User_.username), USERNAME));
+        return em.createQuery(cq).getResultList();
+    }
+
+    @Benchmark
+    public List<User> namedFindByName() {
+        return em.createNamedQuery(User.QUERY_FIND_BY_NAME, User.class)
+            .setParameter("username", USERNAME)
+            .getResultList();
+    }
+
+    @Benchmark
+    public Long namedCountByName() {
+        return em.createNamedQuery(User.QUERY_COUNT_BY_NAME, Long.class)
+            .setParameter("username", USERNAME)
+            .getSingleResult();
+    }
+
+    @Benchmark
+    public List<VaultEntry> criteriaFindVault() {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<VaultEntry> cq = cb.createQuery(VaultEntry.class);
+        Root<VaultEntry> vaultEntry = cq.from(VaultEntry.class);
+        cq.select(vaultEntry).where(cb.equal(vaultEntry.get(VaultEntry_.user).get(User_.id), userId));
+        return em.createQuery(cq).getResultList();
+    }
+
+    // what GET /vault runs now, id and encData only, without a page bound
+    @Benchmark
+    public List<?> namedFindVault() {
+        return em.createNamedQuery(VaultEntry.QUERY_FIND_ENC_DATA)
+            .setParameter("userId", userId)
+            .setParameter("afterId", 0L)
+            .setParameter("lastId", Long.MAX_VALUE)
+            .getResultList();
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// latency of one KDF, and garbage per KDF from the gc profiler, run with "./gradlew jmh"; lanes only help if the machine
+// has that many idle cores
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KdfBenchmark {
+
+    @Param({"1", "2", "4"})
+    private int parallelism;
+
+    private KdfParams params;
+    private byte[] pswd;
+    private byte[] salt;
+
+    @Setup
+    public void setUp() {
+        params = new KdfParams(CryptoUtils.KDF_ITERATIONS, CryptoUtils.KDF_MEMORY_KB, parallelism);
+        pswd = CryptoUtils.genRandomBytes(CryptoUtils.KDF_INPUT_LENGTH_BYTES);
+        salt = CryptoUtils.genSalt();
+    }
+
+    @Benchmark
+    public byte[] kdfAndSalt() {
+        return CryptoUtils.kdfAndSalt(pswd, salt, params);
+    }
+
+    @Benchmark
+    public byte[] bouncyCastle() {
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+            .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+            .withSalt(salt)
+            .withParallelism(params.getParallelism())
+            .withMemoryAsKB(params.getMemoryKb())
+            .withIterations(params.getIterations())
+            .build());
+        byte[] kdfOutput = new byte[CryptoUtils.KDF_OUTPUT_LENGTH_BYTES];
+        generator.generateBytes(pswd, kdfOutput);
+        return kdfOutput;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+// logins per second with every core busy, as in a login burst, where lanes don't help and only the compression function
+// counts; divide the score by the number of cores for logins per second per core
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class KdfThroughputBenchmark {
+
+    private byte[] pswd;
+    private byte[] salt;
+
+    @Setup
+    public void setUp() {
+        pswd = CryptoUtils.genRandomBytes(CryptoUtils.KDF_INPUT_LENGTH_BYTES);
+        salt = CryptoUtils.genSalt();
+    }
+
+    @Benchmark
+    public byte[] kdfAndSalt() {
+        return CryptoUtils.kdfAndSalt(pswd, salt, KdfParams.LEGACY);
+    }
+
+    @Benchmark
+    public byte[] bouncyCastle() {
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+            .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+            .withSalt(salt)
+            .withParallelism(CryptoUtils.KDF_PARALLELISM)
+            .withMemoryAsKB(CryptoUtils.KDF_MEMORY_KB)
+            .withIterations(CryptoUtils.KDF_ITERATIONS)
+            .build());
+        byte[] kdfOutput = new byte[CryptoUtils.KDF_OUTPUT_LENGTH_BYTES];
+        generator.generateBytes(pswd, kdfOutput);
+        return kdfOutput;
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import com.github.miltenplescott.pswdmngrserver.user.AuthTokenManager;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+// tokens per second with every core generating them; run with -t 1 as well, the striped source should scale with the
+// threads while the shared SecureRandom doesn't
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class RandomBenchmark {
+
+    private final SecureRandom shared = new SecureRandom();
+
+    @Benchmark
+    public byte[] genRandomBytes() {
+        return CryptoUtils.genRandomBytes(AuthTokenManager.TOKEN_LENGTH_BYTES);
+    }
+
+    @Benchmark
+    public byte[] sharedSecureRandom() {
+        byte[] token = new byte[AuthTokenManager.TOKEN_LENGTH_BYTES];
+        shared.nextBytes(token);
+        return token;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// what AuthenticationRequestFilter and AuthTokenManager do per request with a signed token, HMAC and epoch check,
+// for liveTokens users; compare with TokenLookupBenchmark.findUser, the same for an opaque token. Every user's epoch
+// is in the cache after the first pass, so this is the cost between two reads of it from the database
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SignedTokenBenchmark {
+
+    @Param({"200000"})
+    public int liveTokens;
+
+    private SignedTokenManager signedTokens;
+    private String[] headers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        signedTokens = new SignedTokenManager(Map.of((byte) 0, CryptoUtils.genRandomBytes(SignedTokenManager.MIN_KEY_LENGTH_BYTES)),
+            (byte) 0, userId -> 0, Duration.ofDays(1));
+        Instant expiration = Instant.now().plus(Duration.ofDays(1));
+        headers = new String[liveTokens];
+        for (int i = 0; i < liveTokens; i++) {
+            String token = signedTokens.issue(i, "user" + i, expiration).getToken();
+            headers[i] = AuthenticationRequestFilter.AUTH_SCHEME + " " + token;
+        }
+    }
+
+    @Benchmark
+    public UserPrincipal verify() {
+        String header = headers[next];
+        next = (next + 1 == headers.length) ? 0 : next + 1;
+        int tokenStart = AuthorizationHeaderParser.tokenStart(header);
+        int tokenEnd = AuthorizationHeaderParser.tokenEnd(header, tokenStart);
+        int decodedLength = TokenTable.decodedLength(header, tokenStart, tokenEnd);
+        if (!signedTokens.hasCorrectLength(decodedLength)) {
+            throw new IllegalStateException();
+        }
+        byte[] decodedToken = new byte[decodedLength];
+        TokenTable.decode(header, tokenStart, tokenEnd, decodedToken);
+        Instant now = Instant.now();
+        return signedTokens.verify(header.substring(tokenStart, tokenEnd), decodedToken)
+            .filter(t -> t.isValidAt(now))
+            .map(t -> new UserPrincipal(t.getUserId(), t.getUsername()))
+            .orElseThrow(IllegalStateException::new);
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// TokenLookupBenchmark's lookup, and issuing tokens, from 1 to 8 threads at once against one store, to show how they
+// scale with cores; the thread count can't be a @Param, so each count is its own method. mixed is lookups while
+// another thread keeps issuing, like logins during normal traffic
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenContentionBenchmark {
+
+    // usernames each issuing thread cycles through, with one session each, so issuing evicts and the store stays the
+    // same size
+    private static final int ISSUING_USERS_PER_THREAD = 1024;
+
+    @Param({"200000"})
+    public int liveTokens;
+
+    private TokenHasher hasher;
+    private InMemoryTokenStore store;
+    private String[] headers;
+    private Instant expiration;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+        private String[] usernames;
+        private long firstUserId;
+
+        @Setup
+        public void setUp(TokenContentionBenchmark benchmark, ThreadParams threadParams) {
+            next = ThreadLocalRandom.current().nextInt(benchmark.headers.length);  // threads don't walk in step
+            firstUserId = benchmark.liveTokens + (long) threadParams.getThreadIndex() * ISSUING_USERS_PER_THREAD;
+            usernames = new String[ISSUING_USERS_PER_THREAD];
+            for (int i = 0; i < usernames.length; i++) {
+                usernames[i] = "issuer" + (firstUserId + i);
+            }
+        }
+
+    }
+
+    @Setup
+    public void setUp() {
+        hasher = TokenHasher.withRandomKey();
+        store = new InMemoryTokenStore(1, hasher);
+        expiration = Instant.now().plus(Duration.ofDays(1));
+        headers = new String[liveTokens];
+        for (int i = 0; i < liveTokens; i++) {
+            headers[i] = AuthenticationRequestFilter.AUTH_SCHEME + " " + store.put(i, "user" + i, expiration, TokenContentionBenchmark::newToken).getToken();
+        }
+    }
+
+    private static byte[] newToken() {
+        return CryptoUtils.genRandomBytes(AuthTokenManager.TOKEN_LENGTH_BYTES);
+    }
+
+    // what AuthenticationRequestFilter does per request
+    private UserPrincipal lookup(Cursor cursor) {
+        String header = headers[cursor.next];
+        cursor.next = (cursor.next + 1 == headers.length) ? 0 : cursor.next + 1;
+        int tokenStart = AuthorizationHeaderParser.tokenStart(header);
+        byte[] key = hasher.hash(TokenTable.decodeHigh(header, tokenStart), TokenTable.decodeLow(header, tokenStart));
+        return store.findUser(TokenTable.high(key), TokenTable.low(key), System.currentTimeMillis());
+    }
+
+    // what a login does with the store
+    private AuthToken issue(Cursor cursor) {
+        int i = cursor.next++ & (ISSUING_USERS_PER_THREAD - 1);
+        return store.put(cursor.firstUserId + i, cursor.usernames[i], expiration, TokenContentionBenchmark::newToken);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UserPrincipal lookup1(Cursor cursor) {
+        return lookup(cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public UserPrincipal lookup2(Cursor cursor) {
+        return lookup(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public UserPrincipal lookup4(Cursor cursor) {
+        return lookup(cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public UserPrincipal lookup8(Cursor cursor) {
+        return lookup(cursor);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public AuthToken issue1(Cursor cursor) {
+        return issue(cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public AuthToken issue2(Cursor cursor) {
+        return issue(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public AuthToken issue4(Cursor cursor) {
+        return issue(cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public AuthToken issue8(Cursor cursor) {
+        return issue(cursor);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public UserPrincipal mixedLookup(Cursor cursor) {
+        return lookup(cursor);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public AuthToken mixedIssue(Cursor cursor) {
+        return issue(cursor);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// what AuthenticationRequestFilter does per request with an opaque token, against a store of liveTokens tokens with
+// one user each; gc.alloc.rate.norm is the garbage per lookup
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TokenLookupBenchmark {
+
+    @Param({"200000"})
+    public int liveTokens;
+
+    private TokenHasher hasher;
+    private InMemoryTokenStore store;
+    private String[] headers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        hasher = TokenHasher.withRandomKey();
+        store = new InMemoryTokenStore(1, hasher);
+        Instant expiration = Instant.now().plus(Duration.ofDays(1));
+        headers = new String[liveTokens];
+        for (int i = 0; i < liveTokens; i++) {
+            String token = store.put(i, "user" + i, expiration, () -> CryptoUtils.genRandomBytes(AuthTokenManager.TOKEN_LENGTH_BYTES)).getToken();
+            headers[i] = AuthenticationRequestFilter.AUTH_SCHEME + " " + token;
+        }
+    }
+
+    @Benchmark
+    public UserPrincipal findUser() {
+        String header = headers[next];
+        next = (next + 1 == headers.length) ? 0 : next + 1;
+        int tokenStart = AuthorizationHeaderParser.tokenStart(header);
+        if (TokenTable.decodedLength(header, tokenStart, AuthorizationHeaderParser.tokenEnd(header, tokenStart)) != AuthTokenManager.TOKEN_LENGTH_BYTES) {
+            throw new IllegalStateException();
+        }
+        byte[] key = hasher.hash(TokenTable.decodeHigh(header, tokenStart), TokenTable.decodeLow(header, tokenStart));
+        return store.findUser(TokenTable.high(key), TokenTable.low(key), System.currentTimeMillis());
+    }
+
+}
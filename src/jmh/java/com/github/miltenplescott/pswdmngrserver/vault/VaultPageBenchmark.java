@@ -0,0 +1,96 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.vault;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import com.github.miltenplescott.pswdmngrserver.user.User;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+// the queries of one page of GET /vault?limit=..., the first page and the next to last one of a large vault, against
+// in-memory H2; paging by id, both should take about as long
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VaultPageBenchmark {
+
+    private static final int ENTRIES = 20_000;
+    private static final int LIMIT = 50;
+
+    @Param({"false", "true"})
+    public boolean deepPage;
+
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private VaultDao vaultDao;
+    private long userId;
+    private long afterId;
+
+    @Setup
+    public void setUp() {
+        emf = Persistence.createEntityManagerFactory("test-resource-local", Map.of("eclipselink.logging.level", "OFF"));
+        em = emf.createEntityManager();
+        vaultDao = new VaultDaoImpl() {
+            @Override
+            public EntityManager getEntityManager() {
+                return em;
+            }
+        };
+        em.getTransaction().begin();
+        User user = new User("user", CryptoUtils.genRandomBytes(CryptoUtils.KDF_INPUT_LENGTH_BYTES));
+        user.setSalt(CryptoUtils.genSalt());
+        em.persist(user);
+        List<VaultEntry> vault = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++) {
+            VaultEntry vaultEntry = new VaultEntry(new byte[64], user);
+            em.persist(vaultEntry);
+            vault.add(vaultEntry);
+        }
+        em.getTransaction().commit();
+        em.clear();
+        userId = user.getId();
+        long[] ids = vault.stream().mapToLong(VaultEntry::getId).sorted().toArray();
+        afterId = deepPage ? ids[ENTRIES - 2 * LIMIT - 1] : 0;
+    }
+
+    @TearDown
+    public void tearDown() {
+        em.close();
+        emf.close();
+    }
+
+    @Benchmark
+    public void page(Blackhole blackhole) throws IOException {
+        em.getTransaction().begin();
+        try {
+            long lastId = vaultDao.findPageEnd(userId, afterId, LIMIT).orElse(Long.MAX_VALUE);
+            vaultDao.forEach(userId, afterId, lastId, LIMIT, (id, encData) -> blackhole.consume(encData));
+        }
+        finally {
+            em.getTransaction().rollback();
+        }
+    }
+
+}
@@ -0,0 +1,568 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.util.Pack;
+
+/**
+ * Argon2id, version 1.3 (RFC 9106), without secret and associated data.
+ *
+ * Same output as BouncyCastle's {@code Argon2BytesGenerator}, which fills the lanes one after another on the calling
+ * thread. Lanes only depend on each other at the four sync points of every pass, so here the lanes of each segment are
+ * filled at the same time on a shared fork-join pool, the calling thread fills the first lane itself.
+ *
+ * An instance is the working memory of one KDF: the block matrix, scratch blocks, digests and lane tasks. Instances are
+ * wiped and pooled after use, so a steady stream of KDFs allocates next to nothing. The pool keeps at most kdf.threads
+ * instances, and none whose block matrix grew beyond kdf.pool.maxMemoryKb, so a KDF with more memory than logins use,
+ * e.g. one of a calibration, leaves its matrix to the GC.
+ */
+final class Argon2 {
+
+    private static final int VERSION = 0x13;
+    private static final int TYPE_ID = 2;
+    private static final int SYNC_POINTS = 4;
+    private static final int BLOCK_LENGTH_BYTES = 1024;
+    private static final int BLOCK_LENGTH_LONGS = BLOCK_LENGTH_BYTES / 8;
+    private static final int PREHASH_LENGTH_BYTES = 64;
+    private static final int PREHASH_SEED_LENGTH_BYTES = PREHASH_LENGTH_BYTES + 8;
+
+    // lanes of every KDF running on this node share it, so it's sized to the machine, not to the lanes; shut down on
+    // undeploy by CryptoShutdownListener
+    private static final ForkJoinPool LANE_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("argon2-lane-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    // same default as KdfManager's, the KDFs its executor runs at once
+    private static final int MAX_POOLED = ServerConfig.getInt("kdf.threads", Runtime.getRuntime().availableProcessors());
+    private static final long MAX_POOLED_MEMORY_LONGS = (long) BLOCK_LENGTH_LONGS * ServerConfig.getInt("kdf.pool.maxMemoryKb",
+        Math.max(CryptoUtils.KDF_MEMORY_KB, ServerConfig.getInt("kdf.memoryKb", CryptoUtils.KDF_MEMORY_KB)));
+    private static final Deque<Argon2> POOL = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();  // size of POOL, which isn't constant time
+
+    private int passes;
+    private int lanes;
+    private int segmentLength;
+    private int laneLength;
+    private int memoryBlocks;
+    private long[] memory = new long[0];  // grows to the largest memory asked for
+    private Segment[] segments = new Segment[0];
+    private final long[] last = new long[BLOCK_LENGTH_LONGS];
+    private final byte[] block = new byte[BLOCK_LENGTH_BYTES];
+    private final byte[] seed = new byte[PREHASH_SEED_LENGTH_BYTES];
+    private final byte[] hash = new byte[PREHASH_LENGTH_BYTES];
+    private final byte[] intBytes = new byte[4];
+    private final Blake2bDigest digest = new Blake2bDigest(PREHASH_LENGTH_BYTES * 8);
+    private Blake2bDigest shortDigest;  // for hashes shorter than 64 bytes, of the length last asked for
+
+    private Argon2() {
+    }
+
+    // KDFs that run later fill their lanes on the calling thread
+    static void shutdown() {
+        LANE_POOL.shutdown();
+    }
+
+    static void generate(byte[] pswd, byte[] salt, KdfParams params, byte[] out) {
+        Argon2 argon2 = POOL.pollFirst();  // last returned, the likeliest to still be in a CPU cache
+        if (argon2 == null) {
+            argon2 = new Argon2();
+        }
+        else {
+            POOLED.decrementAndGet();
+        }
+        try {
+            argon2.run(pswd, salt, params, out);
+        }
+        finally {
+            release(argon2);
+        }
+    }
+
+    // on an instance of its own, which the pool never sees
+    static void generateUnpooled(byte[] pswd, byte[] salt, KdfParams params, byte[] out) {
+        new Argon2().run(pswd, salt, params, out);
+    }
+
+    private void run(byte[] pswd, byte[] salt, KdfParams params, byte[] out) {
+        try {
+            init(params);
+            fillFirstBlocks(pswd, salt, params.getMemoryKb(), out.length);
+            fillMemory();
+            finish(out);
+        }
+        finally {
+            wipe();  // no lane is running any more, fillMemory waits for all of them even if one failed
+        }
+    }
+
+    private static void release(Argon2 argon2) {
+        if (argon2.memory.length > MAX_POOLED_MEMORY_LONGS) {
+            return;
+        }
+        if (POOLED.incrementAndGet() > MAX_POOLED) {
+            POOLED.decrementAndGet();
+            return;
+        }
+        POOL.offerFirst(argon2);
+    }
+
+    private void init(KdfParams params) {
+        passes = params.getIterations();
+        lanes = params.getParallelism();
+        segmentLength = params.getMemoryKb() / (lanes * SYNC_POINTS);  // rounded down to whole segments
+        laneLength = segmentLength * SYNC_POINTS;
+        memoryBlocks = laneLength * lanes;
+        if (memory.length < memoryBlocks * BLOCK_LENGTH_LONGS) {
+            memory = new long[memoryBlocks * BLOCK_LENGTH_LONGS];
+        }
+        if (segments.length < lanes) {
+            Segment[] grown = Arrays.copyOf(segments, lanes);
+            for (int lane = segments.length; lane < lanes; lane++) {
+                grown[lane] = new Segment(lane);
+            }
+            segments = grown;
+        }
+    }
+
+    private void wipe() {
+        Arrays.fill(memory, 0, memoryBlocks * BLOCK_LENGTH_LONGS, 0);
+        for (int lane = 0; lane < lanes; lane++) {
+            segments[lane].wipe();
+        }
+        Arrays.fill(last, 0);
+        Arrays.fill(block, (byte) 0);
+        Arrays.fill(seed, (byte) 0);
+        Arrays.fill(hash, (byte) 0);
+    }
+
+    private void fillFirstBlocks(byte[] pswd, byte[] salt, int memoryKb, int outLength) {
+        // H0
+        digest.reset();
+        updateInt(lanes);
+        updateInt(outLength);
+        updateInt(memoryKb);
+        updateInt(passes);
+        updateInt(VERSION);
+        updateInt(TYPE_ID);
+        updateInt(pswd.length);
+        digest.update(pswd, 0, pswd.length);
+        updateInt(salt.length);
+        digest.update(salt, 0, salt.length);
+        updateInt(0);  // no secret
+        updateInt(0);  // no associated data
+        digest.doFinal(seed, 0);
+
+        for (int lane = 0; lane < lanes; lane++) {
+            Pack.intToLittleEndian(lane, seed, PREHASH_LENGTH_BYTES + 4);
+            for (int column = 0; column < 2; column++) {
+                Pack.intToLittleEndian(column, seed, PREHASH_LENGTH_BYTES);
+                variableLengthHash(seed, block, BLOCK_LENGTH_BYTES);
+                int offset = (lane * laneLength + column) * BLOCK_LENGTH_LONGS;
+                for (int i = 0; i < BLOCK_LENGTH_LONGS; i++) {
+                    memory[offset + i] = Pack.littleEndianToLong(block, i * 8);
+                }
+            }
+        }
+    }
+
+    private void fillMemory() {
+        for (int pass = 0; pass < passes; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                for (int lane = 1; lane < lanes; lane++) {
+                    segments[lane].fork(pass, slice);
+                }
+                try {
+                    segments[0].fill(pass, slice);
+                }
+                finally {
+                    for (int lane = 1; lane < lanes; lane++) {
+                        segments[lane].quietlyJoin();  // sync point
+                    }
+                }
+                for (int lane = 1; lane < lanes; lane++) {
+                    segments[lane].join();  // rethrows what a lane threw
+                }
+            }
+        }
+    }
+
+    private void finish(byte[] out) {
+        for (int lane = 0; lane < lanes; lane++) {
+            int offset = (lane * laneLength + laneLength - 1) * BLOCK_LENGTH_LONGS;
+            for (int i = 0; i < BLOCK_LENGTH_LONGS; i++) {
+                last[i] ^= memory[offset + i];
+            }
+        }
+        for (int i = 0; i < BLOCK_LENGTH_LONGS; i++) {
+            Pack.longToLittleEndian(last[i], block, i * 8);
+        }
+        variableLengthHash(block, out, out.length);
+    }
+
+    /**
+     * One lane's part of a slice. Keeps the lane's scratch blocks, a segment is only ever filled by one thread at a
+     * time. Reused for every slice, so submitting it to the pool allocates nothing.
+     */
+    private final class Segment extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int lane;
+        private final long[] zero = new long[BLOCK_LENGTH_LONGS];
+        private final long[] input = new long[BLOCK_LENGTH_LONGS];
+        private final long[] address = new long[BLOCK_LENGTH_LONGS];
+        private final long[] r = new long[BLOCK_LENGTH_LONGS];
+        private final long[] z = new long[BLOCK_LENGTH_LONGS];
+        private int pass;
+        private int slice;
+
+        private Segment(int lane) {
+            this.lane = lane;
+        }
+
+        private void fork(int pass, int slice) {
+            this.pass = pass;
+            this.slice = slice;
+            reinitialize();
+            try {
+                LANE_POOL.execute(this);
+            }
+            catch (RejectedExecutionException ex) {  // shut down, a task that never ran would never be joined
+                quietlyInvoke();
+            }
+        }
+
+        @Override
+        protected void compute() {
+            fill(pass, slice);
+        }
+
+        private void wipe() {
+            Arrays.fill(input, 0);
+            Arrays.fill(address, 0);
+            Arrays.fill(r, 0);
+            Arrays.fill(z, 0);
+        }
+
+        private void fill(int pass, int slice) {
+            // first half of the first pass is data-independent (Argon2i), the rest data-dependent (Argon2d)
+            boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+            int startIndex = (pass == 0 && slice == 0) ? 2 : 0;  // first two blocks come from H0
+            if (dataIndependent) {
+                Arrays.fill(input, 0);
+                input[0] = pass;
+                input[1] = lane;
+                input[2] = slice;
+                input[3] = memoryBlocks;
+                input[4] = passes;
+                input[5] = TYPE_ID;
+                if (startIndex != 0) {  // index 0 isn't visited, so the first address block has to be made here
+                    nextAddresses();
+                }
+            }
+
+            int current = lane * laneLength + slice * segmentLength + startIndex;
+            int previous = (current % laneLength == 0) ? current + laneLength - 1 : current - 1;
+            for (int index = startIndex; index < segmentLength; index++, current++, previous = current - 1) {
+                long pseudoRandom;
+                if (dataIndependent) {
+                    if (index % BLOCK_LENGTH_LONGS == 0) {
+                        nextAddresses();
+                    }
+                    pseudoRandom = address[index % BLOCK_LENGTH_LONGS];
+                }
+                else {
+                    pseudoRandom = memory[previous * BLOCK_LENGTH_LONGS];
+                }
+                int refLane = (pass == 0 && slice == 0) ? lane : (int) ((pseudoRandom >>> 32) % lanes);
+                int refColumn = referenceColumn(pass, slice, index, pseudoRandom, refLane == lane);
+                int reference = refLane * laneLength + refColumn;
+                // version 1.3 xors the new block into the old one on later passes
+                compress(memory, previous * BLOCK_LENGTH_LONGS, memory, reference * BLOCK_LENGTH_LONGS,
+                    memory, current * BLOCK_LENGTH_LONGS, pass > 0);
+            }
+        }
+
+        private int referenceColumn(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+            long startPosition;
+            long areaSize;
+            if (pass == 0) {
+                startPosition = 0;
+                areaSize = sameLane
+                    ? slice * segmentLength + index - 1
+                    : slice * segmentLength + ((index == 0) ? -1 : 0);
+            }
+            else {
+                startPosition = ((slice + 1) * segmentLength) % laneLength;
+                areaSize = sameLane
+                    ? laneLength - segmentLength + index - 1
+                    : laneLength - segmentLength + ((index == 0) ? -1 : 0);
+            }
+            long relativePosition = pseudoRandom & 0xFFFFFFFFL;
+            relativePosition = (relativePosition * relativePosition) >>> 32;
+            relativePosition = areaSize - 1 - ((areaSize * relativePosition) >>> 32);
+            return (int) ((startPosition + relativePosition) % laneLength);
+        }
+
+        private void nextAddresses() {
+            input[6]++;
+            compress(zero, 0, input, 0, address, 0, false);
+            compress(zero, 0, address, 0, address, 0, false);
+        }
+
+        // G: out = P(x ^ y) ^ x ^ y, xored into out instead if xorOut; out may be x or y
+        private void compress(long[] x, int xOffset, long[] y, int yOffset, long[] out, int outOffset, boolean xorOut) {
+            for (int i = 0; i < BLOCK_LENGTH_LONGS; i++) {
+                long xy = x[xOffset + i] ^ y[yOffset + i];
+                r[i] = xy;
+                z[i] = xy;
+            }
+            for (int i = 0; i < 8; i++) {
+                roundRow(z, 16 * i);
+            }
+            for (int i = 0; i < 8; i++) {
+                roundColumn(z, 2 * i);
+            }
+            if (xorOut) {
+                for (int i = 0; i < BLOCK_LENGTH_LONGS; i++) {
+                    out[outOffset + i] ^= z[i] ^ r[i];
+                }
+            }
+            else {
+                for (int i = 0; i < BLOCK_LENGTH_LONGS; i++) {
+                    out[outOffset + i] = z[i] ^ r[i];
+                }
+            }
+        }
+
+    }
+
+    // BLAKE2b round with the multiplications of BlaMka on row o / 16 of the block seen as an 8x8 matrix of 16-byte
+    // registers. The sixteen words stay in locals, and with constant offsets the JIT checks the array bounds once per
+    // round instead of once per access. Spelled out instead of sharing code with roundColumn, which is what makes the
+    // offsets constant; about 15 % faster than indexing v through the mix steps.
+    private static void roundRow(long[] v, int o) {
+        long v0 = v[o + 0]; long v1 = v[o + 1]; long v2 = v[o + 2]; long v3 = v[o + 3];
+        long v4 = v[o + 4]; long v5 = v[o + 5]; long v6 = v[o + 6]; long v7 = v[o + 7];
+        long v8 = v[o + 8]; long v9 = v[o + 9]; long v10 = v[o + 10]; long v11 = v[o + 11];
+        long v12 = v[o + 12]; long v13 = v[o + 13]; long v14 = v[o + 14]; long v15 = v[o + 15];
+
+        // columns
+        v0 = blaMka(v0, v4);
+        v12 = Long.rotateRight(v12 ^ v0, 32);
+        v8 = blaMka(v8, v12);
+        v4 = Long.rotateRight(v4 ^ v8, 24);
+        v0 = blaMka(v0, v4);
+        v12 = Long.rotateRight(v12 ^ v0, 16);
+        v8 = blaMka(v8, v12);
+        v4 = Long.rotateRight(v4 ^ v8, 63);
+        v1 = blaMka(v1, v5);
+        v13 = Long.rotateRight(v13 ^ v1, 32);
+        v9 = blaMka(v9, v13);
+        v5 = Long.rotateRight(v5 ^ v9, 24);
+        v1 = blaMka(v1, v5);
+        v13 = Long.rotateRight(v13 ^ v1, 16);
+        v9 = blaMka(v9, v13);
+        v5 = Long.rotateRight(v5 ^ v9, 63);
+        v2 = blaMka(v2, v6);
+        v14 = Long.rotateRight(v14 ^ v2, 32);
+        v10 = blaMka(v10, v14);
+        v6 = Long.rotateRight(v6 ^ v10, 24);
+        v2 = blaMka(v2, v6);
+        v14 = Long.rotateRight(v14 ^ v2, 16);
+        v10 = blaMka(v10, v14);
+        v6 = Long.rotateRight(v6 ^ v10, 63);
+        v3 = blaMka(v3, v7);
+        v15 = Long.rotateRight(v15 ^ v3, 32);
+        v11 = blaMka(v11, v15);
+        v7 = Long.rotateRight(v7 ^ v11, 24);
+        v3 = blaMka(v3, v7);
+        v15 = Long.rotateRight(v15 ^ v3, 16);
+        v11 = blaMka(v11, v15);
+        v7 = Long.rotateRight(v7 ^ v11, 63);
+
+        // diagonals
+        v0 = blaMka(v0, v5);
+        v15 = Long.rotateRight(v15 ^ v0, 32);
+        v10 = blaMka(v10, v15);
+        v5 = Long.rotateRight(v5 ^ v10, 24);
+        v0 = blaMka(v0, v5);
+        v15 = Long.rotateRight(v15 ^ v0, 16);
+        v10 = blaMka(v10, v15);
+        v5 = Long.rotateRight(v5 ^ v10, 63);
+        v1 = blaMka(v1, v6);
+        v12 = Long.rotateRight(v12 ^ v1, 32);
+        v11 = blaMka(v11, v12);
+        v6 = Long.rotateRight(v6 ^ v11, 24);
+        v1 = blaMka(v1, v6);
+        v12 = Long.rotateRight(v12 ^ v1, 16);
+        v11 = blaMka(v11, v12);
+        v6 = Long.rotateRight(v6 ^ v11, 63);
+        v2 = blaMka(v2, v7);
+        v13 = Long.rotateRight(v13 ^ v2, 32);
+        v8 = blaMka(v8, v13);
+        v7 = Long.rotateRight(v7 ^ v8, 24);
+        v2 = blaMka(v2, v7);
+        v13 = Long.rotateRight(v13 ^ v2, 16);
+        v8 = blaMka(v8, v13);
+        v7 = Long.rotateRight(v7 ^ v8, 63);
+        v3 = blaMka(v3, v4);
+        v14 = Long.rotateRight(v14 ^ v3, 32);
+        v9 = blaMka(v9, v14);
+        v4 = Long.rotateRight(v4 ^ v9, 24);
+        v3 = blaMka(v3, v4);
+        v14 = Long.rotateRight(v14 ^ v3, 16);
+        v9 = blaMka(v9, v14);
+        v4 = Long.rotateRight(v4 ^ v9, 63);
+
+        v[o + 0] = v0; v[o + 1] = v1; v[o + 2] = v2; v[o + 3] = v3;
+        v[o + 4] = v4; v[o + 5] = v5; v[o + 6] = v6; v[o + 7] = v7;
+        v[o + 8] = v8; v[o + 9] = v9; v[o + 10] = v10; v[o + 11] = v11;
+        v[o + 12] = v12; v[o + 13] = v13; v[o + 14] = v14; v[o + 15] = v15;
+    }
+
+    // same round on column o / 2
+    private static void roundColumn(long[] v, int o) {
+        long v0 = v[o + 0]; long v1 = v[o + 1]; long v2 = v[o + 16]; long v3 = v[o + 17];
+        long v4 = v[o + 32]; long v5 = v[o + 33]; long v6 = v[o + 48]; long v7 = v[o + 49];
+        long v8 = v[o + 64]; long v9 = v[o + 65]; long v10 = v[o + 80]; long v11 = v[o + 81];
+        long v12 = v[o + 96]; long v13 = v[o + 97]; long v14 = v[o + 112]; long v15 = v[o + 113];
+
+        // columns
+        v0 = blaMka(v0, v4);
+        v12 = Long.rotateRight(v12 ^ v0, 32);
+        v8 = blaMka(v8, v12);
+        v4 = Long.rotateRight(v4 ^ v8, 24);
+        v0 = blaMka(v0, v4);
+        v12 = Long.rotateRight(v12 ^ v0, 16);
+        v8 = blaMka(v8, v12);
+        v4 = Long.rotateRight(v4 ^ v8, 63);
+        v1 = blaMka(v1, v5);
+        v13 = Long.rotateRight(v13 ^ v1, 32);
+        v9 = blaMka(v9, v13);
+        v5 = Long.rotateRight(v5 ^ v9, 24);
+        v1 = blaMka(v1, v5);
+        v13 = Long.rotateRight(v13 ^ v1, 16);
+        v9 = blaMka(v9, v13);
+        v5 = Long.rotateRight(v5 ^ v9, 63);
+        v2 = blaMka(v2, v6);
+        v14 = Long.rotateRight(v14 ^ v2, 32);
+        v10 = blaMka(v10, v14);
+        v6 = Long.rotateRight(v6 ^ v10, 24);
+        v2 = blaMka(v2, v6);
+        v14 = Long.rotateRight(v14 ^ v2, 16);
+        v10 = blaMka(v10, v14);
+        v6 = Long.rotateRight(v6 ^ v10, 63);
+        v3 = blaMka(v3, v7);
+        v15 = Long.rotateRight(v15 ^ v3, 32);
+        v11 = blaMka(v11, v15);
+        v7 = Long.rotateRight(v7 ^ v11, 24);
+        v3 = blaMka(v3, v7);
+        v15 = Long.rotateRight(v15 ^ v3, 16);
+        v11 = blaMka(v11, v15);
+        v7 = Long.rotateRight(v7 ^ v11, 63);
+
+        // diagonals
+        v0 = blaMka(v0, v5);
+        v15 = Long.rotateRight(v15 ^ v0, 32);
+        v10 = blaMka(v10, v15);
+        v5 = Long.rotateRight(v5 ^ v10, 24);
+        v0 = blaMka(v0, v5);
+        v15 = Long.rotateRight(v15 ^ v0, 16);
+        v10 = blaMka(v10, v15);
+        v5 = Long.rotateRight(v5 ^ v10, 63);
+        v1 = blaMka(v1, v6);
+        v12 = Long.rotateRight(v12 ^ v1, 32);
+        v11 = blaMka(v11, v12);
+        v6 = Long.rotateRight(v6 ^ v11, 24);
+        v1 = blaMka(v1, v6);
+        v12 = Long.rotateRight(v12 ^ v1, 16);
+        v11 = blaMka(v11, v12);
+        v6 = Long.rotateRight(v6 ^ v11, 63);
+        v2 = blaMka(v2, v7);
+        v13 = Long.rotateRight(v13 ^ v2, 32);
+        v8 = blaMka(v8, v13);
+        v7 = Long.rotateRight(v7 ^ v8, 24);
+        v2 = blaMka(v2, v7);
+        v13 = Long.rotateRight(v13 ^ v2, 16);
+        v8 = blaMka(v8, v13);
+        v7 = Long.rotateRight(v7 ^ v8, 63);
+        v3 = blaMka(v3, v4);
+        v14 = Long.rotateRight(v14 ^ v3, 32);
+        v9 = blaMka(v9, v14);
+        v4 = Long.rotateRight(v4 ^ v9, 24);
+        v3 = blaMka(v3, v4);
+        v14 = Long.rotateRight(v14 ^ v3, 16);
+        v9 = blaMka(v9, v14);
+        v4 = Long.rotateRight(v4 ^ v9, 63);
+
+        v[o + 0] = v0; v[o + 1] = v1; v[o + 16] = v2; v[o + 17] = v3;
+        v[o + 32] = v4; v[o + 33] = v5; v[o + 48] = v6; v[o + 49] = v7;
+        v[o + 64] = v8; v[o + 65] = v9; v[o + 80] = v10; v[o + 81] = v11;
+        v[o + 96] = v12; v[o + 97] = v13; v[o + 112] = v14; v[o + 113] = v15;
+    }
+
+    private static long blaMka(long x, long y) {
+        return x + y + 2 * (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+    }
+
+    // H'
+    private void variableLengthHash(byte[] input, byte[] out, int outLength) {
+        Pack.intToLittleEndian(outLength, intBytes, 0);
+        if (outLength <= PREHASH_LENGTH_BYTES) {
+            if (shortDigest == null || shortDigest.getDigestSize() != outLength) {
+                shortDigest = new Blake2bDigest(outLength * 8);
+            }
+            shortDigest.update(intBytes, 0, intBytes.length);
+            shortDigest.update(input, 0, input.length);
+            shortDigest.doFinal(out, 0);
+            return;
+        }
+        int half = PREHASH_LENGTH_BYTES / 2;
+        digest.update(intBytes, 0, intBytes.length);
+        digest.update(input, 0, input.length);
+        digest.doFinal(hash, 0);
+        System.arraycopy(hash, 0, out, 0, half);
+        int position = half;
+        int hashes = (outLength + half - 1) / half - 2;
+        for (int i = 2; i <= hashes; i++, position += half) {
+            digest.update(hash, 0, hash.length);
+            digest.doFinal(hash, 0);
+            System.arraycopy(hash, 0, out, position, half);
+        }
+        int lastLength = outLength - half * hashes;
+        if (lastLength == PREHASH_LENGTH_BYTES) {
+            digest.update(hash, 0, hash.length);
+            digest.doFinal(out, position);
+        }
+        else {
+            Blake2bDigest lastDigest = new Blake2bDigest(lastLength * 8);
+            lastDigest.update(hash, 0, hash.length);
+            lastDigest.doFinal(out, position);
+        }
+    }
+
+    private void updateInt(int value) {
+        Pack.intToLittleEndian(value, intBytes, 0);
+        digest.update(intBytes, 0, intBytes.length);
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Stops the background threads of {@link Argon2} and {@link RandomSource} when the application is undeployed. They are
+ * static, one set per deployment's class loader, so without this every redeploy would leave a set behind, holding on to
+ * the old class loader.
+ */
+@WebListener
+public class CryptoShutdownListener implements ServletContextListener {
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        Argon2.shutdown();
+        RandomSource.shutdown();
+    }
+
+}
@@ -8,10 +8,9 @@
 
 package com.github.miltenplescott.pswdmngrserver;
 
-import java.security.SecureRandom;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
-import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
-import org.bouncycastle.crypto.params.Argon2Parameters;
 import org.bouncycastle.util.Arrays;
 
 public final class CryptoUtils {
@@ -19,43 +18,52 @@ public final class CryptoUtils {
     public static final int SALT_LENGTH_BYTES = 16;
     public static final int KDF_INPUT_LENGTH_BYTES = 32;
     public static final int KDF_OUTPUT_LENGTH_BYTES = 32;
+    // defaults of the kdf.* settings, see KdfParams
     public static final int KDF_PARALLELISM = 4;
     public static final int KDF_MEMORY_KB = 1024;
     public static final int KDF_ITERATIONS = 10;
 
-    public static final SecureRandom rng = new SecureRandom();
-
     private CryptoUtils() {
         throw new AssertionError("Suppress default constructor for noninstantiability.");
     }
 
     public static byte[] genRandomBytes(int numberOfBytes) {
         byte[] bytes = new byte[numberOfBytes];
-        rng.nextBytes(bytes);
+        RandomSource.nextBytes(bytes);
         return bytes;
     }
 
+    public static long genRandomLong() {
+        return RandomSource.nextLong();
+    }
+
     public static byte[] genSalt() {
         return genRandomBytes(SALT_LENGTH_BYTES);
     }
 
     // masterPswd parameter has length KDF_INPUT_LENGTH_BYTES
-    public static byte[] kdfAndSalt(byte[] masterPswd, byte[] salt) {
-        Argon2Parameters.Builder argonBuilder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id);
-        argonBuilder.withVersion(Argon2Parameters.ARGON2_VERSION_13)
-            .withSalt(salt)
-            .withParallelism(KDF_PARALLELISM)
-            .withMemoryAsKB(KDF_MEMORY_KB)
-            .withIterations(KDF_ITERATIONS);
-
-        Argon2Parameters argonParams = argonBuilder.build();
-        Argon2BytesGenerator argonGenerator = new Argon2BytesGenerator();
-        argonGenerator.init(argonParams);
+    public static byte[] kdfAndSalt(byte[] masterPswd, byte[] salt, KdfParams params) {
         byte[] kdfOutput = new byte[KDF_OUTPUT_LENGTH_BYTES];
-        argonGenerator.generateBytes(masterPswd, kdfOutput);
+        Argon2.generate(masterPswd, salt, params, kdfOutput);
         return kdfOutput;
     }
 
+    // same as kdfAndSalt, for one-off KDFs like those of a calibration, whose working memory isn't kept for reuse
+    public static byte[] kdfAndSaltUnpooled(byte[] masterPswd, byte[] salt, KdfParams params) {
+        byte[] kdfOutput = new byte[KDF_OUTPUT_LENGTH_BYTES];
+        Argon2.generateUnpooled(masterPswd, salt, params, kdfOutput);
+        return kdfOutput;
+    }
+
+    public static byte[] sha256(byte[] input) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(input);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new AssertionError("Every Java platform supports SHA-256.", ex);
+        }
+    }
+
     public static void clearArray(byte[] array) {
         Arrays.clear(array);
     }
@@ -76,6 +84,10 @@ public final class CryptoUtils {
         return decodeBase64(token);
     }
 
+    public static byte[] decodeKey(String key) throws IllegalArgumentException {
+        return decodeBase64(key);
+    }
+
     private static String encodeBase64(byte[] bytes) {
         return Base64.getEncoder().encodeToString(bytes);
     }
@@ -20,6 +20,9 @@ public interface GenericDao<T extends BaseEntity> {
 
     Optional<T> findOne(Object id);
 
+    // without loading it, for setting a relation to a row known to exist
+    T getReference(Object id);
+
     List<T> findAll();
 
     T update(T t);
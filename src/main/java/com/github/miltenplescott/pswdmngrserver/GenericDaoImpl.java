@@ -24,6 +24,7 @@ public class GenericDaoImpl<T extends BaseEntity> implements GenericDao<T> {
     private EntityManager entityManager;
 
     private final Class<T> type;
+    private volatile boolean findAllRegistered;
 
     public GenericDaoImpl(Class<T> type) {
         this.type = type;
@@ -44,11 +45,22 @@ public class GenericDaoImpl<T extends BaseEntity> implements GenericDao<T> {
         return Optional.ofNullable(entityManager.find(type, id));
     }
 
+    @Override
+    public T getReference(Object id) {
+        return entityManager.getReference(type, id);
+    }
+
+    // built the first time it's needed, then kept by the persistence unit under its name
     @Override
     public List<T> findAll() {
-        CriteriaQuery<T> cq = entityManager.getCriteriaBuilder().createQuery(type);
-        cq.select(cq.from(type));
-        return entityManager.createQuery(cq).getResultList();
+        String name = type.getSimpleName() + ".findAll";
+        if (!findAllRegistered) {
+            CriteriaQuery<T> cq = entityManager.getCriteriaBuilder().createQuery(type);
+            cq.select(cq.from(type));
+            entityManager.getEntityManagerFactory().addNamedQuery(name, entityManager.createQuery(cq));
+            findAllRegistered = true;
+        }
+        return entityManager.createNamedQuery(name, type).getResultList();
     }
 
     @Override
@@ -0,0 +1,77 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import java.util.Objects;
+
+/**
+ * Argon2id cost a master password was hashed with. Stored with every user, so the cost of new hashes can change
+ * without invalidating the old ones.
+ */
+public final class KdfParams {
+
+    // what every account was hashed with before the parameters were stored per user
+    public static final KdfParams LEGACY = new KdfParams(CryptoUtils.KDF_ITERATIONS, CryptoUtils.KDF_MEMORY_KB, CryptoUtils.KDF_PARALLELISM);
+
+    private final int iterations;
+    private final int memoryKb;
+    private final int parallelism;
+
+    public KdfParams(int iterations, int memoryKb, int parallelism) {
+        if (iterations < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("KDF needs at least 1 iteration and 1 lane.");
+        }
+        if (memoryKb < 8 * parallelism) {  // Argon2 minimum
+            throw new IllegalArgumentException("KDF needs at least 8 KiB of memory per lane.");
+        }
+        this.iterations = iterations;
+        this.memoryKb = memoryKb;
+        this.parallelism = parallelism;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public int getMemoryKb() {
+        return memoryKb;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(iterations, memoryKb, parallelism);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final KdfParams other = (KdfParams) obj;
+        return this.iterations == other.iterations
+            && this.memoryKb == other.memoryKb
+            && this.parallelism == other.parallelism;
+    }
+
+    @Override
+    public String toString() {
+        return "KdfParams{iterations=" + iterations + ", memoryKb=" + memoryKb + ", parallelism=" + parallelism + "}";
+    }
+
+}
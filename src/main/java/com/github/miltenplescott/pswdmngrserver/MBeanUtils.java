@@ -0,0 +1,52 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// metrics are published as JMX MXBeans, so they are visible to the server's admin tooling only, not to API clients
+public final class MBeanUtils {
+
+    public static final String DOMAIN = "pswd-mngr";
+
+    private MBeanUtils() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    public static ObjectName register(String type, Object mxBean) {
+        try {
+            ObjectName name = new ObjectName(DOMAIN, "type", type);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {  // left behind by a previous deployment
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mxBean, name);
+            return name;
+        }
+        catch (JMException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static void unregister(ObjectName name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (name != null && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+        catch (JMException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
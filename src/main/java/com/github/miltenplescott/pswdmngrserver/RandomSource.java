@@ -0,0 +1,207 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.SP800SecureRandom;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+
+/**
+ * Random bytes for salts, tokens and keys, from Hash_DRBGs (NIST SP 800-90A, SHA-512) seeded from the OS.
+ *
+ * One shared SecureRandom makes every login and sign-up wait for the others, so there are several DRBGs and each
+ * thread uses the one its id maps to. Striped rather than one per thread, so a redeploy doesn't leave DRBGs behind on
+ * the server's threads. Each DRBG is reseeded from the OS once the reseed interval has passed.
+ *
+ * With a reservoir, each DRBG generates a block of random bytes ahead of time on a background thread, and requests only
+ * copy from it, unless they drain it faster than it is refilled. Served bytes are wiped from the block, so they are never handed out twice.
+ */
+final class RandomSource {
+
+    static final Duration DEFAULT_RESEED_INTERVAL = Duration.ofMinutes(10);
+    // a DRBG request costs several hashes however few bytes it gives, so without a reservoir every token pays for them
+    static final int DEFAULT_RESERVOIR_BYTES = 4096;
+    static final int SECURITY_STRENGTH_BITS = 256;
+    // Hash_DRBG gives at most 2^18 bits per request
+    private static final int MAX_REQUEST_BYTES = (1 << 18) / 8;
+
+    // only for seeds and nonces, reads /dev/urandom on Linux
+    private static final SecureRandom OS = new SecureRandom();
+    private static final long RESEED_INTERVAL_NANOS = Duration.ofMillis(
+        ServerConfig.getLong("random.reseedIntervalMs", DEFAULT_RESEED_INTERVAL.toMillis())).toNanos();
+    private static final int RESERVOIR_BYTES = ServerConfig.getInt("random.reservoirBytes", DEFAULT_RESERVOIR_BYTES);
+    private static final ExecutorService REFILLER = (RESERVOIR_BYTES > 0) ? Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "random-refill");
+        thread.setDaemon(true);
+        return thread;
+    }) : null;
+    private static final Stripe[] STRIPES = createStripes(
+        ServerConfig.getInt("random.stripes", 2 * Runtime.getRuntime().availableProcessors()));
+
+    private RandomSource() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    // called on undeploy by CryptoShutdownListener, requests after it generate their bytes on the calling thread
+    static void shutdown() {
+        if (REFILLER != null) {
+            REFILLER.shutdownNow();
+        }
+    }
+
+    private static Stripe[] createStripes(int count) {
+        Stripe[] stripes = new Stripe[(count <= 1) ? 1 : Integer.highestOneBit(count - 1) << 1];  // power of two, for the mask
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i);
+        }
+        return stripes;
+    }
+
+    private static Stripe stripe() {
+        return STRIPES[(int) Thread.currentThread().getId() & (STRIPES.length - 1)];
+    }
+
+    static void nextBytes(byte[] bytes) {
+        stripe().nextBytes(bytes);
+    }
+
+    static long nextLong() {
+        byte[] bytes = new byte[Long.BYTES];
+        nextBytes(bytes);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    private static final class Stripe {
+
+        private final SP800SecureRandom drbg;
+        private long seededAtNanos = System.nanoTime();
+        // guarded by this, null without a reservoir
+        private byte[] block;
+        private int position;
+        private final AtomicReference<byte[]> spare = new AtomicReference<>();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        private Stripe(int index) {
+            byte[] nonce = new byte[SECURITY_STRENGTH_BITS / 8];
+            OS.nextBytes(nonce);
+            byte[] personalization = ByteBuffer.allocate(Integer.BYTES + Long.BYTES)
+                .putInt(index).putLong(System.nanoTime()).array();
+            this.drbg = new SP800SecureRandomBuilder(bits -> new EntropySource() {
+                @Override
+                public boolean isPredictionResistant() {
+                    return false;
+                }
+
+                @Override
+                public byte[] getEntropy() {
+                    byte[] entropy = new byte[(bits + 7) / 8];
+                    OS.nextBytes(entropy);
+                    return entropy;
+                }
+
+                @Override
+                public int entropySize() {
+                    return bits;
+                }
+            })
+                .setPersonalizationString(personalization)
+                .setSecurityStrength(SECURITY_STRENGTH_BITS)
+                .setEntropyBitsRequired(SECURITY_STRENGTH_BITS)
+                .buildHash(new SHA512Digest(), nonce, false);
+            if (RESERVOIR_BYTES > 0) {
+                this.block = new byte[RESERVOIR_BYTES];
+                generate(block);
+                refill();
+            }
+        }
+
+        // the DRBG synchronizes itself, this runs on the refill thread too
+        private void generate(byte[] bytes) {
+            synchronized (drbg) {
+                long now = System.nanoTime();
+                if (now - seededAtNanos > RESEED_INTERVAL_NANOS) {
+                    drbg.reseed((byte[]) null);  // without additional input
+                    seededAtNanos = now;
+                }
+                if (bytes.length <= MAX_REQUEST_BYTES) {
+                    drbg.nextBytes(bytes);
+                    return;
+                }
+                byte[] chunk = new byte[MAX_REQUEST_BYTES];
+                for (int offset = 0; offset < bytes.length; offset += chunk.length) {
+                    drbg.nextBytes(chunk);
+                    System.arraycopy(chunk, 0, bytes, offset, Math.min(chunk.length, bytes.length - offset));
+                }
+                Arrays.fill(chunk, (byte) 0);
+            }
+        }
+
+        private synchronized void nextBytes(byte[] bytes) {
+            if (block == null) {
+                generate(bytes);
+                return;
+            }
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (position == block.length) {
+                    nextBlock();
+                }
+                int length = Math.min(bytes.length - offset, block.length - position);
+                System.arraycopy(block, position, bytes, offset, length);
+                Arrays.fill(block, position, position + length, (byte) 0);
+                position += length;
+                offset += length;
+            }
+        }
+
+        private void nextBlock() {
+            byte[] next = spare.getAndSet(null);
+            if (next == null) {  // refill hasn't kept up
+                next = block;
+                generate(next);
+            }
+            block = next;
+            position = 0;
+            refill();
+        }
+
+        // generates the next block on the refill thread, unless it is already at it
+        private void refill() {
+            if (refilling.compareAndSet(false, true)) {
+                try {
+                    REFILLER.execute(() -> {
+                        try {
+                            byte[] refill = new byte[RESERVOIR_BYTES];
+                            generate(refill);
+                            spare.set(refill);
+                        }
+                        finally {
+                            refilling.set(false);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException ex) {
+                    // shut down, refilling stays set so this isn't tried again and nextBlock generates in place
+                }
+            }
+        }
+
+    }
+
+}
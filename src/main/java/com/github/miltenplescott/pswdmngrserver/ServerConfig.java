@@ -0,0 +1,37 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver;
+
+// settings are JVM system properties, on Payara e.g.: asadmin create-system-properties pswdmngr.token.mode=signed
+public final class ServerConfig {
+
+    public static final String PREFIX = "pswdmngr.";
+
+    private ServerConfig() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    public static String getString(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        return Integer.getInteger(PREFIX + key, defaultValue);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        return Long.getLong(PREFIX + key, defaultValue);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Instant;
+
+// immutable, so it can be handed out to any number of concurrent readers
+final class AuthToken {
+
+    private final String token;
+    private final long userId;
+    private final String username;
+    private final Instant expiration;
+
+    AuthToken(String token, long userId, String username, Instant expiration) {
+        this.token = token;
+        this.userId = userId;
+        this.username = username;
+        this.expiration = expiration;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    long getUserId() {
+        return userId;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    Instant getExpiration() {
+        return expiration;
+    }
+
+    boolean isValidAt(Instant instant) {
+        return expiration.isAfter(instant);
+    }
+
+}
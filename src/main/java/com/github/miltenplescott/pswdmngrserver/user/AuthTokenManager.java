@@ -9,79 +9,228 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import com.github.miltenplescott.pswdmngrserver.MBeanUtils;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.Schedule;
 import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import javax.management.ObjectName;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 @Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)  // tokenStore is thread-safe, container lock would serialize every request
 public class AuthTokenManager {
 
     public static final int TOKEN_LENGTH_BYTES = 16;
     public static final Duration EXPIRATION_DURATION_MINUTES = Duration.ofMinutes(15);
 
-    // tokenToUsername and tokenToInstant maps have to be kept in sync
-    // i.e. every time when inserting/deleting, that operation has to be done on both maps
-    private BiMap<String, String> tokenToUsername = HashBiMap.create();  // key = token, value = username
-    private Map<String, Instant> tokenToInstant = new HashMap<>();  // key = token, value = expiration
-
-    public String generateToken(String username) {
-        String token = generateToken();
-        while (tokenToUsername.containsKey(token)) {
-            // make sure tokens are unique in addition to being random
-            token = generateToken();
-        }
-        // prior to insertion, forcePut deletes any entry(key==token) and any entry(value==username)
-        tokenToUsername.forcePut(token, username);  // keep maps in sync!
-        tokenToInstant.put(token, Instant.now().plus(EXPIRATION_DURATION_MINUTES));  // keep maps in sync!
-        return token;
+    private static final int DEFAULT_TOKEN_FILE_SLOTS = 65536;  // 6 MiB
+    private static final int DEFAULT_REPLICATION_PORT = 7470;
+    private static final int DEFAULT_MAX_TOKENS = 1_000_000;
+    private static final int DEFAULT_MAX_TOKEN_MEGABYTES = 256;
+    public static final int DEFAULT_EXPIRATION_JITTER_PERCENT = 10;
+
+    @Inject
+    private UserDao userDao;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    // the default one of the server, which stops its threads on undeploy
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private TokenStore tokenStore;
+    private TokenHasher tokenHasher;
+    private TokenTableFile tokenFile;  // null if tokens are not persisted
+    private DatagramTransport replicationTransport;  // null if tokens are not replicated
+    private TokenMode mode;
+    private long expirationJitterMs;
+    private SignedTokenManager signedTokens;
+    private ObjectName statsName;
+
+    @PostConstruct
+    private void init() {
+        mode = TokenMode.valueOf(ServerConfig.getString("token.mode", TokenMode.OPAQUE.name()).toUpperCase(Locale.ROOT));
+        int jitterPercent = ServerConfig.getInt("token.expirationJitterPercent", DEFAULT_EXPIRATION_JITTER_PERCENT);
+        if (jitterPercent < 0 || jitterPercent > 100) {
+            throw new IllegalArgumentException("Expiration jitter has to be between 0 and 100 %.");
+        }
+        expirationJitterMs = EXPIRATION_DURATION_MINUTES.toMillis() * jitterPercent / 100;
+        if (mode == TokenMode.SIGNED) {
+            signedTokens = SignedTokenManager.fromConfig(userDao::findTokenEpoch);
+        }
+        // signed tokens need no table, so there is nothing to persist in that mode
+        String tokenFilePath = ServerConfig.getString("token.file", "");
+        String replicationPeers = ServerConfig.getString("token.replication.peers", "");
+        String hashKey = ServerConfig.getString("token.hashKey", "");
+        if (!hashKey.isBlank()) {
+            tokenHasher = new TokenHasher(CryptoUtils.decodeKey(hashKey));
+        }
+        else if (mode == TokenMode.OPAQUE && (!tokenFilePath.isBlank() || !replicationPeers.isBlank())) {
+            // a random key would make the token file unreadable after a restart, and keys differ from the peers' ones
+            throw new IllegalArgumentException("pswdmngr.token.hashKey is required with pswdmngr.token.file or pswdmngr.token.replication.peers.");
+        }
+        else {
+            tokenHasher = TokenHasher.withRandomKey();
+        }
+        if (mode == TokenMode.OPAQUE && !tokenFilePath.isBlank()) {
+            try {
+                tokenFile = TokenTableFile.open(Path.of(tokenFilePath), ServerConfig.getInt("token.fileSlots", DEFAULT_TOKEN_FILE_SLOTS));
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        int maxSessionsPerUser = ServerConfig.getInt("token.maxSessionsPerUser", InMemoryTokenStore.DEFAULT_MAX_SESSIONS_PER_USER);
+        long maxTokenBytes = ServerConfig.getLong("token.maxMegabytes", DEFAULT_MAX_TOKEN_MEGABYTES) * 1024 * 1024;
+        int maxTokens = (int) Math.min(ServerConfig.getInt("token.maxTokens", DEFAULT_MAX_TOKENS), maxTokenBytes / InMemoryTokenStore.ESTIMATED_BYTES_PER_TOKEN);
+        TokenCapPolicy capPolicy = TokenCapPolicy.valueOf(ServerConfig.getString("token.capPolicy", TokenCapPolicy.EVICT_SOONEST.name()).toUpperCase(Locale.ROOT));
+        InMemoryTokenStore localStore = new InMemoryTokenStore(Instant.now(), maxSessionsPerUser, tokenFile, maxTokens, capPolicy, tokenHasher);
+        if (mode == TokenMode.OPAQUE && !replicationPeers.isBlank()) {
+            try {
+                replicationTransport = DatagramTransport.open(threadFactory,
+                    ServerConfig.getInt("token.replication.port", DEFAULT_REPLICATION_PORT),
+                    DatagramTransport.parsePeers(replicationPeers),
+                    CryptoUtils.decodeKey(ServerConfig.getString("token.replication.key", "")));
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            Duration maxStaleness = Duration.ofSeconds(ServerConfig.getLong("token.replication.maxStalenessSeconds", ReplicatedTokenStore.DEFAULT_MAX_STALENESS.toSeconds()));
+            ReplicatedTokenStore replicatedStore = new ReplicatedTokenStore(localStore,
+                () -> new InMemoryTokenStore(Instant.now(), maxSessionsPerUser, null, tokenHasher), replicationTransport, maxStaleness);
+            tokenStore = replicatedStore;
+            statsName = MBeanUtils.register(AuthTokenStats.MBEAN_TYPE, new AuthTokenStats(tokenStore, tokenFile, replicatedStore));
+        }
+        else {
+            tokenStore = localStore;
+            statsName = MBeanUtils.register(AuthTokenStats.MBEAN_TYPE, new AuthTokenStats(tokenStore, tokenFile, null));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        MBeanUtils.unregister(statsName);
+        if (replicationTransport != null) {
+            replicationTransport.close();
+        }
+        if (tokenFile != null) {
+            try {
+                tokenFile.close();
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    public TokenMode getMode() {
+        return mode;
+    }
+
+    // throws TokenStoreFullException if the token store is full and its policy is to reject new tokens
+    public String generateToken(long userId, String username) {
+        // tokens issued at the same moment (e.g. after a restart) would otherwise all need renewing at the same moment
+        long jitterMs = ThreadLocalRandom.current().nextLong(expirationJitterMs + 1);
+        Instant expiration = Instant.now().plus(EXPIRATION_DURATION_MINUTES).minusMillis(jitterMs);
+        if (mode == TokenMode.SIGNED) {
+            return signedTokens.issue(userId, username, expiration).getToken();
+        }
+        return tokenStore.put(userId, username, expiration, () -> CryptoUtils.genRandomBytes(TOKEN_LENGTH_BYTES)).getToken();
     }
 
     public long getTokenExpirationMs(String token) {
-        return tokenToInstant.get(token).toEpochMilli();
+        Optional<AuthToken> authToken = (mode == TokenMode.SIGNED)
+            ? signedTokens.verify(token, CryptoUtils.decodeToken(token))
+            : tokenStore.get(token);
+        return authToken.map(t -> t.getExpiration().toEpochMilli()).orElse(0L);
     }
 
-    public boolean isTokenValid(String token) {
-        if (!tokenToUsername.containsKey(token)) {
-            return false;
+    public boolean hasTokenCorrectLength(int decodedLength) {
+        if (mode == TokenMode.SIGNED) {
+            return signedTokens.hasCorrectLength(decodedLength);
         }
-        return tokenToInstant.get(token).isAfter(Instant.now());
+        return decodedLength == TOKEN_LENGTH_BYTES;
+    }
+
+    // signed mode only; single verification, so the token can't be revoked between validity check and reading the
+    // user
+    public Optional<UserPrincipal> findUser(String token, byte[] decodedToken) {
+        Instant now = Instant.now();
+        return signedTokens.verify(token, decodedToken)  // one HMAC, no shared state
+            .filter(t -> t.isValidAt(now))
+            .map(t -> new UserPrincipal(t.getUserId(), t.getUsername()));
     }
 
-    public String getUsername(String token) {
-        return tokenToUsername.get(token);
+    // opaque mode only, token split in two longs by TokenTable.decodeHigh/decodeLow; null if unknown or expired,
+    // allocates nothing apart from the key and what the JDK's HMAC does inside
+    public UserPrincipal findUser(long tokenHigh, long tokenLow) {
+        byte[] key = tokenHasher.hash(tokenHigh, tokenLow);
+        return tokenStore.findUser(TokenTable.high(key), TokenTable.low(key), System.currentTimeMillis());
     }
 
-    public void deleteTokenForUsername(String username) {
-        if (tokenToUsername.containsValue(username)) {
-            String token = tokenToUsername.inverse().get(username);
-            tokenToUsername.remove(token);  // keep maps in sync!
-            tokenToInstant.remove(token);  // keep maps in sync!
+    // signed tokens can't be revoked one by one, so in that mode this logs out every session of the user
+    public void deleteToken(UserPrincipal user, String token) {
+        if (mode == TokenMode.SIGNED) {
+            revokeSigned(user.getId());
+        }
+        else if (TokenTable.decodedLength(token) == TOKEN_LENGTH_BYTES) {
+            byte[] key = tokenHasher.hash(TokenTable.decodeHigh(token), TokenTable.decodeLow(token));
+            tokenStore.revoke(user.getName(), TokenTable.high(key), TokenTable.low(key));
         }
     }
 
-    // returns token
-    private String generateToken() {
-        byte[] bytes = CryptoUtils.genRandomBytes(TOKEN_LENGTH_BYTES);
-        return CryptoUtils.encodeToken(bytes);
+    public void deleteAllTokens(UserPrincipal user) {
+        if (mode == TokenMode.SIGNED) {
+            revokeSigned(user.getId());
+        }
+        else {
+            tokenStore.revokeAll(user.getName());
+        }
     }
 
-    @Schedule(hour = "*", minute = "*/30", persistent = false)
-    private void cleanupExpiredTokens() {
-        Instant now = Instant.now();
-        Iterator<Map.Entry<String, Instant>> entries = tokenToInstant.entrySet().iterator();
-        while (entries.hasNext()) {
-            Map.Entry<String, Instant> entry = entries.next();
-            if (entry.getValue().isBefore(now)) {
-                entries.remove();  // keep maps in sync!
-                tokenToUsername.remove(entry.getKey());  // keep maps in sync!
-            }
+    // in the caller's transaction; this node forgets the old epoch right away, and again once the transaction is over,
+    // so an epoch read from the old row meanwhile doesn't stay cached
+    private void revokeSigned(long userId) {
+        userDao.bumpTokenEpoch(userId);
+        signedTokens.forgetEpoch(userId);
+        if (transactions.getTransactionKey() != null) {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        signedTokens.forgetEpoch(userId);
+                    }
+                }
+            });
         }
     }
 
+    // same period as InMemoryTokenStore.EXPIRY_TICK, so tokens go away within two ticks of their deadline
+    @Schedule(hour = "*", minute = "*", second = "*/5", persistent = false)
+    private void cleanupExpiredTokens() {
+        tokenStore.removeExpired(Instant.now());
+    }
+
 }
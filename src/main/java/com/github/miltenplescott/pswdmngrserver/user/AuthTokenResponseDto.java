@@ -12,7 +12,7 @@ import javax.json.bind.annotation.JsonbProperty;
 import javax.json.bind.annotation.JsonbPropertyOrder;
 import javax.json.bind.annotation.JsonbTransient;
 
-@JsonbPropertyOrder({"token", "tokenType", "expiration"})
+@JsonbPropertyOrder({"token", "tokenType", "expiration", "refreshToken", "refreshExpiration"})
 public class AuthTokenResponseDto {
 // inspired by: https://tools.ietf.org/html/rfc6749#section-4.2.2
 
@@ -28,6 +28,12 @@ public class AuthTokenResponseDto {
     @JsonbProperty("expiration_ms")
     private long expiration;
 
+    @JsonbProperty("refresh_token")
+    private String refreshToken;
+
+    @JsonbProperty("refresh_expiration_ms")
+    private long refreshExpiration;
+
     public AuthTokenResponseDto() {
     }
 
@@ -61,4 +67,20 @@ public class AuthTokenResponseDto {
         this.expiration = expiration;
     }
 
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
+    public void setRefreshToken(String refreshToken) {
+        this.refreshToken = refreshToken;
+    }
+
+    public long getRefreshExpiration() {
+        return refreshExpiration;
+    }
+
+    public void setRefreshExpiration(long refreshExpiration) {
+        this.refreshExpiration = refreshExpiration;
+    }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+class AuthTokenStats implements AuthTokenStatsMXBean {
+
+    static final String MBEAN_TYPE = "AuthTokens";
+
+    private final TokenStore tokenStore;
+    private final TokenTableFile tokenFile;  // null if tokens are not persisted
+    private final ReplicatedTokenStore replicatedStore;  // null if tokens are not replicated
+
+    AuthTokenStats(TokenStore tokenStore, TokenTableFile tokenFile, ReplicatedTokenStore replicatedStore) {
+        this.tokenStore = tokenStore;
+        this.tokenFile = tokenFile;
+        this.replicatedStore = replicatedStore;
+    }
+
+    @Override
+    public int getLiveTokens() {
+        return tokenStore.size();
+    }
+
+    @Override
+    public long getExpiredTokens() {
+        return tokenStore.getExpiredTotal();
+    }
+
+    @Override
+    public long getDeadTokenBytes() {
+        return tokenStore.getDeadTokenBytes();
+    }
+
+    @Override
+    public long getEstimatedTokenBytes() {
+        return tokenStore.getEstimatedBytes();
+    }
+
+    @Override
+    public long getMaxTokenBytes() {
+        return tokenStore.getMaxBytes();
+    }
+
+    @Override
+    public long getCapEvictions() {
+        return tokenStore.getCapEvictions();
+    }
+
+    @Override
+    public long getCapRejections() {
+        return tokenStore.getCapRejections();
+    }
+
+    @Override
+    public int getFreeTokenFileSlots() {
+        return (tokenFile == null) ? -1 : tokenFile.getFreeSlots();
+    }
+
+    @Override
+    public int getReplicationPeers() {
+        return (replicatedStore == null) ? -1 : replicatedStore.getPeers();
+    }
+
+    @Override
+    public long getMaxReplicationLagMs() {
+        return (replicatedStore == null) ? -1 : replicatedStore.getMaxLagMs();
+    }
+
+    @Override
+    public long getReplicaResets() {
+        return (replicatedStore == null) ? -1 : replicatedStore.getReplicaResets();
+    }
+
+    @Override
+    public long getReplicaSnapshotRequests() {
+        return (replicatedStore == null) ? -1 : replicatedStore.getSnapshotRequests();
+    }
+
+    @Override
+    public long getReplicaDrops() {
+        return (replicatedStore == null) ? -1 : replicatedStore.getReplicaDrops();
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+public interface AuthTokenStatsMXBean {
+
+    int getLiveTokens();
+
+    long getExpiredTokens();
+
+    // estimated heap still held by tokens that are no longer valid
+    long getDeadTokenBytes();
+
+    // -1 if tokens are not persisted, at 0 new tokens are only kept in memory
+    int getFreeTokenFileSlots();
+
+    long getEstimatedTokenBytes();
+
+    // -1 if the token store has no cap
+    long getMaxTokenBytes();
+
+    // valid tokens evicted because the token store was full
+    long getCapEvictions();
+
+    // logins refused because the token store was full
+    long getCapRejections();
+
+    // -1 if tokens are not replicated, otherwise number of nodes heard from within the max staleness
+    int getReplicationPeers();
+
+    // longest time from a peer sending a token event to this node applying it, -1 if tokens are not replicated
+    long getMaxReplicationLagMs();
+
+    // replicas thrown away because events were lost or arrived too late, -1 if tokens are not replicated
+    long getReplicaResets();
+
+    // peers asked to send all their tokens again, after a reset or when first heard of, -1 if tokens are not replicated
+    long getReplicaSnapshotRequests();
+
+    // peers' tokens dropped from replicas or never taken, by resets, late issues and peers gone silent, -1 if tokens
+    // are not replicated
+    long getReplicaDrops();
+
+}
@@ -9,7 +9,6 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.ApplicationConfig;
-import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
 import java.io.IOException;
 import java.util.Optional;
@@ -22,78 +21,75 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.Provider;
 
-import static java.util.Objects.*;
-
 @Secured
 @Provider
 @Priority(Priorities.AUTHENTICATION)
 public class AuthenticationRequestFilter implements ContainerRequestFilter {
 
     public static final String AUTH_SCHEME = "Bearer";
-    public static final String PROPERTY_USERNAME = AuthenticationRequestFilter.class.getPackageName() + ".username";
+    // a UserPrincipal
+    public static final String PROPERTY_PRINCIPAL = AuthenticationRequestFilter.class.getPackageName() + ".principal";
 
     @Inject
     private AuthTokenManager tokenManager;
 
     @Override
     public void filter(ContainerRequestContext requestContext) throws IOException {
-        String authorizationHeader = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
-        if (isAuthorizationHeaderPresent(authorizationHeader) && isAuthorizationHeaderCorrect(authorizationHeader)) {
-            String token = authorizationHeader.substring(AUTH_SCHEME.length()).trim();
-            Optional<byte[]> maybeDecodedToken = decodeToken(token);
-            if (maybeDecodedToken.isPresent()) {
-                if (hasTokenCorrectLength(maybeDecodedToken.get())) {
-                    if (tokenManager.isTokenValid(token)) {
-                        requestContext.setProperty(PROPERTY_USERNAME, tokenManager.getUsername(token));
-                    }
-                    else {
-                        abortTokenExpiredProblem(requestContext);
-                        return;
-                    }
-                }
-                else {
-                    abortTokenLengthProblem(requestContext);
-                    return;
-                }
-            }
-            else {
-                abortTokenFormatProblem(requestContext);
-                return;
-            }
-        }
-        else {
+        String header = requestContext.getHeaderString(HttpHeaders.AUTHORIZATION);
+        int tokenStart = AuthorizationHeaderParser.tokenStart(header);
+        if (tokenStart < 0) {
             abortAuthorizationHeaderProblem(requestContext);
             return;
         }
-    }
-
-    private boolean isAuthorizationHeaderPresent(String header) {
-        if (header == null) {
-            return false;
+        // token is decoded from the header in place, no lower cased copy, substring or Optional per request
+        int tokenEnd = AuthorizationHeaderParser.tokenEnd(header, tokenStart);
+        int decodedLength = TokenTable.decodedLength(header, tokenStart, tokenEnd);
+        if (decodedLength < 0) {
+            abortTokenFormatProblem(requestContext);
         }
-        // if request has multiple authorization headers, they are concatenated and separated by comma ','
-        if (header.isEmpty() || header.contains(",")) {
-            return false;
+        else if (tokenManager.getMode() == TokenMode.OPAQUE) {
+            filterOpaqueToken(requestContext, header, tokenStart, decodedLength);
+        }
+        else {
+            filterSignedToken(requestContext, header, tokenStart, tokenEnd, decodedLength);
         }
-        return true;
     }
 
-    private boolean isAuthorizationHeaderCorrect(String header) {
-        return header.toLowerCase().startsWith(AUTH_SCHEME.toLowerCase() + " ");
+    private void filterOpaqueToken(ContainerRequestContext requestContext, String header, int tokenStart, int decodedLength) {
+        if (decodedLength != AuthTokenManager.TOKEN_LENGTH_BYTES) {
+            abortTokenLengthProblem(requestContext);
+            return;
+        }
+        UserPrincipal user = tokenManager.findUser(TokenTable.decodeHigh(header, tokenStart), TokenTable.decodeLow(header, tokenStart));
+        if (user != null) {
+            requestContext.setProperty(PROPERTY_PRINCIPAL, user);  // the token table's own, nothing is allocated
+        }
+        else {
+            abortTokenExpiredProblem(requestContext);
+        }
     }
 
-    private Optional<byte[]> decodeToken(String token) {
-        try {
-            byte[] decodedToken = requireNonNull(CryptoUtils.decodeToken(requireNonNull(token)));
-            return Optional.of(decodedToken);
+    // a signed token has to be decoded for its MAC, but only into an array of its own length
+    private void filterSignedToken(ContainerRequestContext requestContext, String header, int tokenStart, int tokenEnd, int decodedLength) {
+        if (!tokenManager.hasTokenCorrectLength(decodedLength)) {
+            abortTokenLengthProblem(requestContext);
+            return;
         }
-        catch (IllegalArgumentException | NullPointerException e) {
-            return Optional.empty();
+        byte[] decodedToken = new byte[decodedLength];
+        TokenTable.decode(header, tokenStart, tokenEnd, decodedToken);
+        Optional<UserPrincipal> maybeUser = tokenManager.findUser(header.substring(tokenStart, tokenEnd), decodedToken);
+        if (maybeUser.isPresent()) {
+            requestContext.setProperty(PROPERTY_PRINCIPAL, maybeUser.get());
+        }
+        else {
+            abortTokenExpiredProblem(requestContext);
         }
     }
 
-    private boolean hasTokenCorrectLength(byte[] token) {
-        return token.length == AuthTokenManager.TOKEN_LENGTH_BYTES;
+    // header has already been accepted by the filter
+    public static String getToken(String header) {
+        int tokenStart = AuthorizationHeaderParser.tokenStart(header);
+        return header.substring(tokenStart, AuthorizationHeaderParser.tokenEnd(header, tokenStart));
     }
 
     private void abortAuthorizationHeaderProblem(ContainerRequestContext requestContext) {
@@ -104,7 +100,12 @@ public class AuthenticationRequestFilter implements ContainerRequestFilter {
 
     private void abortTokenLengthProblem(ContainerRequestContext requestContext) {
         ProblemDto problem = UserProblems.createDefaultTokenProblem();
-        UserProblems.tokenLengthProblem(problem);
+        if (tokenManager.getMode() == TokenMode.SIGNED) {
+            UserProblems.signedTokenLengthProblem(problem);
+        }
+        else {
+            UserProblems.tokenLengthProblem(problem);
+        }
         abort(requestContext, problem);
     }
 
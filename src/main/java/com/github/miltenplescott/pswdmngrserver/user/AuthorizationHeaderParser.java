@@ -0,0 +1,52 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+/**
+ * Finds the token in an Authorization header with the {@link AuthenticationRequestFilter#AUTH_SCHEME} scheme, in place.
+ *
+ * The header is read where it is, the scheme compared case insensitively without lower casing a copy, and the token
+ * is given as a range of the header's chars, which {@link TokenTable} decodes without a substring.
+ */
+final class AuthorizationHeaderParser {
+
+    private AuthorizationHeaderParser() {
+        throw new AssertionError("Suppress default constructor for noninstantiability.");
+    }
+
+    /**
+     * Index of the first char of the token, or -1 if the header is missing, has the wrong scheme, or is several
+     * headers, which the container concatenates with commas.
+     */
+    static int tokenStart(String header) {
+        String scheme = AuthenticationRequestFilter.AUTH_SCHEME;
+        if (header == null
+            || header.length() <= scheme.length()
+            || !header.regionMatches(true, 0, scheme, 0, scheme.length())
+            || header.charAt(scheme.length()) != ' '
+            || header.indexOf(',') >= 0) {
+            return -1;
+        }
+        int start = scheme.length();
+        while (start < header.length() && header.charAt(start) <= ' ') {  // same as trim()
+            start++;
+        }
+        return start;
+    }
+
+    // index after the last char of the token that starts at tokenStart
+    static int tokenEnd(String header, int tokenStart) {
+        int end = header.length();
+        while (end > tokenStart && header.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import com.github.miltenplescott.pswdmngrserver.ProblemDto;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import javax.ejb.EJBException;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+
+import static com.github.miltenplescott.pswdmngrserver.CryptoUtils.*;
+
+/**
+ * Creates many accounts at once, a chunk of records at a time.
+ *
+ * A chunk takes one query to find the taken usernames, and its KDFs run on every KDF thread at once, at the lowest
+ * priority, so logins and sign-ups go first. Its accounts are then inserted in a single transaction, which sends them
+ * in JDBC batches.
+ */
+@Stateless
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)  // each chunk commits on its own in UserService.createUsers
+public class BulkProvisioningService {
+
+    @Inject
+    private UserService userService;
+
+    @Inject
+    private UserDao userDao;
+
+    @Inject
+    private UserValidation validator;
+
+    @Inject
+    private KdfManager kdfManager;
+
+    public BulkProvisioningService() {
+    }
+
+    /**
+     * Creates the accounts of records, which start at firstIndex in the request, a null record is one that couldn't be
+     * parsed. usernames are the ones of the request's earlier records, a repeated one is refused like a taken one.
+     * Returns a result per record, in their order.
+     */
+    public List<BulkResultDto> createUsers(List<AuthenticationDto> records, int firstIndex, Set<String> usernames) {
+        BulkResultDto[] results = new BulkResultDto[records.size()];
+        List<Pending> pending = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            AuthenticationDto record = records.get(i);
+            if (record == null) {
+                results[i] = failed(firstIndex + i, null, UserProblems.createBulkRecordFormatProblem());
+                continue;
+            }
+            User user = new User();
+            user.setUsername(record.getUsername());
+            Optional<ProblemDto> maybeProblem = validator.validate(user);
+            if (maybeProblem.isPresent()) {
+                results[i] = failed(firstIndex + i, record.getUsername(), maybeProblem.get());
+                continue;
+            }
+            if (!usernames.add(record.getUsername())) {
+                results[i] = failed(firstIndex + i, record.getUsername(), usernameNotUniqueProblem());
+                continue;
+            }
+            ProblemDto pswdProblem = UserProblems.createDefaultPasswordProblem();
+            byte[] decodedPswd = UserService.decodeNewMasterPswd(record.getMasterPswd(), pswdProblem);
+            if (decodedPswd == null) {
+                results[i] = failed(firstIndex + i, record.getUsername(), pswdProblem);
+                continue;
+            }
+            pending.add(new Pending(i, user, decodedPswd));
+        }
+
+        Set<String> taken = userDao.findExistingUsernames(
+            pending.stream().map(p -> p.user.getUsername()).collect(Collectors.toList()));
+        List<Pending> untaken = new ArrayList<>(pending.size());
+        for (Pending p : pending) {
+            if (taken.contains(p.user.getUsername())) {
+                clearArray(p.decodedPswd);
+                results[p.position] = failed(firstIndex + p.position, p.user.getUsername(), usernameNotUniqueProblem());
+            }
+            else {
+                untaken.add(p);
+            }
+        }
+
+        List<Pending> derived = deriveKeys(untaken, results, firstIndex);
+        insert(derived, results, firstIndex);
+        return Arrays.asList(results);
+    }
+
+    // keeps a KDF per KDF thread in flight, which uses every thread without taking the queue away from logins
+    private List<Pending> deriveKeys(List<Pending> pending, BulkResultDto[] results, int firstIndex) {
+        KdfParams kdfParams = kdfManager.getCurrentParams();
+        int window = kdfManager.getThreads();
+        List<Pending> derived = new ArrayList<>(pending.size());
+        ArrayDeque<Pending> inFlight = new ArrayDeque<>(window);
+        for (Pending p : pending) {
+            if (inFlight.size() == window) {
+                awaitKey(inFlight.poll(), kdfParams, derived, results, firstIndex);
+            }
+            p.salt = genSalt();
+            try {
+                p.kdfOutput = kdfManager.kdfAndSaltAsync(p.decodedPswd, p.salt, kdfParams, KdfPriority.BULK);
+                inFlight.add(p);
+            }
+            catch (KdfRejectedException ex) {
+                p.clear();
+                results[p.position] = failed(firstIndex + p.position, p.user.getUsername(), UserProblems.createKdfBusyProblem());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            awaitKey(inFlight.poll(), kdfParams, derived, results, firstIndex);
+        }
+        return derived;
+    }
+
+    private void awaitKey(Pending p, KdfParams kdfParams, List<Pending> derived, BulkResultDto[] results, int firstIndex) {
+        try {
+            byte[] kdfOutput = p.kdfOutput.join();
+            p.user.setSalt(p.salt);
+            p.user.setMasterPswd(kdfOutput);
+            p.user.setKdfParams(kdfParams);
+            clearArray(kdfOutput);
+            derived.add(p);
+        }
+        catch (CompletionException ex) {
+            ProblemDto problem = (ex.getCause() instanceof KdfRejectedException)
+                ? UserProblems.createKdfBusyProblem()
+                : UserProblems.createBulkFailedProblem();
+            results[p.position] = failed(firstIndex + p.position, p.user.getUsername(), problem);
+        }
+        finally {
+            p.clear();
+        }
+    }
+
+    private void insert(List<Pending> derived, BulkResultDto[] results, int firstIndex) {
+        try {
+            userService.createUsers(derived.stream().map(p -> p.user).collect(Collectors.toList()));
+        }
+        catch (EJBException ex) {  // rolled back, probably a username taken since the query, find out which
+            List<Pending> created = new ArrayList<>(derived.size());
+            for (int i = 0; i < derived.size(); i++) {
+                Pending p = derived.get(i);
+                try {
+                    userService.createUsers(List.of(p.user));
+                    created.add(p);
+                }
+                catch (EJBException userEx) {
+                    if (isTaken(p.user.getUsername())) {
+                        results[p.position] = failed(firstIndex + p.position, p.user.getUsername(), usernameNotUniqueProblem());
+                        continue;
+                    }
+                    // something else failed, e.g. the database; the results sent so far stand, so report the rest
+                    // of the chunk as not created instead of breaking off the response
+                    for (Pending rest : derived.subList(i, derived.size())) {
+                        results[rest.position] = failed(firstIndex + rest.position, rest.user.getUsername(), UserProblems.createBulkFailedProblem());
+                    }
+                    break;
+                }
+            }
+            derived = created;
+        }
+        for (Pending p : derived) {
+            results[p.position] = new BulkResultDto(firstIndex + p.position, p.user.getUsername(), Response.Status.OK.getStatusCode(), null);
+        }
+    }
+
+    // false if it can't be told either
+    private boolean isTaken(String username) {
+        try {
+            return userDao.userWithNameExists(username);
+        }
+        catch (RuntimeException ex) {
+            return false;
+        }
+    }
+
+    // same status POST /account would answer with
+    private static BulkResultDto failed(int index, String username, ProblemDto problem) {
+        if (problem.getStatus() == null) {
+            problem.setStatus(Response.Status.BAD_REQUEST.getStatusCode());
+        }
+        return new BulkResultDto(index, username, problem.getStatus(), problem);
+    }
+
+    private static ProblemDto usernameNotUniqueProblem() {
+        return UserProblems.usernameNotUniqueProblem(UserProblems.createDefaultUsernameProblem());
+    }
+
+    private static final class Pending {
+
+        private final int position;  // in the chunk
+        private final User user;
+        private final byte[] decodedPswd;
+        private byte[] salt;
+        private CompletableFuture<byte[]> kdfOutput;
+
+        private Pending(int position, User user, byte[] decodedPswd) {
+            this.position = position;
+            this.user = user;
+            this.decodedPswd = decodedPswd;
+        }
+
+        private void clear() {
+            clearArray(decodedPswd);
+            clearArray(salt);
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.ProblemDto;
+import javax.json.bind.annotation.JsonbPropertyOrder;
+
+// outcome of one record of a bulk account creation, status and problem are what POST /account would have answered
+@JsonbPropertyOrder({"index", "username", "status", "problem"})
+public class BulkResultDto {
+
+    private int index;  // of the record in the request, from 0
+    private String username;
+    private int status;
+    private ProblemDto problem;
+
+    public BulkResultDto() {
+    }
+
+    public BulkResultDto(int index, String username, int status, ProblemDto problem) {
+        this.index = index;
+        this.username = username;
+        this.status = status;
+        this.problem = problem;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public ProblemDto getProblem() {
+        return problem;
+    }
+
+    public void setProblem(ProblemDto problem) {
+        this.problem = problem;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkResultDto{" + "index=" + index + ", username=" + username + ", status=" + status + ", problem=" + problem + '}';
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Sends every event as one UDP datagram to each configured peer.
+ *
+ * Datagrams are encrypted and authenticated with AES-GCM under a key shared by the cluster: nonce (12 B) | encrypted
+ * event | tag (16 B). Anything that doesn't decrypt is dropped. UDP may lose or reorder datagrams, the receiving
+ * {@link ReplicatedTokenStore} treats both as a gap; a replayed datagram either repeats an old sequence number or is
+ * older than the max staleness, so it's ignored too.
+ */
+final class DatagramTransport implements TokenReplicationTransport {
+
+    static final int KEY_LENGTH_BYTES = 32;
+
+    private static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+    private static final int NONCE_LENGTH_BYTES = 12;
+    private static final int TAG_LENGTH_BYTES = 16;
+    private static final int MAX_DATAGRAM_LENGTH_BYTES = NONCE_LENGTH_BYTES + TokenEvent.MAX_ENCODED_LENGTH_BYTES + TAG_LENGTH_BYTES;
+
+    private final DatagramSocket socket;
+    private final List<SocketAddress> peers;
+    private final SecretKeySpec key;
+    private final Cipher sendCipher;  // guarded by this
+    private final Cipher receiveCipher;  // only used by the receiver thread
+    private final Thread receiverThread;
+    private volatile Consumer<TokenEvent> receiver = event -> {};
+
+    private DatagramTransport(ThreadFactory threadFactory, DatagramSocket socket, List<SocketAddress> peers, byte[] key) throws GeneralSecurityException {
+        this.socket = socket;
+        this.peers = List.copyOf(peers);
+        this.key = new SecretKeySpec(key, "AES");
+        this.sendCipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        this.receiveCipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        this.receiverThread = threadFactory.newThread(this::receiveLoop);
+        this.receiverThread.setName("token-replication-receiver");
+    }
+
+    // the receiver runs on a thread of threadFactory until close
+    static DatagramTransport open(ThreadFactory threadFactory, int port, List<SocketAddress> peers, byte[] key) throws IOException {
+        if (key.length != KEY_LENGTH_BYTES) {
+            throw new IllegalArgumentException("Replication key has to be " + KEY_LENGTH_BYTES + " bytes long.");
+        }
+        DatagramSocket socket = new DatagramSocket(port);
+        try {
+            DatagramTransport transport = new DatagramTransport(threadFactory, socket, peers, key);
+            transport.receiverThread.start();
+            return transport;
+        }
+        catch (GeneralSecurityException ex) {
+            socket.close();
+            throw new AssertionError("Every Java platform supports " + CIPHER_ALGORITHM + ".", ex);
+        }
+    }
+
+    // "host:port,host:port"
+    static List<SocketAddress> parsePeers(String peers) {
+        List<SocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            if (!peer.isBlank()) {
+                int colon = peer.lastIndexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Replication peer " + peer.trim() + " has no port.");
+                }
+                addresses.add(new InetSocketAddress(peer.substring(0, colon).trim(), Integer.parseInt(peer.substring(colon + 1).trim())));
+            }
+        }
+        return addresses;
+    }
+
+    int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void send(TokenEvent event) {
+        byte[] datagram;
+        try {
+            byte[] nonce = CryptoUtils.genRandomBytes(NONCE_LENGTH_BYTES);
+            sendCipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BYTES * 8, nonce));
+            byte[] plaintext = event.encode();
+            datagram = new byte[NONCE_LENGTH_BYTES + sendCipher.getOutputSize(plaintext.length)];
+            System.arraycopy(nonce, 0, datagram, 0, NONCE_LENGTH_BYTES);
+            sendCipher.doFinal(plaintext, 0, plaintext.length, datagram, NONCE_LENGTH_BYTES);
+        }
+        catch (GeneralSecurityException ex) {
+            throw new AssertionError("Encrypting with a valid key and a fresh nonce can't fail.", ex);
+        }
+        for (SocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(datagram, datagram.length, peer));
+            }
+            catch (IOException ex) {
+                // same as a datagram lost on the way, the peer sees the gap in sequence numbers
+            }
+        }
+    }
+
+    @Override
+    public void setReceiver(Consumer<TokenEvent> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+        socket.close();  // ends receiveLoop
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_DATAGRAM_LENGTH_BYTES];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                TokenEvent event = decrypt(packet);
+                if (event != null) {
+                    receiver.accept(event);
+                }
+            }
+            catch (IOException ex) {
+                // socket closed, or a broken datagram
+            }
+        }
+    }
+
+    // null if the datagram wasn't sent by a peer with the same key
+    private TokenEvent decrypt(DatagramPacket packet) {
+        if (packet.getLength() < NONCE_LENGTH_BYTES + TAG_LENGTH_BYTES) {
+            return null;
+        }
+        try {
+            receiveCipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BYTES * 8, packet.getData(), packet.getOffset(), NONCE_LENGTH_BYTES));
+            byte[] plaintext = receiveCipher.doFinal(packet.getData(), packet.getOffset() + NONCE_LENGTH_BYTES, packet.getLength() - NONCE_LENGTH_BYTES);
+            return TokenEvent.decode(plaintext, 0, plaintext.length);
+        }
+        catch (GeneralSecurityException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+}
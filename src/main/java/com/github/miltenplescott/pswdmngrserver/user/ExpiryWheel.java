@@ -0,0 +1,134 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hashed timing wheel.
+ *
+ * Every element goes into the bucket of the tick its deadline falls into, so scheduling is O(1) and advancing the
+ * wheel only visits elements that are due (plus the ones that are whole rotations away, which are put back). Deadlines
+ * longer than one rotation are fine, they are just seen once per rotation until due.
+ */
+final class ExpiryWheel<T> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<ConcurrentLinkedQueue<T>> buckets;
+    private final ToLongFunction<T> deadlineMillis;
+    private final AtomicInteger size = new AtomicInteger();
+
+    // last fully processed tick, written only by advance()
+    private volatile long lastTick;
+
+    // wheelSize has to be a power of two
+    ExpiryWheel(Duration tick, int wheelSize, ToLongFunction<T> deadlineMillis, long nowMillis) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size must be a power of two.");
+        }
+        this.tickMillis = tick.toMillis();
+        this.mask = wheelSize - 1;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ConcurrentLinkedQueue<>());
+        }
+        this.deadlineMillis = deadlineMillis;
+        this.lastTick = nowMillis / tickMillis - 1;
+    }
+
+    void schedule(T element) {
+        // elements already due go to the next unprocessed tick, otherwise they'd wait for a whole rotation
+        long tick = Math.max(deadlineMillis.applyAsLong(element) / tickMillis, lastTick + 1);
+        bucket(tick).add(element);
+        size.incrementAndGet();
+    }
+
+    /**
+     * Hands every element whose deadline is before {@code nowMillis} to {@code expirer}. Must not be called
+     * concurrently with itself.
+     *
+     * @return number of elements for which {@code expirer} returned true
+     */
+    int advance(long nowMillis, Predicate<T> expirer) {
+        long dueTick = nowMillis / tickMillis - 1;  // only ticks that are completely in the past
+        long from = Math.max(lastTick + 1, dueTick - mask);  // a late wheel visits every bucket once
+        int expired = 0;
+        List<T> notYetDue = new ArrayList<>();
+        for (long tick = from; tick <= dueTick; tick++) {
+            ConcurrentLinkedQueue<T> bucket = bucket(tick);
+            T element;
+            while ((element = bucket.poll()) != null) {
+                if (deadlineMillis.applyAsLong(element) / tickMillis <= dueTick) {
+                    size.decrementAndGet();
+                    if (expirer.test(element)) {
+                        expired++;
+                    }
+                }
+                else {  // due in a later rotation
+                    notYetDue.add(element);
+                }
+            }
+            bucket.addAll(notYetDue);
+            notYetDue.clear();
+        }
+        if (dueTick > lastTick) {
+            lastTick = dueTick;
+        }
+        return expired;
+    }
+
+    /**
+     * Removes the element with the soonest deadline, or null if the wheel is empty. Looks at one bucket after another,
+     * so it's meant for making room now and then, not for every call. Safe to call concurrently with everything.
+     */
+    T pollSoonest() {
+        long first = lastTick + 1;
+        for (long tick = first; tick <= first + mask; tick++) {
+            ConcurrentLinkedQueue<T> bucket = bucket(tick);
+            T soonest = null;
+            long soonestDeadline = Long.MAX_VALUE;
+            for (T element : bucket) {
+                long deadline = deadlineMillis.applyAsLong(element);
+                if (deadline / tickMillis <= tick && deadline < soonestDeadline) {  // skip later rotations
+                    soonest = element;
+                    soonestDeadline = deadline;
+                }
+            }
+            if (soonest != null && bucket.remove(soonest)) {
+                size.decrementAndGet();
+                return soonest;
+            }
+        }
+        // everything left is more than one rotation away
+        for (ConcurrentLinkedQueue<T> bucket : buckets) {
+            T element = bucket.poll();
+            if (element != null) {
+                size.decrementAndGet();
+                return element;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private ConcurrentLinkedQueue<T> bucket(long tick) {
+        return buckets.get((int) (tick & mask));
+    }
+
+}
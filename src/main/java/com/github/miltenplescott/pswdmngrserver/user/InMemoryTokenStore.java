@@ -0,0 +1,404 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Token table shared by all request threads.
+ *
+ * Lookups only touch the primitive {@link TokenTable}, are optimistic and don't allocate. Issuing and revoking go
+ * through {@code sessions#compute}, which serializes writers of the same username without affecting anybody else. Each
+ * user has up to maxSessionsPerUser tokens indexed under their username, so revoking all of them costs O(sessions).
+ * Every issued token is also put on an expiry wheel, so expired tokens are dropped shortly after their deadline without
+ * ever scanning the whole table.
+ *
+ * Tokens are kept under their key from the {@link TokenHasher} only, so are the tokenHigh and tokenLow arguments; the
+ * token itself is only known to the client it was issued to.
+ *
+ * With a {@link TokenTableFile}, every issued token's key is also written to its own slot of the file and the slot is
+ * freed again when the token is evicted, revoked or expires. Tokens still in the file are loaded when the store is
+ * created, which needs the same hasher key the file was written with.
+ *
+ * The store holds at most maxTokens tokens, counting revoked ones the expiry wheel hasn't dropped yet, so its heap use
+ * stays below maxTokens * ESTIMATED_BYTES_PER_TOKEN. What happens to a new token when the store is full is up to the
+ * {@link TokenCapPolicy}.
+ */
+class InMemoryTokenStore implements TokenStore {
+
+    // what a token that's gone from the table still holds until the wheel gets to it: session record and wheel node
+    static final int ESTIMATED_BYTES_PER_DEAD_TOKEN = 64;
+    // measured about 280 B per live token, the rest is headroom for the table right after it doubled
+    static final int ESTIMATED_BYTES_PER_TOKEN = 320;
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    static final int DEFAULT_MAX_SESSIONS_PER_USER = 5;
+    static final Duration EXPIRY_TICK = Duration.ofSeconds(5);
+    private static final int EXPIRY_WHEEL_SIZE = 256;  // one rotation ~ 21 minutes
+
+    // told about every token put() evicts to make room for a new one
+    @FunctionalInterface
+    interface EvictionListener {
+
+        void evicted(String username, long tokenHigh, long tokenLow);
+
+    }
+
+    // what the session index and the expiry wheel need to find a token in the table again
+    private static final class Session {
+
+        final long tokenHigh;
+        final long tokenLow;
+        final long expirationMs;
+        final String username;
+
+        Session(long tokenHigh, long tokenLow, long expirationMs, String username) {
+            this.tokenHigh = tokenHigh;
+            this.tokenLow = tokenLow;
+            this.expirationMs = expirationMs;
+            this.username = username;
+        }
+
+    }
+
+    private final TokenTable table = new TokenTable();
+    // key = username, value = sessions of that user, oldest first; a deque is only touched inside compute of its key,
+    // and so is the table entry of every session in it
+    private final ConcurrentMap<String, Deque<Session>> sessions = new ConcurrentHashMap<>();
+    private final int maxSessionsPerUser;
+    private final ExpiryWheel<Session> expiryWheel;
+    private final AtomicLong expiredTotal = new AtomicLong();
+    private final Lock expiryLock = new ReentrantLock();  // only ever held by the expiry timer, never by lookups
+    private final TokenTableFile tableFile;  // null if tokens are not persisted
+    private final TokenHasher hasher;
+    private final int maxTokens;
+    private final TokenCapPolicy capPolicy;
+    private final Semaphore permits;  // one per token on the expiry wheel, so revoked tokens count until they're dropped
+    private final AtomicLong capEvictions = new AtomicLong();
+    private final AtomicLong capRejections = new AtomicLong();
+
+    InMemoryTokenStore() {
+        this(DEFAULT_MAX_SESSIONS_PER_USER);
+    }
+
+    InMemoryTokenStore(int maxSessionsPerUser) {
+        this(maxSessionsPerUser, TokenHasher.withRandomKey());
+    }
+
+    InMemoryTokenStore(int maxSessionsPerUser, TokenHasher hasher) {
+        this(Instant.now(), maxSessionsPerUser, null, hasher);
+    }
+
+    InMemoryTokenStore(Instant now, int maxSessionsPerUser, TokenTableFile tableFile, TokenHasher hasher) {
+        this(now, maxSessionsPerUser, tableFile, UNLIMITED, TokenCapPolicy.EVICT_SOONEST, hasher);
+    }
+
+    InMemoryTokenStore(Instant now, int maxSessionsPerUser, TokenTableFile tableFile, int maxTokens, TokenCapPolicy capPolicy, TokenHasher hasher) {
+        if (maxSessionsPerUser < 1) {
+            throw new IllegalArgumentException("At least one session per user has to be allowed.");
+        }
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("At least one token has to fit in the store.");
+        }
+        this.maxTokens = maxTokens;
+        this.capPolicy = capPolicy;
+        this.permits = new Semaphore(maxTokens);
+        expiryWheel = new ExpiryWheel<>(EXPIRY_TICK, EXPIRY_WHEEL_SIZE, s -> s.expirationMs, now.toEpochMilli());
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.tableFile = tableFile;
+        this.hasher = hasher;
+        if (tableFile != null) {
+            tableFile.load(now, this::restore);
+            sessions.replaceAll((username, userSessions) -> restored(userSessions));
+        }
+    }
+
+    @Override
+    public AuthToken put(long userId, String username, Instant expiration, Supplier<byte[]> tokenGenerator) {
+        return put(userId, username, expiration, tokenGenerator, (name, tokenHigh, tokenLow) -> {});
+    }
+
+    /**
+     * Evicts the user's oldest tokens if they already have maxSessionsPerUser of them, and the soonest expiring token of
+     * anybody if the store is full and the policy allows it; evictionListener is told about both.
+     *
+     * @throws TokenStoreFullException if the store is full and the policy is to reject new tokens
+     */
+    AuthToken put(long userId, String username, Instant expiration, Supplier<byte[]> tokenGenerator, EvictionListener evictionListener) {
+        if (!admit(evictionListener)) {
+            throw new TokenStoreFullException();
+        }
+        long expirationMs = expiration.toEpochMilli();
+        byte[][] issued = new byte[1][];
+        Session[] issuedSession = new Session[1];
+        try {
+            sessions.compute(username, (name, userSessions) -> {
+                if (userSessions == null) {
+                    userSessions = new ArrayDeque<>(1);  // most users have a single session, grows if needed
+                }
+                while (userSessions.size() >= maxSessionsPerUser) {
+                    Session oldest = userSessions.pollFirst();
+                    release(table.remove(oldest.tokenHigh, oldest.tokenLow));
+                    evictionListener.evicted(name, oldest.tokenHigh, oldest.tokenLow);
+                }
+                byte[] token = tokenGenerator.get();
+                byte[] key = hasher.hash(token);
+                long keyHigh = TokenTable.high(key);
+                long keyLow = TokenTable.low(key);
+                int slot = persist(keyHigh, keyLow, userId, name, expiration);
+                while (!table.putIfAbsent(keyHigh, keyLow, expirationMs, userId, name, slot)) {
+                    // make sure tokens are unique in addition to being random
+                    release(slot);
+                    token = tokenGenerator.get();
+                    key = hasher.hash(token);
+                    keyHigh = TokenTable.high(key);
+                    keyLow = TokenTable.low(key);
+                    slot = persist(keyHigh, keyLow, userId, name, expiration);
+                }
+                issued[0] = token;
+                issuedSession[0] = new Session(keyHigh, keyLow, expirationMs, name);
+                userSessions.addLast(issuedSession[0]);
+                return userSessions;
+            });
+        }
+        catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+        expiryWheel.schedule(issuedSession[0]);
+        return new AuthToken(CryptoUtils.encodeToken(issued[0]), userId, username, Instant.ofEpochMilli(expirationMs));
+    }
+
+    /**
+     * Adds a token that was issued somewhere else, false if it's already there or the store is full and the policy is
+     * to reject new tokens. Doesn't count against maxSessionsPerUser (the issuer enforces that) and isn't persisted.
+     */
+    boolean putIfAbsent(long tokenHigh, long tokenLow, long expirationMs, long userId, String username) {
+        if (!admit((name, high, low) -> {})) {
+            return false;
+        }
+        boolean[] added = new boolean[1];
+        Session session = new Session(tokenHigh, tokenLow, expirationMs, username);
+        sessions.compute(username, (name, userSessions) -> {
+            if (table.putIfAbsent(tokenHigh, tokenLow, expirationMs, userId, name, -1)) {
+                userSessions = (userSessions == null) ? new ArrayDeque<>(1) : userSessions;
+                userSessions.addLast(session);
+                added[0] = true;
+            }
+            return userSessions;
+        });
+        if (added[0]) {
+            expiryWheel.schedule(session);
+        }
+        else {
+            permits.release();
+        }
+        return added[0];
+    }
+
+    @Override
+    public Optional<AuthToken> get(String token) {
+        if (TokenTable.decodedLength(token) != AuthTokenManager.TOKEN_LENGTH_BYTES) {
+            return Optional.empty();
+        }
+        byte[] key = hasher.hash(TokenTable.decodeHigh(token), TokenTable.decodeLow(token));
+        return get(token, TokenTable.high(key), TokenTable.low(key));
+    }
+
+    // token already hashed by the caller
+    Optional<AuthToken> get(String token, long keyHigh, long keyLow) {
+        return Optional.ofNullable(table.get(token, keyHigh, keyLow));
+    }
+
+    TokenHasher getHasher() {
+        return hasher;
+    }
+
+    @Override
+    public UserPrincipal findUser(long tokenHigh, long tokenLow, long nowMs) {
+        return table.findUser(tokenHigh, tokenLow, nowMs);
+    }
+
+    // blocks writers while it runs, so keep consumer short
+    void forEachLive(long nowMs, TokenTable.EntryConsumer consumer) {
+        table.forEachLive(nowMs, consumer);
+    }
+
+    @Override
+    public void revoke(String username, long tokenHigh, long tokenLow) {
+        sessions.computeIfPresent(username, (name, userSessions) -> {
+            for (Iterator<Session> it = userSessions.iterator(); it.hasNext();) {
+                Session session = it.next();
+                if (session.tokenHigh == tokenHigh && session.tokenLow == tokenLow) {
+                    it.remove();
+                    release(table.remove(tokenHigh, tokenLow));
+                    break;
+                }
+            }
+            return userSessions.isEmpty() ? null : userSessions;
+        });
+    }
+
+    @Override
+    public void revokeAll(String username) {
+        sessions.computeIfPresent(username, (name, userSessions) -> {
+            for (Session session : userSessions) {
+                release(table.remove(session.tokenHigh, session.tokenLow));
+            }
+            return null;
+        });
+    }
+
+    // overlapping calls return 0 straight away
+    @Override
+    public int removeExpired(Instant now) {
+        if (!expiryLock.tryLock()) {
+            return 0;
+        }
+        try {
+            int removed = expiryWheel.advance(now.toEpochMilli(), session -> {
+                boolean wasLive = remove(session);
+                permits.release();  // after removing, so the table never holds more than maxTokens
+                return wasLive;
+            });
+            expiredTotal.addAndGet(removed);
+            return removed;
+        }
+        finally {
+            expiryLock.unlock();
+        }
+    }
+
+    // takes the permit for a new token, false if there is none and the policy doesn't allow making room
+    private boolean admit(EvictionListener evictionListener) {
+        while (!permits.tryAcquire()) {
+            if (capPolicy == TokenCapPolicy.REJECT) {
+                capRejections.incrementAndGet();
+                return false;
+            }
+            Session soonest = expiryWheel.pollSoonest();
+            if (soonest == null) {  // every permit belongs to a token that is being issued right now
+                capRejections.incrementAndGet();
+                return false;
+            }
+            if (remove(soonest)) {  // revoked tokens make room without evicting anybody
+                capEvictions.incrementAndGet();
+                evictionListener.evicted(soonest.username, soonest.tokenHigh, soonest.tokenLow);
+            }
+            permits.release();  // may be taken by another thread, then this one goes on evicting
+        }
+        return true;
+    }
+
+    // false if the session was already evicted or revoked
+    private boolean remove(Session session) {
+        boolean[] removed = new boolean[1];
+        sessions.computeIfPresent(session.username, (name, userSessions) -> {
+            if (userSessions.remove(session)) {
+                release(table.remove(session.tokenHigh, session.tokenLow));
+                removed[0] = true;
+            }
+            return userSessions.isEmpty() ? null : userSessions;
+        });
+        return removed[0];
+    }
+
+    // returns slot in the file, -1 if not persisted
+    private int persist(long keyHigh, long keyLow, long userId, String username, Instant expiration) {
+        return (tableFile == null) ? -1 : tableFile.write(keyHigh, keyLow, userId, username, expiration);
+    }
+
+    private void release(int slot) {
+        if (tableFile != null) {
+            tableFile.free(slot);
+        }
+    }
+
+    // only called while loading the file, before the store is shared with other threads
+    private void restore(int slot, long keyHigh, long keyLow, long userId, String username, Instant expiration) {
+        if (!permits.tryAcquire()) {  // the cap may have been lowered since the file was written
+            tableFile.free(slot);
+            return;
+        }
+        Session session = new Session(keyHigh, keyLow, expiration.toEpochMilli(), username);
+        if (!table.putIfAbsent(session.tokenHigh, session.tokenLow, session.expirationMs, userId, username, slot)) {
+            // same key in two slots: a colliding token's slot is freed again, an OS crash may lose that free
+            tableFile.free(slot);
+            permits.release();
+            return;
+        }
+        sessions.computeIfAbsent(username, name -> new ArrayDeque<>(1)).addLast(session);
+        expiryWheel.schedule(session);
+    }
+
+    // file order says nothing about age, and the limit may have been lowered since the file was written
+    private Deque<Session> restored(Deque<Session> userSessions) {
+        List<Session> sorted = new ArrayList<>(userSessions);
+        sorted.sort(Comparator.comparingLong(s -> s.expirationMs));
+        Deque<Session> kept = new ArrayDeque<>(sorted);
+        while (kept.size() > maxSessionsPerUser) {
+            Session oldest = kept.pollFirst();
+            release(table.remove(oldest.tokenHigh, oldest.tokenLow));
+        }
+        return kept;
+    }
+
+    @Override
+    public int size() {
+        return table.size();
+    }
+
+    @Override
+    public long getExpiredTotal() {
+        return expiredTotal.get();
+    }
+
+    // evicted, revoked or expired tokens that are still referenced from the expiry wheel
+    @Override
+    public long getDeadTokenBytes() {
+        return Math.max(0, expiryWheel.size() - table.size()) * (long) ESTIMATED_BYTES_PER_DEAD_TOKEN;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return (maxTokens - (long) permits.availablePermits()) * ESTIMATED_BYTES_PER_TOKEN;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return (maxTokens == UNLIMITED) ? -1 : maxTokens * (long) ESTIMATED_BYTES_PER_TOKEN;
+    }
+
+    @Override
+    public long getCapEvictions() {
+        return capEvictions.get();
+    }
+
+    @Override
+    public long getCapRejections() {
+        return capRejections.get();
+    }
+
+}
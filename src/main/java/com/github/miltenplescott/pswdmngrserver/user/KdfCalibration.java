@@ -0,0 +1,188 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Measures the KDF on this machine over a grid of parameters.
+ *
+ * For every grid point, the KDF is first run samples times one after another, which gives its latency on an idle
+ * server. Then it is run by as many threads as there are cores at once, which gives the most logins per second the
+ * node can sustain with those parameters. The recommendation is the strongest point (most iterations times memory)
+ * whose 95th percentile latency is within the budget.
+ *
+ * Runs the KDF directly, not through {@link KdfExecutor}, so on a live node it competes with logins for the cores.
+ *
+ * Only recommends, it never changes the parameters new hashes are made with: those are the kdf.* settings, which every
+ * node of a cluster should share, whatever its own cores measure.
+ */
+final class KdfCalibration {
+
+    private static final Comparator<KdfParams> BY_STRENGTH = Comparator
+        .comparingLong((KdfParams p) -> (long) p.getIterations() * p.getMemoryKb())
+        .thenComparingInt(KdfParams::getMemoryKb)
+        .thenComparingInt(p -> -p.getParallelism());  // same cost on fewer cores leaves more for other logins
+
+    private final ThreadFactory threadFactory;
+    private final List<KdfParams> grid;
+    private final int samples;
+    private final int threads;
+    private final long latencyBudgetNanos;
+    private final Consumer<KdfParams> kdf;
+
+    private volatile List<Result> results = List.of();
+    private volatile Result recommended;  // null until run, or if nothing was within the budget
+
+    // threadFactory should be the server's managed one, it makes the threads that load every core at once
+    KdfCalibration(ThreadFactory threadFactory, List<KdfParams> grid, int samples, int threads, Duration latencyBudget, Consumer<KdfParams> kdf) {
+        if (grid.isEmpty() || samples < 1 || threads < 1) {
+            throw new IllegalArgumentException("KDF calibration needs a grid, at least 1 sample and at least 1 thread.");
+        }
+        this.threadFactory = threadFactory;
+        this.grid = List.copyOf(grid);
+        this.samples = samples;
+        this.threads = threads;
+        this.latencyBudgetNanos = latencyBudget.toNanos();
+        this.kdf = kdf;
+    }
+
+    // every combination of the comma separated values, skipping the ones Argon2 doesn't allow
+    static List<KdfParams> grid(String iterations, String memoryKb, String parallelism) {
+        List<KdfParams> grid = new ArrayList<>();
+        for (int i : parseInts(iterations)) {
+            for (int m : parseInts(memoryKb)) {
+                for (int p : parseInts(parallelism)) {
+                    if (i >= 1 && p >= 1 && m >= 8 * p) {
+                        grid.add(new KdfParams(i, m, p));
+                    }
+                }
+            }
+        }
+        return grid;
+    }
+
+    private static int[] parseInts(String values) {
+        return Arrays.stream(values.split(","))
+            .filter(value -> !value.isBlank())
+            .mapToInt(value -> Integer.parseInt(value.trim()))
+            .toArray();
+    }
+
+    /**
+     * Measures every grid point, then picks the recommendation (if any). Takes a while, in the order of
+     * (samples + samples * threads / cores) KDFs per grid point.
+     */
+    synchronized List<Result> run() {
+        List<Result> measured = new ArrayList<>(grid.size());
+        ExecutorService workers = Executors.newFixedThreadPool(threads, threadFactory);
+        try {
+            for (KdfParams params : grid) {
+                measured.add(measure(params, workers));
+            }
+        }
+        finally {
+            workers.shutdownNow();
+        }
+        results = List.copyOf(measured);
+        recommended = measured.stream()
+            .filter(result -> result.p95Nanos <= latencyBudgetNanos)
+            .max(Comparator.comparing(result -> result.params, BY_STRENGTH))
+            .orElse(null);
+        return results;
+    }
+
+    private Result measure(KdfParams params, ExecutorService workers) {
+        kdf.accept(params);  // warm up
+        long[] latencies = new long[samples];
+        for (int i = 0; i < samples; i++) {
+            long start = System.nanoTime();
+            kdf.accept(params);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        List<Future<?>> running = new ArrayList<>(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            running.add(workers.submit(() -> {
+                for (int i = 0; i < samples; i++) {
+                    kdf.accept(params);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : running) {
+                future.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("KDF calibration was interrupted.", ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IllegalStateException("KDF failed during calibration.", ex.getCause());
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Result(params, percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99),
+            threads * samples / seconds);
+    }
+
+    // nearest rank
+    private static long percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    List<Result> getResults() {
+        return results;
+    }
+
+    Result getRecommended() {
+        return recommended;
+    }
+
+    static final class Result {
+
+        final KdfParams params;
+        final long p50Nanos;
+        final long p95Nanos;
+        final long p99Nanos;
+        final double loginsPerSecond;
+
+        Result(KdfParams params, long p50Nanos, long p95Nanos, long p99Nanos, double loginsPerSecond) {
+            this.params = params;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+            this.loginsPerSecond = loginsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "iterations=%d memoryKb=%d parallelism=%d p50=%.1fms p95=%.1fms p99=%.1fms loginsPerSecond=%.1f",
+                params.getIterations(), params.getMemoryKb(), params.getParallelism(),
+                p50Nanos / 1e6, p95Nanos / 1e6, p99Nanos / 1e6, loginsPerSecond);
+        }
+
+    }
+
+}
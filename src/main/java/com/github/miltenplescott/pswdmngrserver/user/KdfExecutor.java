@@ -0,0 +1,218 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Supplier;
+
+/**
+ * Fixed number of threads for KDF jobs, so a burst of logins takes a known amount of CPU and memory instead of every
+ * HTTP worker.
+ *
+ * The queue is bounded: a job that doesn't fit is rejected at once, and a job that waited longer than the max queue
+ * wait is dropped by the thread that picks it up, without running. Either way the caller gets a
+ * {@link KdfRejectedException}, so its latency is bounded by the max queue wait plus one KDF. Queued logins run before
+ * everything else, which may only fill half of the queue, the other half is kept for logins.
+ *
+ * A caller of {@link #run} holds its thread until the result is known, so at most threads + queueCapacity callers wait
+ * at once. Those must stay fewer than the server's HTTP workers, or waiting logins leave none for other requests.
+ * Logins and sign-ups use {@link #submit} and hold no thread, only rehashes wait in run.
+ */
+final class KdfExecutor {
+
+    private final int threads;
+    private final int queueCapacity;
+    private final long maxQueueWaitNanos;
+    private final ThreadPoolExecutor pool;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();  // admitted and not yet picked up by a thread
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    // threadFactory should be the server's managed one, whose threads are the server's to stop on undeploy
+    KdfExecutor(ThreadFactory threadFactory, int threads, int queueCapacity, Duration maxQueueWait) {
+        if (threads < 1 || queueCapacity < 2) {
+            throw new IllegalArgumentException("KDF executor needs at least 1 thread and a queue of at least 2 jobs.");
+        }
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        // jobs are only ever given to execute(), never submit(), so the queue holds Jobs and can order them
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory);
+        this.pool.prestartAllCoreThreads();
+    }
+
+    /**
+     * Runs kdf on one of the KDF threads and waits for its result.
+     *
+     * @throws KdfRejectedException if the queue is full, or the job waited longer than the max queue wait
+     */
+    byte[] run(KdfPriority priority, Supplier<byte[]> kdf) {
+        CompletableFuture<byte[]> result = submit(priority, kdf);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                }
+                catch (InterruptedException ex) {
+                    // the job may already be running, its thread can't be given back any sooner, so just wait for it
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw (Error) ex.getCause();
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues kdf for one of the KDF threads. The result completes with a {@link KdfRejectedException} if the job waited
+     * longer than the max queue wait. Cancelling the result before a thread picks the job up keeps kdf from running.
+     *
+     * @throws KdfRejectedException if the queue is full
+     */
+    CompletableFuture<byte[]> submit(KdfPriority priority, Supplier<byte[]> kdf) {
+        int limit = (priority == KdfPriority.LOGIN) ? queueCapacity : queueCapacity / 2;
+        if (queued.incrementAndGet() > limit) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new KdfRejectedException();
+        }
+        Job job = new Job(priority, sequence.getAndIncrement(), kdf);
+        try {
+            pool.execute(job);
+        }
+        catch (RuntimeException ex) {  // shut down
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new KdfRejectedException();
+        }
+        return job.result;
+    }
+
+    // jobs still in the queue are rejected
+    void shutdown() {
+        for (Runnable job : pool.shutdownNow()) {
+            queued.decrementAndGet();
+            ((Job) job).result.completeExceptionally(new KdfRejectedException());
+        }
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    int getQueueDepth() {
+        return queued.get();
+    }
+
+    int getActiveJobs() {
+        return active.get();
+    }
+
+    long getCompletedJobs() {
+        return completed.get();
+    }
+
+    long getRejectedJobs() {
+        return rejected.get();
+    }
+
+    long getTimedOutJobs() {
+        return timedOut.get();
+    }
+
+    long getTotalQueueWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    long getMaxQueueWaitMs() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    private final class Job implements Runnable, Comparable<Job> {
+
+        private final KdfPriority priority;
+        private final long sequence;
+        private final long queuedAtNanos = System.nanoTime();
+        private final Supplier<byte[]> kdf;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private Job(KdfPriority priority, long sequence, Supplier<byte[]> kdf) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.kdf = kdf;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            long waitNanos = System.nanoTime() - queuedAtNanos;
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulate(waitNanos);
+            if (waitNanos > maxQueueWaitNanos) {  // its caller would rather get a 503 now than a late answer
+                timedOut.incrementAndGet();
+                result.completeExceptionally(new KdfRejectedException());
+                return;
+            }
+            if (result.isCancelled()) {  // its caller gave up waiting
+                timedOut.incrementAndGet();
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                byte[] output = kdf.get();
+                // counted before the caller can see the result, so a caller that got it also sees it counted
+                completed.incrementAndGet();
+                result.complete(output);
+            }
+            catch (RuntimeException | Error ex) {
+                result.completeExceptionally(ex);
+            }
+            finally {
+                active.decrementAndGet();
+            }
+        }
+
+        // higher priority first, then first come first served
+        @Override
+        public int compareTo(Job other) {
+            int byPriority = priority.compareTo(other.priority);
+            return (byPriority != 0) ? byPriority : Long.compare(sequence, other.sequence);
+        }
+
+    }
+
+}
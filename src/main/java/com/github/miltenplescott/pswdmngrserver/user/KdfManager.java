@@ -0,0 +1,108 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import com.github.miltenplescott.pswdmngrserver.MBeanUtils;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.management.ObjectName;
+
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)  // callers wait for the executor, not for a container lock
+public class KdfManager {
+
+    public static final Duration DEFAULT_MAX_QUEUE_WAIT = Duration.ofMillis(1000);
+    // a full queue drains within the max queue wait
+    public static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+    public static final String DEFAULT_CALIBRATION_ITERATIONS = "2,3,4,6,8,10";
+    public static final String DEFAULT_CALIBRATION_MEMORY_KB = "1024,4096,16384,65536";
+    public static final int DEFAULT_CALIBRATION_SAMPLES = 10;
+    public static final Duration DEFAULT_LATENCY_BUDGET = Duration.ofMillis(250);
+
+    // the default one of the server, which stops its threads on undeploy
+    @Resource
+    private ManagedThreadFactory threadFactory;
+
+    private KdfParams currentParams;
+    private KdfExecutor executor;
+    private KdfCalibration calibration;
+    private ObjectName statsName;
+
+    @PostConstruct
+    private void init() {
+        // raising the cost takes effect for each user at their next login, lowering it too
+        currentParams = new KdfParams(
+            ServerConfig.getInt("kdf.iterations", CryptoUtils.KDF_ITERATIONS),
+            ServerConfig.getInt("kdf.memoryKb", CryptoUtils.KDF_MEMORY_KB),
+            ServerConfig.getInt("kdf.parallelism", CryptoUtils.KDF_PARALLELISM));
+        // each KDF holds memoryKb of memory while it runs, its lanes share one pool of a thread per core with all others;
+        // the queue defaults to as many jobs as threads, so twice the cores in waiting callers stay below the HTTP workers
+        int threads = ServerConfig.getInt("kdf.threads", Runtime.getRuntime().availableProcessors());
+        executor = new KdfExecutor(
+            threadFactory,
+            threads,
+            ServerConfig.getInt("kdf.queueCapacity", Math.max(2, threads)),
+            Duration.ofMillis(ServerConfig.getLong("kdf.maxQueueWaitMs", DEFAULT_MAX_QUEUE_WAIT.toMillis())));
+        // the grid defaults to the current parallelism, so a recommendation doesn't take more cores per login
+        // on KDF instances of its own, so its larger grid points don't stay in the Argon2 pool
+        calibration = new KdfCalibration(
+            threadFactory,
+            KdfCalibration.grid(
+                ServerConfig.getString("kdf.calibration.iterations", DEFAULT_CALIBRATION_ITERATIONS),
+                ServerConfig.getString("kdf.calibration.memoryKb", DEFAULT_CALIBRATION_MEMORY_KB),
+                ServerConfig.getString("kdf.calibration.parallelism", String.valueOf(currentParams.getParallelism()))),
+            ServerConfig.getInt("kdf.calibration.samples", DEFAULT_CALIBRATION_SAMPLES),
+            Runtime.getRuntime().availableProcessors(),
+            Duration.ofMillis(ServerConfig.getLong("kdf.calibration.latencyBudgetMs", DEFAULT_LATENCY_BUDGET.toMillis())),
+            params -> CryptoUtils.kdfAndSaltUnpooled(new byte[CryptoUtils.KDF_INPUT_LENGTH_BYTES], new byte[CryptoUtils.SALT_LENGTH_BYTES], params));
+        statsName = MBeanUtils.register(KdfStats.MBEAN_TYPE, new KdfStats(executor, calibration, this::getCurrentParams));
+        if (ServerConfig.getBoolean("kdf.calibration.onStartup", false)) {
+            // in the background, deployment doesn't wait for it
+            threadFactory.newThread(calibration::run).start();
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        MBeanUtils.unregister(statsName);
+        executor.shutdown();
+    }
+
+    // parameters new hashes are made with
+    public KdfParams getCurrentParams() {
+        return currentParams;
+    }
+
+    // KDFs that run at the same time
+    public int getThreads() {
+        return executor.getThreads();
+    }
+
+    // throws KdfRejectedException if the server is too busy to run the KDF soon
+    public byte[] kdfAndSalt(byte[] masterPswd, byte[] salt, KdfParams params, KdfPriority priority) {
+        return executor.run(priority, () -> CryptoUtils.kdfAndSalt(masterPswd, salt, params));
+    }
+
+    // doesn't wait for the KDF; throws KdfRejectedException if the queue is full, the result completes with one if the
+    // job waited too long
+    public CompletableFuture<byte[]> kdfAndSaltAsync(byte[] masterPswd, byte[] salt, KdfParams params, KdfPriority priority) {
+        return executor.submit(priority, () -> CryptoUtils.kdfAndSalt(masterPswd, salt, params));
+    }
+
+}
@@ -0,0 +1,17 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+// order matters, queued KDF jobs run in declaration order
+public enum KdfPriority {
+    LOGIN,
+    SIGNUP,
+    REHASH,  // of a password that was just verified with outdated parameters, can wait until the next login
+    BULK  // provisioning of many accounts at once, keeps at most a KDF per thread queued
+}
@@ -0,0 +1,23 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import javax.ejb.ApplicationException;
+
+// thrown when a KDF job can't be queued because the queue is full, or waited in the queue for too long
+@ApplicationException
+public class KdfRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public KdfRejectedException() {
+        super("KDF executor is saturated.");
+    }
+
+}
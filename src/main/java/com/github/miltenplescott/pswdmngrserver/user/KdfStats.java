@@ -0,0 +1,108 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+class KdfStats implements KdfStatsMXBean {
+
+    static final String MBEAN_TYPE = "Kdf";
+
+    private final KdfExecutor executor;
+    private final KdfCalibration calibration;
+    private final Supplier<KdfParams> currentParams;
+
+    KdfStats(KdfExecutor executor, KdfCalibration calibration, Supplier<KdfParams> currentParams) {
+        this.executor = executor;
+        this.calibration = calibration;
+        this.currentParams = currentParams;
+    }
+
+    @Override
+    public int getThreads() {
+        return executor.getThreads();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return executor.getQueueCapacity();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor.getQueueDepth();
+    }
+
+    @Override
+    public int getActiveJobs() {
+        return executor.getActiveJobs();
+    }
+
+    @Override
+    public long getCompletedJobs() {
+        return executor.getCompletedJobs();
+    }
+
+    @Override
+    public long getRejectedJobs() {
+        return executor.getRejectedJobs();
+    }
+
+    @Override
+    public long getTimedOutJobs() {
+        return executor.getTimedOutJobs();
+    }
+
+    @Override
+    public long getTotalQueueWaitMs() {
+        return executor.getTotalQueueWaitMs();
+    }
+
+    @Override
+    public long getMaxQueueWaitMs() {
+        return executor.getMaxQueueWaitMs();
+    }
+
+    @Override
+    public String getCurrentParams() {
+        return currentParams.get().toString();
+    }
+
+    @Override
+    public List<String> getCalibrationResults() {
+        return calibration.getResults().stream().map(KdfCalibration.Result::toString).collect(Collectors.toList());
+    }
+
+    @Override
+    public String getRecommendedParams() {
+        KdfCalibration.Result recommended = calibration.getRecommended();
+        return (recommended == null) ? "" : recommended.params.toString();
+    }
+
+    @Override
+    public double getRecommendedP95LatencyMs() {
+        KdfCalibration.Result recommended = calibration.getRecommended();
+        return (recommended == null) ? 0 : recommended.p95Nanos / 1e6;
+    }
+
+    @Override
+    public double getRecommendedLoginsPerSecond() {
+        KdfCalibration.Result recommended = calibration.getRecommended();
+        return (recommended == null) ? 0 : recommended.loginsPerSecond;
+    }
+
+    @Override
+    public void calibrate() {
+        calibration.run();
+    }
+
+}
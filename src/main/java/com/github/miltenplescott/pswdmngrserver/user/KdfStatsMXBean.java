@@ -0,0 +1,54 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.util.List;
+
+public interface KdfStatsMXBean {
+
+    int getThreads();
+
+    int getQueueCapacity();
+
+    // jobs waiting for a thread
+    int getQueueDepth();
+
+    int getActiveJobs();
+
+    long getCompletedJobs();
+
+    // refused at once because the queue was full
+    long getRejectedJobs();
+
+    // dropped by a thread because they had waited longer than the max queue wait, or their request had timed out
+    long getTimedOutJobs();
+
+    // summed over every job that left the queue, divide by completed + timed out jobs for the mean
+    long getTotalQueueWaitMs();
+
+    long getMaxQueueWaitMs();
+
+    // parameters new hashes are made with
+    String getCurrentParams();
+
+    // one line per grid point of the last calibration, empty until one has run
+    List<String> getCalibrationResults();
+
+    // strongest parameters of the last calibration within the latency budget, empty if none
+    String getRecommendedParams();
+
+    double getRecommendedP95LatencyMs();
+
+    // with a KDF per core running at once
+    double getRecommendedLoginsPerSecond();
+
+    // runs the KDF over the whole grid, takes a while and competes with logins for the cores
+    void calibrate();
+
+}
@@ -0,0 +1,59 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Transport between stores in the same JVM, events are delivered on the sending thread before send() returns.
+ */
+final class LoopbackTransport implements TokenReplicationTransport {
+
+    // every transport connected to the same hub receives what the others send
+    static final class Hub {
+
+        private final List<LoopbackTransport> transports = new CopyOnWriteArrayList<>();
+
+        LoopbackTransport connect() {
+            LoopbackTransport transport = new LoopbackTransport(this);
+            transports.add(transport);
+            return transport;
+        }
+
+    }
+
+    private final Hub hub;
+    private volatile Consumer<TokenEvent> receiver = event -> {};
+
+    private LoopbackTransport(Hub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void send(TokenEvent event) {
+        for (LoopbackTransport transport : hub.transports) {
+            if (transport != this) {
+                transport.receiver.accept(event);
+            }
+        }
+    }
+
+    @Override
+    public void setReceiver(Consumer<TokenEvent> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+        hub.transports.remove(this);
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import java.util.concurrent.CompletableFuture;
+
+import static com.github.miltenplescott.pswdmngrserver.CryptoUtils.clearArray;
+
+/**
+ * A login or sign-up between the two halves {@link UserService} splits it into: what the first half checked, and the
+ * KDF it started, which the second half needs once the KDF is done. No thread waits for the KDF in between.
+ */
+public final class PendingAuthentication {
+
+    String username;  // sign-up only
+    UserRecord user;  // login only
+    byte[] decodedPswd;
+    byte[] salt;
+    KdfParams params;
+    CompletableFuture<byte[]> kdf;
+
+    public PendingAuthentication() {
+    }
+
+    // completes with a KdfRejectedException if the KDF waited too long, or a CancellationException if it was cancelled
+    CompletableFuture<byte[]> getKdf() {
+        return kdf;
+    }
+
+    void clear() {
+        clearArray(decodedPswd);
+        clearArray(salt);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.BaseEntity;
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+/**
+ * Long-lived credential that is exchanged for a new access token without running the KDF.
+ *
+ * Only the SHA-256 of the token is stored. Every refresh marks the presented token as used and issues a new one of the
+ * same family; presenting a used token again means it has been copied, so the whole family is deleted.
+ *
+ * Each one also keeps the SHA-256 of the access token issued with it, so logging out that session deletes its family.
+ */
+@Entity
+@Table(indexes = @Index(name = "refresh_token_access_token_hash", columnList = "access_token_hash"))
+public class RefreshToken extends BaseEntity implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Transient
+    static final int TOKEN_LENGTH_BYTES = 32;
+
+    @Transient
+    static final int TOKEN_HASH_LENGTH_BYTES = 32;
+
+    @Column(name = "token_hash", nullable = false, unique = true, length = TOKEN_HASH_LENGTH_BYTES)
+    private byte[] tokenHash;
+
+    @Column(name = "access_token_hash", nullable = false, length = TOKEN_HASH_LENGTH_BYTES)
+    private byte[] accessTokenHash;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "fk_user", referencedColumnName = "id")
+    private User user;
+
+    @Column(nullable = false)
+    private long family;
+
+    @Column(name = "expiration_ms", nullable = false)
+    private long expirationMs;
+
+    @Column(nullable = false)
+    private boolean used;
+
+    public RefreshToken() {
+    }
+
+    public RefreshToken(byte[] tokenHash, byte[] accessTokenHash, User user, long family, long expirationMs) {
+        this.tokenHash = tokenHash.clone();
+        this.accessTokenHash = accessTokenHash.clone();
+        this.user = user;
+        this.family = family;
+        this.expirationMs = expirationMs;
+    }
+
+    public byte[] getTokenHash() {
+        return tokenHash.clone();
+    }
+
+    public void setTokenHash(byte[] tokenHash) {
+        this.tokenHash = tokenHash.clone();
+    }
+
+    public byte[] getAccessTokenHash() {
+        return accessTokenHash.clone();
+    }
+
+    public void setAccessTokenHash(byte[] accessTokenHash) {
+        this.accessTokenHash = accessTokenHash.clone();
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.user = user;
+    }
+
+    public long getFamily() {
+        return family;
+    }
+
+    public void setFamily(long family) {
+        this.family = family;
+    }
+
+    public long getExpirationMs() {
+        return expirationMs;
+    }
+
+    public void setExpirationMs(long expirationMs) {
+        this.expirationMs = expirationMs;
+    }
+
+    public boolean isUsed() {
+        return used;
+    }
+
+    public void setUsed(boolean used) {
+        this.used = used;
+    }
+
+}
@@ -0,0 +1,29 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.GenericDao;
+import java.util.Optional;
+
+public interface RefreshTokenDao extends GenericDao<RefreshToken> {
+
+    public Optional<RefreshToken> findByHash(byte[] tokenHash);
+
+    public Optional<RefreshToken> findByAccessTokenHash(byte[] accessTokenHash);
+
+    // atomically flips used from false to true, returns false if it already was used
+    public boolean markUsed(RefreshToken refreshToken);
+
+    public int deleteFamily(long family);
+
+    public int deleteForUser(User user);
+
+    public int deleteExpired(long nowMs);
+
+}
@@ -0,0 +1,94 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.GenericDaoImpl;
+import java.util.List;
+import java.util.Optional;
+import javax.enterprise.context.ApplicationScoped;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Root;
+
+@ApplicationScoped
+public class RefreshTokenDaoImpl extends GenericDaoImpl<RefreshToken> implements RefreshTokenDao {
+
+    public RefreshTokenDaoImpl() {
+        super(RefreshToken.class);
+    }
+
+    @Override
+    public Optional<RefreshToken> findByHash(byte[] tokenHash) {
+        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<RefreshToken> cq = cb.createQuery(RefreshToken.class);
+        Root<RefreshToken> refreshToken = cq.from(RefreshToken.class);
+        cq.select(refreshToken).where(cb.equal(refreshToken.get(RefreshToken_.tokenHash), tokenHash));
+        List<RefreshToken> resultList = getEntityManager().createQuery(cq).getResultList();
+        if (resultList.isEmpty()) {
+            return Optional.empty();
+        }
+        else {
+            if (resultList.size() > 1) {
+                throw new AssertionError("Token hash is unique.");
+            }
+            return Optional.of(resultList.get(0));
+        }
+    }
+
+    @Override
+    public Optional<RefreshToken> findByAccessTokenHash(byte[] accessTokenHash) {
+        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<RefreshToken> cq = cb.createQuery(RefreshToken.class);
+        Root<RefreshToken> refreshToken = cq.from(RefreshToken.class);
+        cq.select(refreshToken).where(cb.equal(refreshToken.get(RefreshToken_.accessTokenHash), accessTokenHash));
+        // access tokens are random, a second row would be a collision of SHA-256
+        return getEntityManager().createQuery(cq).setMaxResults(1).getResultList().stream().findFirst();
+    }
+
+    @Override
+    public boolean markUsed(RefreshToken token) {
+        // single conditional UPDATE, so two concurrent refreshes with the same token can't both succeed
+        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        CriteriaUpdate<RefreshToken> cu = cb.createCriteriaUpdate(RefreshToken.class);
+        Root<RefreshToken> refreshToken = cu.from(RefreshToken.class);
+        cu.set(refreshToken.get(RefreshToken_.used), true)
+            .where(cb.equal(refreshToken.get(RefreshToken_.id), token.getId()), cb.isFalse(refreshToken.get(RefreshToken_.used)));
+        return getEntityManager().createQuery(cu).executeUpdate() == 1;
+    }
+
+    @Override
+    public int deleteFamily(long family) {
+        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        CriteriaDelete<RefreshToken> cd = cb.createCriteriaDelete(RefreshToken.class);
+        Root<RefreshToken> refreshToken = cd.from(RefreshToken.class);
+        cd.where(cb.equal(refreshToken.get(RefreshToken_.family), family));
+        return getEntityManager().createQuery(cd).executeUpdate();
+    }
+
+    @Override
+    public int deleteForUser(User user) {
+        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        CriteriaDelete<RefreshToken> cd = cb.createCriteriaDelete(RefreshToken.class);
+        Root<RefreshToken> refreshToken = cd.from(RefreshToken.class);
+        cd.where(cb.equal(refreshToken.get(RefreshToken_.user), user));
+        return getEntityManager().createQuery(cd).executeUpdate();
+    }
+
+    @Override
+    public int deleteExpired(long nowMs) {
+        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
+        CriteriaDelete<RefreshToken> cd = cb.createCriteriaDelete(RefreshToken.class);
+        Root<RefreshToken> refreshToken = cd.from(RefreshToken.class);
+        cd.where(cb.lessThanOrEqualTo(refreshToken.get(RefreshToken_.expirationMs), nowMs));
+        return getEntityManager().createQuery(cd).executeUpdate();
+    }
+
+}
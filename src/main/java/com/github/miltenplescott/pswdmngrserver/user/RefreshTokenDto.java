@@ -0,0 +1,30 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import javax.json.bind.annotation.JsonbProperty;
+
+public class RefreshTokenDto {
+// inspired by: https://tools.ietf.org/html/rfc6749#section-6
+
+    @JsonbProperty("refresh_token")
+    private String refreshToken;
+
+    public RefreshTokenDto() {
+    }
+
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
+    public void setRefreshToken(String refreshToken) {
+        this.refreshToken = refreshToken;
+    }
+
+}
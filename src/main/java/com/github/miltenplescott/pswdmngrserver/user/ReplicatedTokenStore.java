@@ -0,0 +1,396 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Token store of one node in a cluster, so any node can validate tokens issued by any other one without sticky
+ * sessions.
+ *
+ * Tokens issued here live in a local {@link InMemoryTokenStore}; every issue, eviction and revocation is also sent to
+ * the other nodes, which keep a read-only replica per sender. Events carry token keys, not tokens, so all nodes need
+ * the same {@link TokenHasher} key. Lookups only read local memory, same as without
+ * replication. Local writes are serialized, so peers apply them in the order they happened here; they're rare next to
+ * lookups, and each login already ran the KDF.
+ *
+ * Revocations are visible everywhere within maxStaleness, or the replica isn't trusted: a peer that skips a sequence
+ * number, sends an event older than maxStaleness or stays silent for longer (nodes send a heartbeat every
+ * {@link InMemoryTokenStore#EXPIRY_TICK}) loses its replica here. This node then asks the peer for a snapshot, and the
+ * peer sends an ISSUE for each of its live tokens again, in sequence with its other events; the same happens for a
+ * peer heard of for the first time, e.g. one that just restarted from its token file. Until the snapshot is in, the
+ * peer's older tokens don't work on this node. The request is repeated every EXPIRY_TICK until a snapshot that started
+ * after the last reset arrives complete. Event ages are measured with the sender's clock, so nodes need synchronized
+ * clocks.
+ */
+class ReplicatedTokenStore implements TokenStore {
+
+    static final Duration DEFAULT_MAX_STALENESS = Duration.ofSeconds(15);
+
+    // what this node learned from one other node
+    private static final class Peer {
+
+        volatile InMemoryTokenStore replica;
+        volatile long lastHeardMs;
+        // guarded by this
+        long nextSequence;
+        long resetSequence;  // replica holds what the peer sent from this sequence number on
+        boolean needsSnapshot = true;  // a new peer may have issued tokens before this node heard of it
+        long snapshotRequestedAtMs;
+
+        Peer(InMemoryTokenStore replica, long nextSequence, long nowMs) {
+            this.replica = replica;
+            this.nextSequence = nextSequence;
+            this.resetSequence = nextSequence;
+            this.lastHeardMs = nowMs;
+            this.snapshotRequestedAtMs = nowMs - InMemoryTokenStore.EXPIRY_TICK.toMillis();  // so the first event asks
+        }
+
+    }
+
+    private final long nodeId = CryptoUtils.genRandomLong();  // new one on every start, so peers never mix incarnations
+    private final InMemoryTokenStore local;
+    private final Supplier<InMemoryTokenStore> replicaFactory;
+    private final TokenReplicationTransport transport;
+    private final long maxStalenessMs;
+    private final LongSupplier clockMs;
+    private final Map<Long, Peer> peers = new HashMap<>();  // guarded by itself
+    private volatile Peer[] peerArray = new Peer[0];  // copy of peers.values(), iterating it doesn't allocate
+    // key = username, value = when all of their tokens were last revoked, keeps issues sent earlier from arriving late
+    private final ConcurrentMap<String, Long> revokedAllAtMs = new ConcurrentHashMap<>();
+    private final AtomicLong maxLagMs = new AtomicLong();
+    private final AtomicLong replicaResets = new AtomicLong();
+    private final AtomicLong snapshotRequests = new AtomicLong();
+    private final AtomicLong replicaDrops = new AtomicLong();
+    private long nextSequence;  // guarded by this
+
+    // replicaFactory creates the store for the tokens of each peer; it should have no cap, a peer caps its own tokens
+    // and a replica that refused or evicted some would let this node disagree with the peer about them
+    ReplicatedTokenStore(InMemoryTokenStore local, Supplier<InMemoryTokenStore> replicaFactory, TokenReplicationTransport transport, Duration maxStaleness) {
+        this(local, replicaFactory, transport, maxStaleness, System::currentTimeMillis);
+    }
+
+    ReplicatedTokenStore(InMemoryTokenStore local, Supplier<InMemoryTokenStore> replicaFactory, TokenReplicationTransport transport, Duration maxStaleness, LongSupplier clockMs) {
+        if (maxStaleness.compareTo(InMemoryTokenStore.EXPIRY_TICK) <= 0) {
+            throw new IllegalArgumentException("Max staleness has to be longer than the heartbeat period " + InMemoryTokenStore.EXPIRY_TICK + ".");
+        }
+        this.local = local;
+        this.replicaFactory = replicaFactory;
+        this.transport = transport;
+        this.maxStalenessMs = maxStaleness.toMillis();
+        this.clockMs = clockMs;
+        transport.setReceiver(this::receive);
+    }
+
+    @Override
+    public synchronized AuthToken put(long userId, String username, Instant expiration, Supplier<byte[]> tokenGenerator) {
+        long nowMs = clockMs.getAsLong();
+        // evictions are reported from inside the local store's locks, so their REVOKEs are sent once put returns
+        List<Runnable> revokes = new ArrayList<>(1);
+        AuthToken token = local.put(userId, username, expiration, tokenGenerator,
+            (name, high, low) -> revokes.add(() -> send(TokenEvent.Type.REVOKE, nowMs, high, low, 0, 0, name)));
+        revokes.forEach(Runnable::run);
+        byte[] key = local.getHasher().hash(TokenTable.decodeHigh(token.getToken()), TokenTable.decodeLow(token.getToken()));
+        long tokenHigh = TokenTable.high(key);
+        long tokenLow = TokenTable.low(key);
+        send(TokenEvent.Type.ISSUE, nowMs, tokenHigh, tokenLow, userId, expiration.toEpochMilli(), username);
+        return token;
+    }
+
+    @Override
+    public Optional<AuthToken> get(String token) {
+        if (TokenTable.decodedLength(token) != AuthTokenManager.TOKEN_LENGTH_BYTES) {
+            return Optional.empty();
+        }
+        // hashed once, replicas hold keys from the peers' hashers, which have the same key as this one
+        byte[] key = local.getHasher().hash(TokenTable.decodeHigh(token), TokenTable.decodeLow(token));
+        long tokenHigh = TokenTable.high(key);
+        long tokenLow = TokenTable.low(key);
+        Optional<AuthToken> found = local.get(token, tokenHigh, tokenLow);
+        for (Peer peer : peerArray) {
+            if (found.isPresent()) {
+                break;
+            }
+            found = peer.replica.get(token, tokenHigh, tokenLow);
+        }
+        return found;
+    }
+
+    @Override
+    public UserPrincipal findUser(long tokenHigh, long tokenLow, long nowMs) {
+        UserPrincipal user = local.findUser(tokenHigh, tokenLow, nowMs);
+        for (Peer peer : peerArray) {
+            if (user != null) {
+                break;
+            }
+            user = peer.replica.findUser(tokenHigh, tokenLow, nowMs);
+        }
+        return user;
+    }
+
+    @Override
+    public synchronized void revoke(String username, long tokenHigh, long tokenLow) {
+        revokeEverywhere(username, tokenHigh, tokenLow);
+        send(TokenEvent.Type.REVOKE, clockMs.getAsLong(), tokenHigh, tokenLow, 0, 0, username);
+    }
+
+    @Override
+    public synchronized void revokeAll(String username) {
+        long nowMs = clockMs.getAsLong();
+        revokeAllEverywhere(username, nowMs);
+        send(TokenEvent.Type.REVOKE_ALL, nowMs, 0, 0, 0, 0, username);
+    }
+
+    // also sends the heartbeat and forgets peers that stopped sending theirs
+    @Override
+    public int removeExpired(Instant now) {
+        int removed = local.removeExpired(now);
+        for (Peer peer : peerArray) {
+            removed += peer.replica.removeExpired(now);
+        }
+        long nowMs = clockMs.getAsLong();
+        synchronized (this) {
+            send(TokenEvent.Type.HEARTBEAT, nowMs, 0, 0, 0, 0, null);
+        }
+        synchronized (peers) {
+            if (peers.values().removeIf(peer -> isSilent(peer, nowMs))) {
+                peerArray = peers.values().toArray(new Peer[0]);
+            }
+        }
+        // issues older than maxStaleness are dropped anyway
+        revokedAllAtMs.values().removeIf(revokedAtMs -> nowMs - revokedAtMs > maxStalenessMs);
+        return removed;
+    }
+
+    private boolean isSilent(Peer peer, long nowMs) {
+        if (nowMs - peer.lastHeardMs <= maxStalenessMs) {
+            return false;
+        }
+        replicaDrops.addAndGet(peer.replica.size());
+        return true;
+    }
+
+    @Override
+    public int size() {
+        int size = local.size();
+        for (Peer peer : peerArray) {
+            size += peer.replica.size();
+        }
+        return size;
+    }
+
+    @Override
+    public long getExpiredTotal() {
+        long expired = local.getExpiredTotal();
+        for (Peer peer : peerArray) {
+            expired += peer.replica.getExpiredTotal();
+        }
+        return expired;
+    }
+
+    @Override
+    public long getDeadTokenBytes() {
+        long bytes = local.getDeadTokenBytes();
+        for (Peer peer : peerArray) {
+            bytes += peer.replica.getDeadTokenBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        long bytes = local.getEstimatedBytes();
+        for (Peer peer : peerArray) {
+            bytes += peer.replica.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    // local store and one replica per peer; replicas have no cap of their own, but each peer caps its tokens the same
+    // way this node does, given the same config
+    @Override
+    public long getMaxBytes() {
+        long maxBytes = local.getMaxBytes();
+        return (maxBytes < 0) ? -1 : maxBytes * (1 + peerArray.length);
+    }
+
+    @Override
+    public long getCapEvictions() {
+        long evictions = local.getCapEvictions();
+        for (Peer peer : peerArray) {
+            evictions += peer.replica.getCapEvictions();
+        }
+        return evictions;
+    }
+
+    @Override
+    public long getCapRejections() {
+        long rejections = local.getCapRejections();
+        for (Peer peer : peerArray) {
+            rejections += peer.replica.getCapRejections();
+        }
+        return rejections;
+    }
+
+    int getPeers() {
+        return peerArray.length;
+    }
+
+    // longest time from sending an event to applying it here
+    long getMaxLagMs() {
+        return maxLagMs.get();
+    }
+
+    // how many times a replica was thrown away because events were missed or too late
+    long getReplicaResets() {
+        return replicaResets.get();
+    }
+
+    // how many times a peer was asked to send its tokens again
+    long getSnapshotRequests() {
+        return snapshotRequests.get();
+    }
+
+    // how many of the peers' tokens this node dropped or never took although they may still be live: replicas thrown
+    // away (a snapshot usually brings those tokens back), issues arriving too late and replicas of peers gone silent
+    long getReplicaDrops() {
+        return replicaDrops.get();
+    }
+
+    void receive(TokenEvent event) {
+        if (event.origin == nodeId) {
+            return;
+        }
+        long nowMs = clockMs.getAsLong();
+        long lagMs = Math.max(0, nowMs - event.sentAtMs);
+        Peer peer = peer(event.origin, event.sequence, nowMs);
+        boolean requestSnapshot = false;
+        synchronized (peer) {
+            if (event.sequence < peer.nextSequence) {
+                return;  // duplicate
+            }
+            if (event.sequence > peer.nextSequence || lagMs > maxStalenessMs) {
+                // something in between, maybe a revocation, was lost or is late, so nothing from this peer can be trusted
+                replicaDrops.addAndGet(peer.replica.size());
+                peer.replica = replicaFactory.get();
+                peer.resetSequence = event.sequence;
+                peer.needsSnapshot = true;
+                replicaResets.incrementAndGet();
+            }
+            peer.nextSequence = event.sequence + 1;
+            peer.lastHeardMs = nowMs;
+            maxLagMs.accumulateAndGet(lagMs, Math::max);
+            if (event.type == TokenEvent.Type.ISSUE) {
+                issue(peer, event, lagMs);
+            }
+            else if (event.type == TokenEvent.Type.RESYNCED && event.userId >= peer.resetSequence) {
+                peer.needsSnapshot = false;  // every token the peer had is in the replica again
+            }
+            if (peer.needsSnapshot && nowMs - peer.snapshotRequestedAtMs >= InMemoryTokenStore.EXPIRY_TICK.toMillis()) {
+                peer.snapshotRequestedAtMs = nowMs;
+                requestSnapshot = true;
+            }
+        }
+        // the rest takes other peers' locks, so not while holding this one's; events of a peer still come one by one
+        switch (event.type) {
+            case REVOKE:
+                revokeEverywhere(event.username, event.tokenHigh, event.tokenLow);
+                break;
+            case REVOKE_ALL:
+                revokeAllEverywhere(event.username, event.sentAtMs);
+                break;
+            case RESYNC:
+                if (event.userId == nodeId) {
+                    sendSnapshot();
+                }
+                break;
+            default:
+                break;
+        }
+        if (requestSnapshot) {
+            snapshotRequests.incrementAndGet();
+            synchronized (this) {
+                send(TokenEvent.Type.RESYNC, clockMs.getAsLong(), 0, 0, event.origin, 0, null);
+            }
+        }
+    }
+
+    // caller holds the lock of peer, which revokeAllEverywhere takes too, so a revocation can't slip in between the
+    // check and the put
+    private void issue(Peer peer, TokenEvent event, long lagMs) {
+        if (lagMs > maxStalenessMs) {
+            replicaDrops.incrementAndGet();
+            return;
+        }
+        Long revokedAllAt = revokedAllAtMs.get(event.username);
+        if (revokedAllAt == null || revokedAllAt < event.sentAtMs) {
+            peer.replica.putIfAbsent(event.tokenHigh, event.tokenLow, event.expirationMs, event.userId, event.username);
+        }
+    }
+
+    // every live local token as an ISSUE, then RESYNCED; to all peers, duplicates are ignored by those that didn't ask
+    private synchronized void sendSnapshot() {
+        long nowMs = clockMs.getAsLong();
+        long startSequence = nextSequence;
+        List<TokenEvent> issues = new ArrayList<>();
+        local.forEachLive(nowMs, (tokenHigh, tokenLow, expirationMs, user) -> issues.add(
+            new TokenEvent(TokenEvent.Type.ISSUE, nodeId, nextSequence++, nowMs, tokenHigh, tokenLow, user.getId(), expirationMs, user.getName())));
+        for (TokenEvent issue : issues) {  // sent outside the table's lock
+            transport.send(issue);
+        }
+        send(TokenEvent.Type.RESYNCED, nowMs, 0, 0, startSequence, 0, null);
+    }
+
+    private Peer peer(long origin, long sequence, long nowMs) {
+        synchronized (peers) {
+            Peer peer = peers.get(origin);
+            if (peer == null) {
+                peer = new Peer(replicaFactory.get(), sequence, nowMs);
+                peers.put(origin, peer);
+                peerArray = peers.values().toArray(new Peer[0]);
+            }
+            return peer;
+        }
+    }
+
+    private void revokeEverywhere(String username, long tokenHigh, long tokenLow) {
+        local.revoke(username, tokenHigh, tokenLow);
+        for (Peer peer : peerArray) {
+            peer.replica.revoke(username, tokenHigh, tokenLow);
+        }
+    }
+
+    private void revokeAllEverywhere(String username, long revokedAtMs) {
+        revokedAllAtMs.merge(username, revokedAtMs, Math::max);
+        local.revokeAll(username);
+        for (Peer peer : peerArray) {
+            synchronized (peer) {  // after the merge, so an issue applied under this lock has either seen it or is removed
+                peer.replica.revokeAll(username);
+            }
+        }
+    }
+
+    // caller holds the lock of this, so events leave in sequence order
+    private void send(TokenEvent.Type type, long nowMs, long tokenHigh, long tokenLow, long userId, long expirationMs, String username) {
+        transport.send(new TokenEvent(type, nodeId, nextSequence++, nowMs, tokenHigh, tokenLow, userId, expirationMs, username));
+    }
+
+}
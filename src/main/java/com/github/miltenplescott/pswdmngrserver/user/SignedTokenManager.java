@@ -0,0 +1,173 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongToIntFunction;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Self-contained bearer tokens, any node holding the signing key can validate them without shared state.
+ *
+ * Layout: version (1 B) | key id (1 B) | user id (8 B) | expiration ms (8 B) | revocation epoch (4 B)
+ * | username length (1 B) | username (ASCII) | HMAC-SHA256 of everything before it (32 B)
+ *
+ * Revoking bumps the user's epoch, which invalidates all tokens issued to that user before. Epochs are stored with the
+ * user, so a revocation survives restarts and reaches every node; each node reads them through a cache, so another
+ * node may accept a revoked token for up to the cache's expiry.
+ */
+class SignedTokenManager {
+
+    static final String MAC_ALGORITHM = "HmacSHA256";
+    static final int MIN_KEY_LENGTH_BYTES = 32;
+    static final Duration DEFAULT_EPOCH_CACHE_EXPIRY = Duration.ofSeconds(5);
+
+    private static final byte VERSION = 1;
+    private static final int MAC_LENGTH_BYTES = 32;
+    private static final int HEADER_LENGTH_BYTES = 1 + 1 + 8 + 8 + 4 + 1;
+    static final int MIN_TOKEN_LENGTH_BYTES = HEADER_LENGTH_BYTES + User.USERNAME_MIN_LENGTH + MAC_LENGTH_BYTES;
+    static final int MAX_TOKEN_LENGTH_BYTES = HEADER_LENGTH_BYTES + User.USERNAME_MAX_LENGTH + MAC_LENGTH_BYTES;
+
+    private final Map<Byte, ThreadLocal<Mac>> macs = new HashMap<>();  // key = key id, Mac instances are not thread-safe
+    private final byte activeKeyId;
+    private final LoadingCache<Long, Integer> epochs;  // key = user id
+
+    // keys come from pswdmngr.token.signingKeys ("keyId:base64Key,keyId:base64Key"), all nodes need the same ones;
+    // without any configured key a random one is generated, which is only good for a single node; epochLoader reads a
+    // user's epoch from the database
+    static SignedTokenManager fromConfig(LongToIntFunction epochLoader) {
+        Duration epochCacheExpiry = Duration.ofMillis(ServerConfig.getLong("token.epochCacheMs", DEFAULT_EPOCH_CACHE_EXPIRY.toMillis()));
+        Map<Byte, byte[]> keys = new HashMap<>();
+        String configuredKeys = ServerConfig.getString("token.signingKeys", "");
+        for (String entry : configuredKeys.split(",")) {
+            if (!entry.isBlank()) {
+                String[] idAndKey = entry.trim().split(":", 2);
+                keys.put(Byte.valueOf(idAndKey[0]), CryptoUtils.decodeKey(idAndKey[1]));
+            }
+        }
+        if (keys.isEmpty()) {
+            keys.put((byte) 0, CryptoUtils.genRandomBytes(MIN_KEY_LENGTH_BYTES));
+            return new SignedTokenManager(keys, (byte) 0, epochLoader, epochCacheExpiry);
+        }
+        // the highest id by default, so every node signs with the same key however its map is ordered
+        byte activeKeyId = (byte) ServerConfig.getInt("token.activeKeyId", Collections.max(keys.keySet()));
+        return new SignedTokenManager(keys, activeKeyId, epochLoader, epochCacheExpiry);
+    }
+
+    // every key in keys stays valid for verification, only activeKeyId is used for signing
+    SignedTokenManager(Map<Byte, byte[]> keys, byte activeKeyId, LongToIntFunction epochLoader, Duration epochCacheExpiry) {
+        if (!keys.containsKey(activeKeyId)) {
+            throw new IllegalArgumentException("Active signing key " + activeKeyId + " is not configured.");
+        }
+        for (Map.Entry<Byte, byte[]> key : keys.entrySet()) {
+            if (key.getValue().length < MIN_KEY_LENGTH_BYTES) {
+                throw new IllegalArgumentException("Signing key " + key.getKey() + " is shorter than " + MIN_KEY_LENGTH_BYTES + " bytes.");
+            }
+            SecretKeySpec keySpec = new SecretKeySpec(key.getValue(), MAC_ALGORITHM);
+            macs.put(key.getKey(), ThreadLocal.withInitial(() -> newMac(keySpec)));
+        }
+        this.activeKeyId = activeKeyId;
+        this.epochs = CacheBuilder.newBuilder()
+            .expireAfterWrite(epochCacheExpiry)
+            .build(CacheLoader.from(userId -> epochLoader.applyAsInt(userId)));
+    }
+
+    AuthToken issue(long userId, String username, Instant expiration) {
+        byte[] usernameBytes = username.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH_BYTES + usernameBytes.length + MAC_LENGTH_BYTES);
+        buffer.put(VERSION)
+            .put(activeKeyId)
+            .putLong(userId)
+            .putLong(expiration.toEpochMilli())
+            .putInt(currentEpoch(userId))
+            .put((byte) usernameBytes.length)
+            .put(usernameBytes);
+        Mac mac = macs.get(activeKeyId).get();
+        mac.update(buffer.array(), 0, buffer.position());
+        buffer.put(mac.doFinal());
+        return new AuthToken(CryptoUtils.encodeToken(buffer.array()), userId, username, Instant.ofEpochMilli(expiration.toEpochMilli()));
+    }
+
+    // empty if the token is malformed, forged, signed by an unknown key or revoked; expiration is left to the caller
+    Optional<AuthToken> verify(String token, byte[] decodedToken) {
+        if (!hasCorrectLength(decodedToken.length) || decodedToken[0] != VERSION) {
+            return Optional.empty();
+        }
+        ThreadLocal<Mac> threadMac = macs.get(decodedToken[1]);
+        if (threadMac == null) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(decodedToken);
+        buffer.position(2);
+        long userId = buffer.getLong();
+        long expirationMs = buffer.getLong();
+        int epoch = buffer.getInt();
+        int usernameLength = buffer.get() & 0xff;
+        int macOffset = HEADER_LENGTH_BYTES + usernameLength;
+        if (macOffset + MAC_LENGTH_BYTES != decodedToken.length) {
+            return Optional.empty();
+        }
+
+        Mac mac = threadMac.get();
+        mac.update(decodedToken, 0, macOffset);
+        byte[] expectedMac = mac.doFinal();
+        int difference = 0;  // constant time comparison
+        for (int i = 0; i < MAC_LENGTH_BYTES; i++) {
+            difference |= expectedMac[i] ^ decodedToken[macOffset + i];
+        }
+        if (difference != 0) {
+            return Optional.empty();
+        }
+
+        String username = new String(decodedToken, HEADER_LENGTH_BYTES, usernameLength, StandardCharsets.US_ASCII);
+        if (epoch != currentEpoch(userId)) {
+            return Optional.empty();
+        }
+        return Optional.of(new AuthToken(token, userId, username, Instant.ofEpochMilli(expirationMs)));
+    }
+
+    boolean hasCorrectLength(int decodedLength) {
+        return decodedLength >= MIN_TOKEN_LENGTH_BYTES && decodedLength <= MAX_TOKEN_LENGTH_BYTES;
+    }
+
+    // after the user's epoch was bumped in the database, so this node rejects the earlier tokens right away
+    void forgetEpoch(long userId) {
+        epochs.invalidate(userId);
+    }
+
+    private int currentEpoch(long userId) {
+        return epochs.getUnchecked(userId);
+    }
+
+    private static Mac newMac(SecretKeySpec keySpec) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(keySpec);
+            return mac;
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
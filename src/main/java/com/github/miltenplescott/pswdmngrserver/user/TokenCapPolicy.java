@@ -0,0 +1,20 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+// what a full token store does with a new token
+public enum TokenCapPolicy {
+
+    // log out whoever's token expires soonest, logins keep working
+    EVICT_SOONEST,
+
+    // refuse the new token, logins fail with 503 until tokens expire
+    REJECT
+
+}
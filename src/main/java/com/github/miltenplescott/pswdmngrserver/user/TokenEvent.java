@@ -0,0 +1,98 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Change of the token table of one node, sent to every other node by {@link ReplicatedTokenStore}.
+ *
+ * Encoded layout: type (1 B) | origin (8 B) | sequence (8 B) | sent at ms (8 B) | token key (16 B) | user id (8 B)
+ * | expiration ms (8 B) | username length (1 B) | username (US-ASCII)
+ *
+ * RESYNC asks the node whose id is in the user id field to send every live token again, as ISSUE events followed by
+ * RESYNCED, whose user id field is the sequence number the snapshot started at. Neither has a username.
+ */
+final class TokenEvent {
+
+    enum Type {
+        ISSUE, REVOKE, REVOKE_ALL, HEARTBEAT, RESYNC, RESYNCED
+    }
+
+    private static final Type[] TYPES = Type.values();
+    private static final int FIXED_LENGTH_BYTES = 1 + 8 + 8 + 8 + AuthTokenManager.TOKEN_LENGTH_BYTES + 8 + 8 + 1;
+
+    static final int MAX_ENCODED_LENGTH_BYTES = FIXED_LENGTH_BYTES + 255;
+
+    final Type type;
+    final long origin;  // node id of the sender
+    final long sequence;  // per origin, without gaps
+    final long sentAtMs;
+    final long tokenHigh;
+    final long tokenLow;
+    final long userId;
+    final long expirationMs;
+    final String username;  // null for HEARTBEAT, RESYNC and RESYNCED
+
+    TokenEvent(Type type, long origin, long sequence, long sentAtMs, long tokenHigh, long tokenLow, long userId, long expirationMs, String username) {
+        this.type = type;
+        this.origin = origin;
+        this.sequence = sequence;
+        this.sentAtMs = sentAtMs;
+        this.tokenHigh = tokenHigh;
+        this.tokenLow = tokenLow;
+        this.userId = userId;
+        this.expirationMs = expirationMs;
+        this.username = username;
+    }
+
+    byte[] encode() {
+        byte[] usernameBytes = (username == null) ? new byte[0] : username.getBytes(StandardCharsets.US_ASCII);
+        return ByteBuffer.allocate(FIXED_LENGTH_BYTES + usernameBytes.length)
+            .put((byte) type.ordinal())
+            .putLong(origin).putLong(sequence).putLong(sentAtMs)
+            .putLong(tokenHigh).putLong(tokenLow)
+            .putLong(userId).putLong(expirationMs)
+            .put((byte) usernameBytes.length).put(usernameBytes)
+            .array();
+    }
+
+    // throws IllegalArgumentException if bytes isn't an encoded event
+    static TokenEvent decode(byte[] bytes, int offset, int length) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            int typeIndex = buffer.get();
+            if (typeIndex < 0 || typeIndex >= TYPES.length) {
+                throw new IllegalArgumentException("Unknown token event type " + typeIndex + ".");
+            }
+            Type type = TYPES[typeIndex];
+            long origin = buffer.getLong();
+            long sequence = buffer.getLong();
+            long sentAtMs = buffer.getLong();
+            long tokenHigh = buffer.getLong();
+            long tokenLow = buffer.getLong();
+            long userId = buffer.getLong();
+            long expirationMs = buffer.getLong();
+            byte[] usernameBytes = new byte[buffer.get() & 0xff];
+            buffer.get(usernameBytes);
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after token event.");
+            }
+            boolean hasUsername = type == Type.ISSUE || type == Type.REVOKE || type == Type.REVOKE_ALL;
+            String username = hasUsername ? new String(usernameBytes, StandardCharsets.US_ASCII) : null;
+            return new TokenEvent(type, origin, sequence, sentAtMs, tokenHigh, tokenLow, userId, expirationMs, username);
+        }
+        catch (BufferUnderflowException ex) {
+            throw new IllegalArgumentException("Truncated token event.", ex);
+        }
+    }
+
+}
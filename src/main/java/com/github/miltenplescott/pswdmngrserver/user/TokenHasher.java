@@ -0,0 +1,113 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keys opaque tokens are stored under: HMAC-SHA256 of the token with a server key, of which the first 16 bytes are
+ * used like the token itself was before, see {@link TokenTable#high} and {@link TokenTable#low}.
+ *
+ * Token stores, the token file and replication events only ever see keys, so whoever reads any of them still can't
+ * present a token. All nodes of a cluster need the same server key, and so does a node restarting from its token file.
+ */
+final class TokenHasher {
+
+    static final String MAC_ALGORITHM = "HmacSHA256";
+    static final int MIN_KEY_LENGTH_BYTES = 32;
+
+    // Mac instances are not thread-safe, so there are several and each thread uses the one its id maps to, guarded by
+    // the stripe; striped rather than one per thread, so a redeploy doesn't leave Macs behind on the server's threads
+    private static final class Stripe {
+
+        final Mac mac;
+        final byte[] token = new byte[AuthTokenManager.TOKEN_LENGTH_BYTES];
+        final byte[] key;
+
+        Stripe(Mac mac) {
+            this.mac = mac;
+            this.key = new byte[mac.getMacLength()];
+        }
+
+    }
+
+    private final Stripe[] stripes;
+
+    TokenHasher(byte[] serverKey) {
+        if (serverKey.length < MIN_KEY_LENGTH_BYTES) {
+            throw new IllegalArgumentException("Token hash key is shorter than " + MIN_KEY_LENGTH_BYTES + " bytes.");
+        }
+        SecretKeySpec keySpec = new SecretKeySpec(serverKey, MAC_ALGORITHM);
+        int count = 2 * Runtime.getRuntime().availableProcessors();
+        this.stripes = new Stripe[Integer.highestOneBit(count - 1) << 1];  // power of two, for the mask
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(newMac(keySpec));
+        }
+    }
+
+    // only good for a single node that doesn't persist its tokens
+    static TokenHasher withRandomKey() {
+        return new TokenHasher(CryptoUtils.genRandomBytes(MIN_KEY_LENGTH_BYTES));
+    }
+
+    private Stripe stripe() {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    /**
+     * Key of the token that {@link TokenTable#decodeHigh} and {@link TokenTable#decodeLow} split in two, the 16 bytes
+     * {@link TokenTable#high} and {@link TokenTable#low} read.
+     */
+    byte[] hash(long tokenHigh, long tokenLow) {
+        Stripe s = stripe();
+        synchronized (s) {
+            for (int i = 0; i < 8; i++) {
+                s.token[i] = (byte) (tokenHigh >>> (56 - 8 * i));
+                s.token[8 + i] = (byte) (tokenLow >>> (56 - 8 * i));
+            }
+            return hash(s, s.token);
+        }
+    }
+
+    // same as above, for a token of TOKEN_LENGTH_BYTES
+    byte[] hash(byte[] token) {
+        Stripe s = stripe();
+        synchronized (s) {
+            return hash(s, token);
+        }
+    }
+
+    // the stripe's buffers are shared with the other threads mapped to it, so the key is copied out
+    private static byte[] hash(Stripe s, byte[] token) {
+        s.mac.update(token);
+        try {
+            s.mac.doFinal(s.key, 0);
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return Arrays.copyOf(s.key, 2 * Long.BYTES);
+    }
+
+    private static Mac newMac(SecretKeySpec keySpec) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(keySpec);
+            return mac;
+        }
+        catch (GeneralSecurityException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,19 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+public enum TokenMode {
+
+    // random token, only meaningful to the node that issued it
+    OPAQUE,
+
+    // HMAC-signed token carrying its own claims, see SignedTokenManager
+    SIGNED
+
+}
@@ -0,0 +1,33 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Channel between the nodes of a {@link ReplicatedTokenStore}.
+ *
+ * Events of one sender have to arrive in the order they were sent, but may be lost: the receiving store notices the
+ * gap in sequence numbers, stops trusting what it learned from that sender and asks it to send its tokens again.
+ * Events say who is logged in and forged ones would log anybody in, so a transport must not let anybody outside the
+ * cluster read or forge them.
+ */
+interface TokenReplicationTransport extends AutoCloseable {
+
+    // sends event to every other node, never throws, a lost event is detected by the receivers
+    void send(TokenEvent event);
+
+    // events of one sender are handed to receiver one at a time
+    void setReceiver(Consumer<TokenEvent> receiver);
+
+    @Override
+    void close() throws IOException;
+
+}
@@ -0,0 +1,59 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Storage of opaque tokens behind {@link AuthTokenManager}. Tokens are addressed by their 128-bit key from the
+ * {@link TokenHasher} split into two longs, tokenHigh and tokenLow, see {@link TokenTable#high} and
+ * {@link TokenTable#low}. Only {@link #put} and {@link #get} see the token itself.
+ */
+interface TokenStore {
+
+    // evicts the user's oldest tokens if they already have too many; tokenGenerator returns TOKEN_LENGTH_BYTES random
+    // bytes
+    AuthToken put(long userId, String username, Instant expiration, Supplier<byte[]> tokenGenerator);
+
+    // decodes token, so keep it off the request path; expired tokens are returned too
+    Optional<AuthToken> get(String token);
+
+    // null if the token is unknown or expired at nowMs; called for every request, so implementations shouldn't allocate
+    UserPrincipal findUser(long tokenHigh, long tokenLow, long nowMs);
+
+    // no-op unless the token belongs to username
+    void revoke(String username, long tokenHigh, long tokenLow);
+
+    void revokeAll(String username);
+
+    // called by a timer every InMemoryTokenStore.EXPIRY_TICK, returns number of removed tokens
+    int removeExpired(Instant now);
+
+    int size();
+
+    long getExpiredTotal();
+
+    // estimated heap still held by tokens that are no longer valid
+    long getDeadTokenBytes();
+
+    // estimated heap held by all tokens, valid or not
+    long getEstimatedBytes();
+
+    // -1 if the number of tokens isn't limited
+    long getMaxBytes();
+
+    // valid tokens evicted to make room for new ones
+    long getCapEvictions();
+
+    // new tokens refused because the store was full
+    long getCapRejections();
+
+}
@@ -0,0 +1,23 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import javax.ejb.ApplicationException;
+
+// thrown when a token can't be issued because the token store is full, see TokenCapPolicy.REJECT
+@ApplicationException(rollback = true)
+public class TokenStoreFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public TokenStoreFullException() {
+        super("Token store is full.");
+    }
+
+}
@@ -0,0 +1,339 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing hash table of opaque tokens, keyed by the 128-bit token value split into two longs.
+ *
+ * Every column is a primitive array (apart from the users, a {@link UserPrincipal} per token), so a bucket takes 32 B,
+ * about 88 B per live token at the 0.5 load factor with its principal, and looking a token up allocates nothing.
+ * Collisions are resolved by linear probing and deletion shifts following entries back, so there are no tombstones.
+ *
+ * Lookups are optimistic reads of a {@link StampedLock} and only fall back to the read lock if a writer got in between.
+ * All columns live in one {@link Columns} instance that is swapped on resize, so a reader never mixes old and new
+ * arrays.
+ */
+class TokenTable {
+
+    // returned by remove() if the token isn't in the table
+    static final int MISSING = Integer.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 64;  // power of 2
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final byte[] BASE64_VALUES = new byte[128];  // -1 = not in the alphabet
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private static final class Columns {
+
+        final long[] tokenHighs;
+        final long[] tokenLows;
+        final long[] expirations;  // epoch ms
+        final UserPrincipal[] users;  // null = empty bucket
+        final int[] fileSlots;
+        final int mask;
+
+        Columns(int capacity) {
+            tokenHighs = new long[capacity];
+            tokenLows = new long[capacity];
+            expirations = new long[capacity];
+            users = new UserPrincipal[capacity];
+            fileSlots = new int[capacity];
+            mask = capacity - 1;
+        }
+
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private volatile Columns columns = new Columns(MIN_CAPACITY);
+    private int size;  // guarded by lock
+
+    @FunctionalInterface
+    interface EntryConsumer {
+
+        void accept(long tokenHigh, long tokenLow, long expirationMs, UserPrincipal user);
+
+    }
+
+    // false if the token is already in the table
+    boolean putIfAbsent(long tokenHigh, long tokenLow, long expirationMs, long userId, String username, int fileSlot) {
+        UserPrincipal user = new UserPrincipal(userId, username);  // made once per token, so lookups can hand it out
+        long stamp = lock.writeLock();
+        try {
+            if (indexOf(columns, tokenHigh, tokenLow) >= 0) {
+                return false;
+            }
+            if ((size + 1) * 2 > columns.users.length) {  // load factor 0.5 keeps probe sequences short
+                columns = resized(columns.users.length * 2);
+            }
+            Columns c = columns;
+            int i = bucket(tokenHigh, tokenLow, c.mask);
+            while (c.users[i] != null) {
+                i = (i + 1) & c.mask;
+            }
+            c.tokenHighs[i] = tokenHigh;
+            c.tokenLows[i] = tokenLow;
+            c.expirations[i] = expirationMs;
+            c.fileSlots[i] = fileSlot;
+            c.users[i] = user;
+            size++;
+            return true;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // null if the token is unknown or expired at nowMs; no Optional, so request threads don't allocate
+    UserPrincipal findUser(long tokenHigh, long tokenLow, long nowMs) {
+        long stamp = lock.tryOptimisticRead();
+        UserPrincipal user = findUser(columns, tokenHigh, tokenLow, nowMs);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                user = findUser(columns, tokenHigh, tokenLow, nowMs);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return user;
+    }
+
+    // null if the token is unknown, expired tokens are returned too
+    AuthToken get(String token, long tokenHigh, long tokenLow) {
+        long stamp = lock.readLock();
+        try {
+            Columns c = columns;
+            int i = indexOf(c, tokenHigh, tokenLow);
+            return (i < 0) ? null : new AuthToken(token, c.users[i].getId(), c.users[i].getName(), Instant.ofEpochMilli(c.expirations[i]));
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // returns the file slot of the removed token, or MISSING if the token isn't in the table
+    int remove(long tokenHigh, long tokenLow) {
+        long stamp = lock.writeLock();
+        try {
+            Columns c = columns;
+            int i = indexOf(c, tokenHigh, tokenLow);
+            if (i < 0) {
+                return MISSING;
+            }
+            int fileSlot = c.fileSlots[i];
+            // backward shift: move every later entry of the probe run that may live at i into the gap
+            int gap = i;
+            for (int j = (i + 1) & c.mask; c.users[j] != null; j = (j + 1) & c.mask) {
+                int home = bucket(c.tokenHighs[j], c.tokenLows[j], c.mask);
+                if (((j - home) & c.mask) >= ((j - gap) & c.mask)) {
+                    move(c, j, gap);
+                    gap = j;
+                }
+            }
+            c.users[gap] = null;
+            size--;
+            if (size * 8 < c.users.length && c.users.length > MIN_CAPACITY) {
+                columns = resized(c.users.length / 2);  // give memory back after a login spike
+            }
+            return fileSlot;
+        }
+        finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // every token not expired at nowMs, under the read lock, so keep consumer short
+    void forEachLive(long nowMs, EntryConsumer consumer) {
+        long stamp = lock.readLock();
+        try {
+            Columns c = columns;
+            for (int i = 0; i < c.users.length; i++) {
+                if (c.users[i] != null && c.expirations[i] > nowMs) {
+                    consumer.accept(c.tokenHighs[i], c.tokenLows[i], c.expirations[i], c.users[i]);
+                }
+            }
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    int capacity() {
+        return columns.users.length;
+    }
+
+    static long high(byte[] token) {
+        return toLong(token, 0);
+    }
+
+    static long low(byte[] token) {
+        return toLong(token, 8);
+    }
+
+    static int decodedLength(CharSequence token) {
+        return decodedLength(token, 0, token.length());
+    }
+
+    /**
+     * Number of bytes the standard Base64 token in chars [from, to) decodes to, or -1 if it isn't valid Base64. Padding
+     * is optional, same as with {@link java.util.Base64.Decoder}. Doesn't allocate, unlike decoding just to learn the
+     * length.
+     */
+    static int decodedLength(CharSequence chars, int from, int to) {
+        int padding = 0;
+        while (padding < 2 && to > from && chars.charAt(to - 1) == '=') {
+            to--;
+            padding++;
+        }
+        int length = to - from;
+        if ((padding > 0 && (length + padding) % 4 != 0) || length % 4 == 1) {
+            return -1;
+        }
+        for (int i = from; i < to; i++) {
+            char ch = chars.charAt(i);
+            if (ch >= BASE64_VALUES.length || BASE64_VALUES[ch] < 0) {
+                return -1;
+            }
+        }
+        return length * 3 / 4;
+    }
+
+    static long decodeHigh(CharSequence token) {
+        return decodeHigh(token, 0);
+    }
+
+    static long decodeLow(CharSequence token) {
+        return decodeLow(token, 0);
+    }
+
+    // first 8 bytes of a token starting at from that decodedLength() accepted with 16 bytes: 10 full characters and
+    // 4 bits of the 11th
+    static long decodeHigh(CharSequence chars, int from) {
+        long bits = 0;
+        for (int i = from; i < from + 10; i++) {
+            bits = (bits << 6) | BASE64_VALUES[chars.charAt(i)];
+        }
+        return (bits << 4) | (BASE64_VALUES[chars.charAt(from + 10)] >>> 2);
+    }
+
+    // last 8 bytes: 2 bits of the 11th character, 10 full characters and 2 bits of the 22nd
+    static long decodeLow(CharSequence chars, int from) {
+        long bits = BASE64_VALUES[chars.charAt(from + 10)] & 0x3;
+        for (int i = from + 11; i < from + 21; i++) {
+            bits = (bits << 6) | BASE64_VALUES[chars.charAt(i)];
+        }
+        return (bits << 2) | (BASE64_VALUES[chars.charAt(from + 21)] >>> 4);
+    }
+
+    // any token in chars [from, to) that decodedLength() accepted, into out of the length it returned
+    static void decode(CharSequence chars, int from, int to, byte[] out) {
+        int bits = 0;  // only the lowest bitCount + 6 matter, the rest may be shifted out
+        int bitCount = 0;
+        int o = 0;
+        for (int i = from; i < to && o < out.length; i++) {  // stops before padding
+            bits = (bits << 6) | BASE64_VALUES[chars.charAt(i)];
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >>> bitCount);
+            }
+        }
+    }
+
+    // tolerates running concurrently with a writer, the caller validates the stamp before trusting the result
+    private static UserPrincipal findUser(Columns c, long tokenHigh, long tokenLow, long nowMs) {
+        int i = bucket(tokenHigh, tokenLow, c.mask);
+        for (int probes = 0; probes <= c.mask; probes++) {
+            UserPrincipal user = c.users[i];
+            if (user == null) {
+                return null;
+            }
+            if (c.tokenHighs[i] == tokenHigh && c.tokenLows[i] == tokenLow) {
+                return (c.expirations[i] > nowMs) ? user : null;
+            }
+            i = (i + 1) & c.mask;
+        }
+        return null;
+    }
+
+    private static int indexOf(Columns c, long tokenHigh, long tokenLow) {
+        int i = bucket(tokenHigh, tokenLow, c.mask);
+        while (c.users[i] != null) {
+            if (c.tokenHighs[i] == tokenHigh && c.tokenLows[i] == tokenLow) {
+                return i;
+            }
+            i = (i + 1) & c.mask;
+        }
+        return -1;
+    }
+
+    // issued tokens are random already, mixing keeps other keys (e.g. in tests) from clustering
+    private static int bucket(long tokenHigh, long tokenLow, int mask) {
+        long h = (tokenHigh ^ Long.rotateLeft(tokenLow, 32)) * GOLDEN_GAMMA;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static void move(Columns c, int from, int to) {
+        c.tokenHighs[to] = c.tokenHighs[from];
+        c.tokenLows[to] = c.tokenLows[from];
+        c.expirations[to] = c.expirations[from];
+        c.fileSlots[to] = c.fileSlots[from];
+        c.users[to] = c.users[from];
+    }
+
+    private static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    private Columns resized(int capacity) {
+        Columns old = columns;
+        Columns c = new Columns(capacity);
+        for (int j = 0; j < old.users.length; j++) {
+            if (old.users[j] != null) {
+                int i = bucket(old.tokenHighs[j], old.tokenLows[j], c.mask);
+                while (c.users[i] != null) {
+                    i = (i + 1) & c.mask;
+                }
+                c.tokenHighs[i] = old.tokenHighs[j];
+                c.tokenLows[i] = old.tokenLows[j];
+                c.expirations[i] = old.expirations[j];
+                c.fileSlots[i] = old.fileSlots[j];
+                c.users[i] = old.users[j];
+            }
+        }
+        return c;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped file of fixed-size token slots, so live tokens survive a restart or redeploy.
+ *
+ * Slot layout: state (1 B) | username length (1 B) | unused (2 B) | CRC32 of bytes 8..95 (4 B) | token key (16 B)
+ * | user id (8 B) | expiration ms (8 B) | username (50 B) | unused (6 B)
+ *
+ * Only the token's key from the {@link TokenHasher} is stored, never the token, so reading the file doesn't let
+ * anybody log in as the users in it.
+ *
+ * Writes go to the page cache only (no fsync), so they cost about as much as a memory copy. That survives the JVM
+ * crashing or being killed; an OS crash may lose the most recent slots or tear them, torn slots fail the CRC and are
+ * skipped on load. The state byte is written last, so a slot is never marked used before its data is there.
+ */
+class TokenTableFile implements AutoCloseable {
+
+    static final int SLOT_SIZE_BYTES = 96;
+
+    private static final int MAGIC = 0x504d5454;
+    private static final int VERSION = 2;  // 1 stored the tokens themselves
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_USED = 1;
+    private static final int OFFSET_USERNAME_LENGTH = 1;
+    private static final int OFFSET_CRC = 4;
+    private static final int OFFSET_KEY = 8;
+    private static final int OFFSET_USER_ID = OFFSET_KEY + 16;
+    private static final int OFFSET_EXPIRATION = OFFSET_USER_ID + 8;
+    private static final int OFFSET_USERNAME = OFFSET_EXPIRATION + 8;
+
+    @FunctionalInterface
+    interface SlotConsumer {
+
+        void accept(int slot, long keyHigh, long keyLow, long userId, String username, Instant expiration);
+
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final int[] freeSlots;  // stack of free slot indexes
+    private int freeSlotsTop;  // guarded by this
+
+    private TokenTableFile(FileChannel channel, MappedByteBuffer buffer, int slotCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slotCount = slotCount;
+        this.freeSlots = new int[slotCount];
+    }
+
+    // slot 0 holds the file header, so the file has room for slotCount - 1 tokens
+    static TokenTableFile open(Path path, int slotCount) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = (long) slotCount * SLOT_SIZE_BYTES;
+        boolean compatible = channel.size() == size;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (!compatible || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != SLOT_SIZE_BYTES || buffer.getInt(12) != slotCount) {
+            // unknown or differently sized table: start over, clients will just log in again
+            channel.truncate(0);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, SLOT_SIZE_BYTES).putInt(12, slotCount);
+        }
+        return new TokenTableFile(channel, buffer, slotCount);
+    }
+
+    /**
+     * Hands every used, intact and unexpired slot to consumer, everything else becomes free. Has to be called once,
+     * before the first write.
+     */
+    synchronized int load(Instant now, SlotConsumer consumer) {
+        int loaded = 0;
+        for (int slot = slotCount - 1; slot > 0; slot--) {
+            int offset = slot * SLOT_SIZE_BYTES;
+            if (buffer.get(offset) == STATE_USED && buffer.getInt(offset + OFFSET_CRC) == crc(offset)) {
+                Instant expiration = Instant.ofEpochMilli(buffer.getLong(offset + OFFSET_EXPIRATION));
+                if (expiration.isAfter(now)) {
+                    byte[] username = new byte[buffer.get(offset + OFFSET_USERNAME_LENGTH)];
+                    buffer.duplicate().position(offset + OFFSET_USERNAME).get(username);
+                    consumer.accept(slot, buffer.getLong(offset + OFFSET_KEY), buffer.getLong(offset + OFFSET_KEY + 8),
+                        buffer.getLong(offset + OFFSET_USER_ID), new String(username, StandardCharsets.US_ASCII), expiration);
+                    loaded++;
+                    continue;
+                }
+            }
+            buffer.put(offset, STATE_FREE);
+            freeSlots[freeSlotsTop++] = slot;
+        }
+        return loaded;
+    }
+
+    // returns slot index, or -1 if the file is full (the token then just isn't persisted)
+    int write(long keyHigh, long keyLow, long userId, String username, Instant expiration) {
+        int slot = allocate();
+        if (slot < 0) {
+            return -1;
+        }
+        byte[] usernameBytes = username.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer data = ByteBuffer.allocate(SLOT_SIZE_BYTES);
+        data.put(OFFSET_USERNAME_LENGTH, (byte) usernameBytes.length);
+        data.position(OFFSET_KEY);
+        data.putLong(keyHigh).putLong(keyLow).putLong(userId).putLong(expiration.toEpochMilli()).put(usernameBytes);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), OFFSET_KEY, SLOT_SIZE_BYTES - OFFSET_KEY);
+        data.putInt(OFFSET_CRC, (int) crc.getValue());
+
+        int offset = slot * SLOT_SIZE_BYTES;
+        buffer.duplicate().position(offset + 1).put(data.array(), 1, SLOT_SIZE_BYTES - 1);
+        buffer.put(offset, STATE_USED);  // last, see class comment
+        return slot;
+    }
+
+    void free(int slot) {
+        if (slot <= 0) {
+            return;
+        }
+        buffer.put(slot * SLOT_SIZE_BYTES, STATE_FREE);
+        synchronized (this) {
+            freeSlots[freeSlotsTop++] = slot;
+        }
+    }
+
+    synchronized int getFreeSlots() {
+        return freeSlotsTop;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private synchronized int allocate() {
+        return (freeSlotsTop == 0) ? -1 : freeSlots[--freeSlotsTop];
+    }
+
+    private int crc(int offset) {
+        byte[] slot = new byte[SLOT_SIZE_BYTES - OFFSET_KEY];
+        buffer.duplicate().position(offset + OFFSET_KEY).get(slot);
+        CRC32 crc = new CRC32();
+        crc.update(slot);
+        return (int) crc.getValue();
+    }
+
+}
@@ -9,9 +9,12 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.BaseEntity;
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
 import java.io.Serializable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Transient;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -19,10 +22,41 @@ import javax.validation.constraints.Size;
 
 @Entity
 //@Table(name = "\"User\"")
+@NamedQueries({
+    @NamedQuery(name = User.QUERY_FIND_BY_NAME, query = "SELECT u FROM User u WHERE u.username = :username"),
+    @NamedQuery(name = User.QUERY_COUNT_BY_NAME, query = "SELECT COUNT(u.id) FROM User u WHERE u.username = :username"),
+    @NamedQuery(name = User.QUERY_FIND_EXISTING_USERNAMES, query = "SELECT u.username FROM User u WHERE u.username IN :usernames"),
+    @NamedQuery(name = User.QUERY_FIND_VAULT_REVISION, query = "SELECT u.vaultRevision FROM User u WHERE u.id = :id"),
+    @NamedQuery(name = User.QUERY_BUMP_VAULT_REVISION, query = "UPDATE User u SET u.vaultRevision = u.vaultRevision + 1 WHERE u.id = :id"),
+    @NamedQuery(name = User.QUERY_FIND_TOKEN_EPOCH, query = "SELECT u.tokenEpoch FROM User u WHERE u.id = :id"),
+    @NamedQuery(name = User.QUERY_BUMP_TOKEN_EPOCH, query = "UPDATE User u SET u.tokenEpoch = u.tokenEpoch + 1 WHERE u.id = :id")
+})
 public class User extends BaseEntity implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // hot queries are parsed once, when the persistence unit is deployed
+    @Transient
+    public static final String QUERY_FIND_BY_NAME = "User.findByName";
+
+    @Transient
+    public static final String QUERY_COUNT_BY_NAME = "User.countByName";
+
+    @Transient
+    public static final String QUERY_FIND_EXISTING_USERNAMES = "User.findExistingUsernames";
+
+    @Transient
+    public static final String QUERY_FIND_VAULT_REVISION = "User.findVaultRevision";
+
+    @Transient
+    public static final String QUERY_BUMP_VAULT_REVISION = "User.bumpVaultRevision";
+
+    @Transient
+    public static final String QUERY_FIND_TOKEN_EPOCH = "User.findTokenEpoch";
+
+    @Transient
+    public static final String QUERY_BUMP_TOKEN_EPOCH = "User.bumpTokenEpoch";
+
     @Transient
     static final int USERNAME_MIN_LENGTH = 3;
 
@@ -41,6 +75,26 @@ public class User extends BaseEntity implements Serializable {
     @Column(nullable = false)
     private byte[] salt;
 
+    // null in rows written before the KDF parameters were stored, those were hashed with KdfParams.LEGACY
+    @Column(name = "kdf_iterations")
+    private Integer kdfIterations;
+
+    @Column(name = "kdf_memory_kb")
+    private Integer kdfMemoryKb;
+
+    @Column(name = "kdf_parallelism")
+    private Integer kdfParallelism;
+
+    // bumped by every change to the vault, only ever by UserDao.bumpVaultRevision, so a merge of a user loaded before
+    // a change can't set it back
+    @Column(name = "vault_revision", nullable = false, updatable = false)
+    private long vaultRevision;
+
+    // signed tokens carry the epoch they were issued in, bumping it revokes all of them on every node; like
+    // vaultRevision, only ever changed by its UPDATE
+    @Column(name = "token_epoch", nullable = false, updatable = false)
+    private int tokenEpoch;
+
     public User() {
         super();
     }
@@ -77,4 +131,25 @@ public class User extends BaseEntity implements Serializable {
         this.salt = salt.clone();
     }
 
+    public KdfParams getKdfParams() {
+        if (kdfIterations == null || kdfMemoryKb == null || kdfParallelism == null) {
+            return KdfParams.LEGACY;
+        }
+        return new KdfParams(kdfIterations, kdfMemoryKb, kdfParallelism);
+    }
+
+    public void setKdfParams(KdfParams kdfParams) {
+        this.kdfIterations = kdfParams.getIterations();
+        this.kdfMemoryKb = kdfParams.getMemoryKb();
+        this.kdfParallelism = kdfParams.getParallelism();
+    }
+
+    public long getVaultRevision() {
+        return vaultRevision;
+    }
+
+    public int getTokenEpoch() {
+        return tokenEpoch;
+    }
+
 }
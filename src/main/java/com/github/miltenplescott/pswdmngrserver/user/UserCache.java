@@ -0,0 +1,105 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Username to {@link UserRecord}, so the common requests don't query the user table at all.
+ *
+ * Bounded by size, least recently used records are evicted first. Unknown usernames are not cached, so creating a user
+ * needs no invalidation. Changing or deleting one must invalidate it once the change is committed, until then a load
+ * may still read the old row. Records also expire a while after they were loaded, which bounds how long a node can
+ * miss a change made on another node.
+ *
+ * A load that overlaps an invalidation of its username may have read the row from before the change, so it is not
+ * cached. Each username hashes to a generation that invalidation bumps, and a load only keeps what it put if its
+ * generation didn't move meanwhile. Usernames share generations, so an invalidation can also cost another username's
+ * load its put, never more than that.
+ */
+final class UserCache {
+
+    // a power of two
+    static final int GENERATIONS = 1024;
+
+    private final long maxSize;
+    private final Cache<String, UserRecord> cache;  // null if disabled
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATIONS);
+
+    // a maxSize of 0 disables the cache
+    UserCache(long maxSize, Duration expireAfterWrite) {
+        this.maxSize = maxSize;
+        this.cache = (maxSize <= 0) ? null : CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expireAfterWrite)
+            .recordStats()
+            .build();
+    }
+
+    Optional<UserRecord> get(String username, Function<String, Optional<UserRecord>> loader) {
+        if (cache == null) {
+            return loader.apply(username);
+        }
+        UserRecord record = cache.getIfPresent(username);
+        if (record != null) {
+            return Optional.of(record);
+        }
+        int slot = slot(username);
+        long generation = generations.get(slot);
+        Optional<UserRecord> loaded = loader.apply(username);
+        if (loaded.isPresent() && generations.get(slot) == generation) {
+            cache.put(username, loaded.get());
+            // an invalidation that bumped the generation before this check may have invalidated before the put, so
+            // undo the put; one that bumps it after this check invalidates after the put
+            if (generations.get(slot) != generation) {
+                cache.invalidate(username);
+            }
+        }
+        return loaded;
+    }
+
+    void invalidate(String username) {
+        if (cache != null) {
+            // before invalidating, so a load that puts after this invalidation sees it
+            generations.incrementAndGet(slot(username));
+            cache.invalidate(username);
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private static int slot(String username) {
+        int h = username.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATIONS - 1);
+    }
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    long size() {
+        return (cache == null) ? 0 : cache.size();
+    }
+
+    CacheStats stats() {
+        return (cache == null) ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    long getInvalidations() {
+        return invalidations.get();
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+class UserCacheStats implements UserCacheStatsMXBean {
+
+    static final String MBEAN_TYPE = "UserCache";
+
+    private final UserCache cache;
+
+    UserCacheStats(UserCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public long getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getHits() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMisses() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return cache.stats().hitRate();
+    }
+
+    @Override
+    public long getEvictions() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return cache.getInvalidations();
+    }
+
+}
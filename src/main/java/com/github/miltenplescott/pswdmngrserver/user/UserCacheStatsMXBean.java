@@ -0,0 +1,32 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+public interface UserCacheStatsMXBean {
+
+    // 0 if the cache is disabled
+    long getMaxSize();
+
+    long getSize();
+
+    long getHits();
+
+    // lookups that went to the database, including those of unknown usernames
+    long getMisses();
+
+    // hits / (hits + misses), 1.0 before the first lookup
+    double getHitRate();
+
+    // dropped to stay within the max size, or after expiring
+    long getEvictions();
+
+    // dropped because the user was changed or deleted
+    long getInvalidations();
+
+}
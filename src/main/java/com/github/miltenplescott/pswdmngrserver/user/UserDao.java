@@ -9,12 +9,32 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.GenericDao;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.Set;
 
 public interface UserDao extends GenericDao<User> {
 
     public Optional<User> findByName(String username);
 
+    // from a cache, the common requests don't query the user table at all
+    public Optional<UserRecord> findRecordByName(String username);
+
     public boolean userWithNameExists(String username);
 
+    // which of usernames are taken, in a single query
+    public Set<String> findExistingUsernames(Collection<String> usernames);
+
+    // a single column of the user's row, the vault isn't read
+    public long findVaultRevision(long id);
+
+    // in a single UPDATE, in the caller's transaction, so the revision changes together with the vault
+    public void bumpVaultRevision(long id);
+
+    // -1 if there is no such user, which no signed token carries
+    public int findTokenEpoch(long id);
+
+    // in a single UPDATE, in the caller's transaction
+    public void bumpTokenEpoch(long id);
+
 }
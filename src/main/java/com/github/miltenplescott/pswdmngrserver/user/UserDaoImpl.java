@@ -9,29 +9,58 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.GenericDaoImpl;
+import com.github.miltenplescott.pswdmngrserver.MBeanUtils;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
 import javax.enterprise.context.ApplicationScoped;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
+import javax.management.ObjectName;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 @ApplicationScoped
 public class UserDaoImpl extends GenericDaoImpl<User> implements UserDao {
 // inspired by PersonDao: https://developer.ibm.com/tutorials/j-genericdao/
 
+    public static final long DEFAULT_CACHE_MAX_SIZE = 10_000;
+    public static final Duration DEFAULT_CACHE_EXPIRE_AFTER_WRITE = Duration.ofMinutes(10);
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    private UserCache cache;
+    private ObjectName statsName;
+
     public UserDaoImpl() {
         super(User.class);
     }
 
+    @PostConstruct
+    private void init() {
+        cache = new UserCache(
+            ServerConfig.getLong("userCache.maxSize", DEFAULT_CACHE_MAX_SIZE),
+            Duration.ofMillis(ServerConfig.getLong("userCache.expireAfterWriteMs", DEFAULT_CACHE_EXPIRE_AFTER_WRITE.toMillis())));
+        statsName = MBeanUtils.register(UserCacheStats.MBEAN_TYPE, new UserCacheStats(cache));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        MBeanUtils.unregister(statsName);
+    }
+
     @Override
     public Optional<User> findByName(String username) {
-        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
-        CriteriaQuery<User> cq = cb.createQuery(User.class);
-        Root<User> user = cq.from(User.class);
-//        cq.select(user).where(cb.equal(user.get("username"), username));  // using string
-        cq.select(user).where(cb.equal(user.get(User_.username), username));  // using metamodel
-        List<User> resultList = getEntityManager().createQuery(cq).getResultList();
+        List<User> resultList = getEntityManager().createNamedQuery(User.QUERY_FIND_BY_NAME, User.class)
+            .setParameter("username", username)
+            .getResultList();
         if (resultList.isEmpty()) {
             return Optional.empty();
         }
@@ -43,10 +72,87 @@ public class UserDaoImpl extends GenericDaoImpl<User> implements UserDao {
         }
     }
 
+    @Override
+    public Optional<UserRecord> findRecordByName(String username) {
+        return cache.get(username, name -> findByName(name).map(UserRecord::new));
+    }
+
+    @Override
+    public User update(User user) {
+        invalidateOnCommit(user.getUsername());
+        return super.update(user);
+    }
+
+    @Override
+    public void delete(User user) {
+        invalidateOnCommit(user.getUsername());
+        super.delete(user);
+    }
+
+    // right away, and again once the transaction is over, so a record loaded from the old row meanwhile doesn't stay
+    private void invalidateOnCommit(String username) {
+        cache.invalidate(username);
+        if (transactions.getTransactionKey() != null) {
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        cache.invalidate(username);
+                    }
+                }
+            });
+        }
+    }
+
     @Override
     public boolean userWithNameExists(String username) {
-        return findByName(username).isPresent();
+        // a count, the user isn't loaded
+        return getEntityManager().createNamedQuery(User.QUERY_COUNT_BY_NAME, Long.class)
+            .setParameter("username", username)
+            .getSingleResult() > 0;
+    }
+
+    @Override
+    public Set<String> findExistingUsernames(Collection<String> usernames) {
+        if (usernames.isEmpty()) {
+            return new HashSet<>();
+        }
+        return new HashSet<>(getEntityManager().createNamedQuery(User.QUERY_FIND_EXISTING_USERNAMES, String.class)
+            .setParameter("usernames", usernames)
+            .getResultList());
+    }
+
+    @Override
+    public long findVaultRevision(long id) {
+        return getEntityManager().createNamedQuery(User.QUERY_FIND_VAULT_REVISION, Long.class)
+            .setParameter("id", id)
+            .getSingleResult();
     }
 
+    @Override
+    public void bumpVaultRevision(long id) {
+        getEntityManager().createNamedQuery(User.QUERY_BUMP_VAULT_REVISION)
+            .setParameter("id", id)
+            .executeUpdate();
+    }
+
+    @Override
+    public int findTokenEpoch(long id) {
+        List<Integer> epochs = getEntityManager().createNamedQuery(User.QUERY_FIND_TOKEN_EPOCH, Integer.class)
+            .setParameter("id", id)
+            .getResultList();
+        return epochs.isEmpty() ? -1 : epochs.get(0);
+    }
+
+    @Override
+    public void bumpTokenEpoch(long id) {
+        getEntityManager().createNamedQuery(User.QUERY_BUMP_TOKEN_EPOCH)
+            .setParameter("id", id)
+            .executeUpdate();
+    }
 
 }
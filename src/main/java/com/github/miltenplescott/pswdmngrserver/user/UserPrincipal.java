@@ -0,0 +1,64 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.security.Principal;
+import java.util.Objects;
+
+/**
+ * The user a request was authenticated as, published by {@link AuthenticationRequestFilter}. Carries the id as well as
+ * the username, so resources can address the user's rows without looking the username up.
+ */
+public final class UserPrincipal implements Principal {
+
+    private final long id;
+    private final String name;
+
+    UserPrincipal(long id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    // username
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.id, this.name);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final UserPrincipal other = (UserPrincipal) obj;
+        return this.id == other.id
+            && Objects.equals(this.name, other.name);
+    }
+
+    @Override
+    public String toString() {
+        return "UserPrincipal{" + "id=" + id + ", name=" + name + '}';
+    }
+
+}
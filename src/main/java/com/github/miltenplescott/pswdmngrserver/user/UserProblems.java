@@ -11,6 +11,7 @@ package com.github.miltenplescott.pswdmngrserver.user;
 import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
 import javax.validation.ConstraintViolation;
+import javax.ws.rs.core.Response;
 
 public final class UserProblems {
 
@@ -19,6 +20,12 @@ public final class UserProblems {
     public static final String PROBLEM_TITLE_AUTH = "Authentication failed.";
     public static final String PROBLEM_TITLE_AUTHORIZATION_HEADER = "Invalid authorization header.";
     public static final String PROBLEM_TITLE_TOKEN = "Invalid authentication token.";
+    public static final String PROBLEM_TITLE_REFRESH_TOKEN = "Invalid refresh token.";
+    public static final String PROBLEM_TITLE_TOKEN_STORE_FULL = "Too many active sessions.";
+    public static final String PROBLEM_TITLE_KDF_BUSY = "Server busy.";
+    public static final String PROBLEM_TITLE_BULK_RECORD = "Invalid record.";
+    public static final String PROBLEM_TITLE_BULK_FAILED = "Account not created.";
+    public static final String PROBLEM_TITLE_ADMIN_KEY = "Invalid admin key.";
 
     public static final String MSG_USERNAME_NOT_UNIQUE = "Username already exists.";
     public static final String MSG_PSWD_LENGTH = "Master password is required to be " + (8 * CryptoUtils.KDF_INPUT_LENGTH_BYTES) + "-bit long.";
@@ -26,8 +33,17 @@ public final class UserProblems {
     public static final String MSG_AUTH = "Invalid username or master password.";
     public static final String MSG_AUTHORIZATION_HEADER = "Authorization header could not be parsed (possible causes: missing header, wrong syntax, unrecognized authentication scheme, etc.).";
     public static final String MSG_TOKEN_LENGTH = "Authentication token is required to be " + (8 * AuthTokenManager.TOKEN_LENGTH_BYTES) + "-bit long.";
+    public static final String MSG_SIGNED_TOKEN_LENGTH = "Signed authentication token is required to be between " + SignedTokenManager.MIN_TOKEN_LENGTH_BYTES + " and " + SignedTokenManager.MAX_TOKEN_LENGTH_BYTES + " bytes long.";
     public static final String MSG_TOKEN_FORMAT = "Authentication token is not a valid Base64 format.";
     public static final String MSG_TOKEN_EXPIRED = "Authentication token has expired.";
+    public static final String MSG_REFRESH_TOKEN = "Refresh token is malformed, expired, revoked or has already been used.";
+    public static final String MSG_TOKEN_STORE_FULL = "Server can't start any more sessions right now, try again later.";
+    public static final String MSG_KDF_BUSY = "Server is handling too many logins and sign-ups right now, try again later.";
+    public static final String MSG_BULK_RECORD_FORMAT = "Record is not a JSON object on a line of its own.";
+    public static final String MSG_BULK_TOO_MANY_RECORDS = "Request has more records than allowed, this one and the rest were not read.";
+    public static final String MSG_BULK_FAILED = "Server failed to create this account, nor tried the rest of its chunk; none of them exist, try them again.";
+    public static final String MSG_ADMIN_KEY = "Request needs the server's admin key in the X-Admin-Key header.";
+    public static final String MSG_TIMEOUT = "Server could not finish the request in time, try again later.";
 
     private UserProblems() {
         throw new AssertionError("Suppress default constructor for noninstantiability.");
@@ -88,6 +104,11 @@ public final class UserProblems {
         return dto;
     }
 
+    public static ProblemDto signedTokenLengthProblem(ProblemDto dto) {
+        dto.getInvalidParams().add(new ProblemDto.Extension("token", MSG_SIGNED_TOKEN_LENGTH));
+        return dto;
+    }
+
     public static ProblemDto tokenFormatProblem(ProblemDto dto) {
         dto.getInvalidParams().add(new ProblemDto.Extension("token", MSG_TOKEN_FORMAT));
         return dto;
@@ -98,4 +119,55 @@ public final class UserProblems {
         return dto;
     }
 
+    public static ProblemDto createDefaultRefreshTokenProblem() {
+        return new ProblemDto(PROBLEM_TITLE_REFRESH_TOKEN);
+    }
+
+    public static ProblemDto refreshTokenProblem(ProblemDto dto) {
+        dto.getInvalidParams().add(new ProblemDto.Extension("refresh_token", MSG_REFRESH_TOKEN));
+        return dto;
+    }
+
+    // not the client's fault, so it comes with its own status
+    public static ProblemDto createTokenStoreFullProblem() {
+        ProblemDto dto = new ProblemDto(PROBLEM_TITLE_TOKEN_STORE_FULL, MSG_TOKEN_STORE_FULL);
+        dto.setStatus(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        return dto;
+    }
+
+    public static ProblemDto createKdfBusyProblem() {
+        ProblemDto dto = new ProblemDto(PROBLEM_TITLE_KDF_BUSY, MSG_KDF_BUSY);
+        dto.setStatus(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        return dto;
+    }
+
+    // same title as a busy KDF, so it gets the same Retry-After
+    public static ProblemDto createTimeoutProblem() {
+        ProblemDto dto = new ProblemDto(PROBLEM_TITLE_KDF_BUSY, MSG_TIMEOUT);
+        dto.setStatus(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        return dto;
+    }
+
+    public static ProblemDto createBulkRecordFormatProblem() {
+        return new ProblemDto(PROBLEM_TITLE_BULK_RECORD, MSG_BULK_RECORD_FORMAT);
+    }
+
+    public static ProblemDto createBulkFailedProblem() {
+        ProblemDto dto = new ProblemDto(PROBLEM_TITLE_BULK_FAILED, MSG_BULK_FAILED);
+        dto.setStatus(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode());
+        return dto;
+    }
+
+    public static ProblemDto createAdminKeyProblem() {
+        ProblemDto dto = new ProblemDto(PROBLEM_TITLE_ADMIN_KEY, MSG_ADMIN_KEY);
+        dto.setStatus(Response.Status.FORBIDDEN.getStatusCode());
+        return dto;
+    }
+
+    public static ProblemDto createBulkTooManyRecordsProblem() {
+        ProblemDto dto = new ProblemDto(PROBLEM_TITLE_BULK_RECORD, MSG_BULK_TOO_MANY_RECORDS);
+        dto.setStatus(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        return dto;
+    }
+
 }
@@ -0,0 +1,58 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+
+/**
+ * What requests need of a user: the id, and the credentials to check a login against. Immutable, so it can be cached
+ * and shared between requests, unlike the {@link User} entity.
+ */
+public final class UserRecord {
+
+    private final long id;
+    private final String username;
+    private final byte[] masterPswd;
+    private final byte[] salt;
+    private final KdfParams kdfParams;
+
+    UserRecord(User user) {
+        this.id = user.getId();
+        this.username = user.getUsername();
+        this.masterPswd = user.getMasterPswd();
+        this.salt = user.getSalt();
+        this.kdfParams = user.getKdfParams();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public byte[] getMasterPswd() {
+        return masterPswd.clone();
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    public KdfParams getKdfParams() {
+        return kdfParams;
+    }
+
+    @Override
+    public String toString() {
+        return "UserRecord{" + "id=" + id + ", username=" + username + ", kdfParams=" + kdfParams + '}';
+    }
+
+}
@@ -10,30 +10,88 @@ package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.ApplicationConfig;
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import javax.json.bind.JsonbException;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import static com.github.miltenplescott.pswdmngrserver.CryptoUtils.clearArray;
+import static com.github.miltenplescott.pswdmngrserver.CryptoUtils.sha256;
 
 @Path("/account")
 @Stateless
 public class UserResource {
 
+    // long enough for the max KDF queue wait and a KDF
+    public static final Duration DEFAULT_ASYNC_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration ASYNC_TIMEOUT = Duration.ofMillis(ServerConfig.getLong("account.timeoutMs", DEFAULT_ASYNC_TIMEOUT.toMillis()));
+
+    // newline delimited JSON, a JSON object per line
+    public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 100;
+    public static final int DEFAULT_BULK_MAX_RECORDS = 10_000;
+    private static final int BULK_CHUNK_SIZE = Math.max(1, ServerConfig.getInt("account.bulk.chunkSize", DEFAULT_BULK_CHUNK_SIZE));
+    private static final int BULK_MAX_RECORDS = ServerConfig.getInt("account.bulk.maxRecords", DEFAULT_BULK_MAX_RECORDS);
+    private static final Jsonb JSONB = JsonbBuilder.create();
+
+    // bulk provisioning is only for whoever knows the admin key; hashed, so comparing takes as long whatever was given
+    public static final String HEADER_ADMIN_KEY = "X-Admin-Key";
+    private static final String BULK_ADMIN_KEY = ServerConfig.getString("account.bulk.adminKey", "");
+    private static final byte[] BULK_ADMIN_KEY_HASH = BULK_ADMIN_KEY.isEmpty() ? null : sha256(BULK_ADMIN_KEY.getBytes(StandardCharsets.UTF_8));
+
     @Inject
     private UserService userService;
 
+    @Inject
+    private BulkProvisioningService bulkService;
+
+    // the default one of the server, its threads can call EJBs, each call gets its own transaction
+    @Resource
+    private ManagedExecutorService executor;
+
     @GET
     public Response getNotSupported() {
         return Response
@@ -44,18 +102,111 @@ public class UserResource {
     @POST  // create account
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(ProblemDto.MEDIA_TYPE_PROBLEM_JSON)
-    public Response createAccount(AuthenticationDto dto) {
-        Optional<ProblemDto> maybeProblem = userService.createUser(dto.getUsername(), dto.getMasterPswd());
+    public void createAccount(AuthenticationDto dto, @Suspended AsyncResponse asyncResponse) {
+        PendingAuthentication pending = new PendingAuthentication();
+        Optional<ProblemDto> maybeProblem = userService.startCreateUser(dto.getUsername(), dto.getMasterPswd(), pending);
+        resumeAfterKdf(asyncResponse, maybeProblem, pending, kdfOutput -> createAccountResponse(pending, kdfOutput));
+    }
+
+    private Response createAccountResponse(PendingAuthentication pending, byte[] kdfOutput) {
+        Optional<ProblemDto> maybeProblem = userService.completeCreateUser(pending, kdfOutput);
         if (maybeProblem.isEmpty()) {
             return Response.status(Response.Status.OK).build();
         }
         else {
-            maybeProblem.get().setStatus(Response.Status.BAD_REQUEST.getStatusCode());
-            return Response.
-                status(maybeProblem.get().getStatus()).
-                type(ProblemDto.MEDIA_TYPE_PROBLEM_JSON + ApplicationConfig.UTF8_SUFFIX).
-                entity(maybeProblem.get()).build();
+            return problemResponse(maybeProblem.get());
+        }
+    }
+
+    /**
+     * Creates an account per record, a record is an {@link AuthenticationDto} on a line of its own. Records are read and
+     * created a chunk at a time, and the results are streamed back as they are known, a {@link BulkResultDto} per line
+     * in the order of the records. The response is always 200, each result has the status POST /account would answer
+     * its record with. A record past the max records gets a 413 result, and neither it nor the rest are read.
+     *
+     * Only for administrators: without an admin key configured the endpoint answers 404, as if it wasn't there, and a
+     * request without that key in its X-Admin-Key header gets a 403. The records are read and the results written on
+     * the managed executor, not on the HTTP thread.
+     */
+    @POST
+    @Path("/bulk")
+    @Consumes(MEDIA_TYPE_NDJSON)
+    @Produces({MEDIA_TYPE_NDJSON, ProblemDto.MEDIA_TYPE_PROBLEM_JSON})
+    public void createAccounts(@HeaderParam(HEADER_ADMIN_KEY) String adminKey, InputStream records, @Suspended AsyncResponse asyncResponse) {
+        if (BULK_ADMIN_KEY_HASH == null) {
+            asyncResponse.resume(Response.status(Response.Status.NOT_FOUND).build());
+            return;
+        }
+        if (adminKey == null || !MessageDigest.isEqual(BULK_ADMIN_KEY_HASH, sha256(adminKey.getBytes(StandardCharsets.UTF_8)))) {
+            asyncResponse.resume(problemResponse(UserProblems.createAdminKeyProblem()));
+            return;
+        }
+        StreamingOutput results = output -> writeBulkResults(records, output);
+        Response response = Response.
+            status(Response.Status.OK).
+            type(MEDIA_TYPE_NDJSON + ApplicationConfig.UTF8_SUFFIX).
+            entity(results).build();
+        try {
+            executor.execute(() -> asyncResponse.resume(response));  // the resuming thread writes the entity
+        }
+        catch (RejectedExecutionException ex) {
+            asyncResponse.resume(problemResponse(UserProblems.createKdfBusyProblem()));
+        }
+    }
+
+    private void writeBulkResults(InputStream records, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(records, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        Set<String> usernames = new HashSet<>();
+        List<AuthenticationDto> chunk = new ArrayList<>(BULK_CHUNK_SIZE);
+        int index = 0;  // of the chunk's first record
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (index + chunk.size() == BULK_MAX_RECORDS) {
+                index = writeChunk(chunk, index, usernames, writer);
+                ProblemDto problem = UserProblems.createBulkTooManyRecordsProblem();
+                writeLine(new BulkResultDto(index, null, problem.getStatus(), problem), writer);
+                break;
+            }
+            chunk.add(parseRecord(line));
+            if (chunk.size() == BULK_CHUNK_SIZE) {
+                index = writeChunk(chunk, index, usernames, writer);
+            }
         }
+        writeChunk(chunk, index, usernames, writer);
+        writer.flush();
+    }
+
+    // returns the index of the next chunk's first record
+    private int writeChunk(List<AuthenticationDto> chunk, int index, Set<String> usernames, Writer writer) throws IOException {
+        if (chunk.isEmpty()) {
+            return index;
+        }
+        for (BulkResultDto result : bulkService.createUsers(chunk, index, usernames)) {
+            writeLine(result, writer);
+        }
+        writer.flush();  // the client sees a chunk's results before the next one is created
+        int nextIndex = index + chunk.size();
+        chunk.clear();
+        return nextIndex;
+    }
+
+    // null if the line isn't a JSON object
+    private static AuthenticationDto parseRecord(String line) {
+        try {
+            return JSONB.fromJson(line, AuthenticationDto.class);
+        }
+        catch (JsonbException ex) {
+            return null;
+        }
+    }
+
+    private static void writeLine(BulkResultDto result, Writer writer) throws IOException {
+        writer.write(JSONB.toJson(result));
+        writer.write('\n');
     }
 
     @GET
@@ -70,9 +221,15 @@ public class UserResource {
     @Path("/login")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({MediaType.APPLICATION_JSON, ProblemDto.MEDIA_TYPE_PROBLEM_JSON})
-    public Response login(AuthenticationDto dto) {
+    public void login(AuthenticationDto dto, @Suspended AsyncResponse asyncResponse) {
+        PendingAuthentication pending = new PendingAuthentication();
+        Optional<ProblemDto> maybeProblem = userService.startLogin(dto.getUsername(), dto.getMasterPswd(), pending);
+        resumeAfterKdf(asyncResponse, maybeProblem, pending, kdfOutput -> loginResponse(pending, kdfOutput));
+    }
+
+    private Response loginResponse(PendingAuthentication pending, byte[] kdfOutput) {
         AuthTokenResponseDto token = new AuthTokenResponseDto();
-        Optional<ProblemDto> maybeProblem = userService.login(dto.getUsername(), dto.getMasterPswd(), token);
+        Optional<ProblemDto> maybeProblem = userService.completeLogin(pending, kdfOutput, token);
 
         if (maybeProblem.isEmpty()) {
             return Response.
@@ -81,11 +238,7 @@ public class UserResource {
                 entity(token).build();
         }
         else {
-            maybeProblem.get().setStatus(Response.Status.BAD_REQUEST.getStatusCode());
-            return Response.
-                status(maybeProblem.get().getStatus()).
-                type(ProblemDto.MEDIA_TYPE_PROBLEM_JSON + ApplicationConfig.UTF8_SUFFIX).
-                entity(maybeProblem.get()).build();
+            return problemResponse(maybeProblem.get());
         }
     }
 
@@ -105,6 +258,56 @@ public class UserResource {
             .header(HttpHeaders.ALLOW, HttpMethod.POST).build();
     }
 
+    @GET
+    @Path("/refresh")
+    public Response getRefreshNotSupported() {
+        return Response
+            .status(Response.Status.METHOD_NOT_ALLOWED)
+            .header(HttpHeaders.ALLOW, HttpMethod.POST).build();
+    }
+
+    @POST
+    @Path("/refresh")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, ProblemDto.MEDIA_TYPE_PROBLEM_JSON})
+    public Response refresh(RefreshTokenDto dto) {
+        AuthTokenResponseDto token = new AuthTokenResponseDto();
+        Optional<ProblemDto> maybeProblem = userService.refresh(dto.getRefreshToken(), token);
+
+        if (maybeProblem.isEmpty()) {
+            return Response.
+                status(Response.Status.OK).
+                type(MediaType.APPLICATION_JSON + ApplicationConfig.UTF8_SUFFIX).
+                entity(token).build();
+        }
+        else {
+            if (maybeProblem.get().getStatus() == null) {
+                maybeProblem.get().setStatus(Response.Status.BAD_REQUEST.getStatusCode());
+            }
+            return Response.
+                status(maybeProblem.get().getStatus()).
+                header(HttpHeaders.RETRY_AFTER, getRetryAfterSeconds(maybeProblem.get())).
+                type(ProblemDto.MEDIA_TYPE_PROBLEM_JSON + ApplicationConfig.UTF8_SUFFIX).
+                entity(maybeProblem.get()).build();
+        }
+    }
+
+    @PUT
+    @Path("/refresh")
+    public Response putRefreshNotSupported() {
+        return Response
+            .status(Response.Status.METHOD_NOT_ALLOWED)
+            .header(HttpHeaders.ALLOW, HttpMethod.POST).build();
+    }
+
+    @DELETE
+    @Path("/refresh")
+    public Response deleteRefreshNotSupported() {
+        return Response
+            .status(Response.Status.METHOD_NOT_ALLOWED)
+            .header(HttpHeaders.ALLOW, HttpMethod.POST).build();
+    }
+
     @GET
     @Path("/logout")
     public Response getLogoutNotSupported() {
@@ -117,10 +320,11 @@ public class UserResource {
     @Path("/logout")
     @Produces(ProblemDto.MEDIA_TYPE_PROBLEM_JSON)
     @Secured
-    public Response logout(@Context HttpServletRequest request) {
-        Optional<String> maybeUsername = getUsername(request);
-        if (maybeUsername.isPresent()) {
-            userService.logout(maybeUsername.get());
+    public Response logout(@Context HttpServletRequest request, @QueryParam("all") boolean all) {
+        Optional<UserPrincipal> maybeUser = getPrincipal(request);
+        Optional<String> maybeToken = getToken(request);
+        if (maybeUser.isPresent() && maybeToken.isPresent()) {
+            userService.logout(maybeUser.get(), maybeToken.get(), all);
             return Response.status(Response.Status.OK).build();
         }
         else {
@@ -144,8 +348,89 @@ public class UserResource {
             .header(HttpHeaders.ALLOW, HttpMethod.POST).build();
     }
 
+    // only for @Secured resources
+    public static Optional<UserPrincipal> getPrincipal(HttpServletRequest request) {
+        return Optional.ofNullable((UserPrincipal) request.getAttribute(AuthenticationRequestFilter.PROPERTY_PRINCIPAL));
+    }
+
     public static Optional<String> getUsername(HttpServletRequest request) {
-        return Optional.ofNullable((String) request.getAttribute(AuthenticationRequestFilter.PROPERTY_USERNAME));
+        return getPrincipal(request).map(UserPrincipal::getName);
+    }
+
+    // only for @Secured resources, where the filter has already checked the header
+    public static Optional<String> getToken(HttpServletRequest request) {
+        return Optional.ofNullable(request.getHeader(HttpHeaders.AUTHORIZATION)).map(AuthenticationRequestFilter::getToken);
+    }
+
+    /**
+     * Resumes the suspended request with the problem the first half of a login or sign-up found, or else, once its KDF
+     * is done, with the response complete builds on the managed executor. No thread waits for the KDF, the HTTP thread
+     * is given back as soon as the KDF is queued, so a burst of logins and sign-ups doesn't starve other requests.
+     *
+     * A request still unanswered after the timeout gets a 503. Its KDF is cancelled if it hasn't started, and complete
+     * doesn't run for it, e.g. no account is created; only a timeout while complete is already running lets its work
+     * finish behind the 503.
+     */
+    private void resumeAfterKdf(AsyncResponse asyncResponse, Optional<ProblemDto> maybeProblem, PendingAuthentication pending,
+        Function<byte[], Response> complete) {
+        if (maybeProblem.isPresent()) {
+            asyncResponse.resume(problemResponse(maybeProblem.get()));
+            return;
+        }
+        CompletableFuture<byte[]> kdf = pending.getKdf();
+        asyncResponse.setTimeout(ASYNC_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        asyncResponse.setTimeoutHandler(timedOut -> {
+            kdf.cancel(false);  // a queued KDF is then dropped without running
+            timedOut.resume(problemResponse(UserProblems.createTimeoutProblem()));
+        });
+        // the managed executor may refuse the completion, e.g. while the server shuts down
+        Executor dispatch = task -> {
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException ex) {
+                pending.clear();
+                asyncResponse.resume(problemResponse(UserProblems.createKdfBusyProblem()));
+            }
+        };
+        kdf.whenCompleteAsync((kdfOutput, ex) -> {
+            if (ex != null || asyncResponse.isDone()) {  // failed, or timed out and answered already
+                pending.clear();
+                clearArray(kdfOutput);
+                if (ex != null) {
+                    asyncResponse.resume((ex instanceof KdfRejectedException) ? problemResponse(UserProblems.createKdfBusyProblem()) : ex);
+                }
+                return;
+            }
+            try {
+                asyncResponse.resume(complete.apply(kdfOutput));
+            }
+            catch (RuntimeException completeEx) {
+                asyncResponse.resume(completeEx);
+            }
+        }, dispatch);
+    }
+
+    private static Response problemResponse(ProblemDto problem) {
+        if (problem.getStatus() == null) {
+            problem.setStatus(Response.Status.BAD_REQUEST.getStatusCode());
+        }
+        return Response.
+            status(problem.getStatus()).
+            header(HttpHeaders.RETRY_AFTER, getRetryAfterSeconds(problem)).
+            type(ProblemDto.MEDIA_TYPE_PROBLEM_JSON + ApplicationConfig.UTF8_SUFFIX).
+            entity(problem).build();
+    }
+
+    // busy KDF threads catch up within the max queue wait, full token store frees up as tokens expire, which the store
+    // checks every tick; null = no Retry-After header
+    private static Long getRetryAfterSeconds(ProblemDto problem) {
+        if (problem.getStatus() != Response.Status.SERVICE_UNAVAILABLE.getStatusCode()) {
+            return null;
+        }
+        return UserProblems.PROBLEM_TITLE_KDF_BUSY.equals(problem.getTitle())
+            ? KdfManager.RETRY_AFTER.toSeconds()
+            : InMemoryTokenStore.EXPIRY_TICK.toSeconds();
     }
 
 }
@@ -8,10 +8,19 @@
 
 package com.github.miltenplescott.pswdmngrserver.user;
 
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import javax.ejb.Schedule;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.inject.Inject;
 import javax.persistence.EntityExistsException;
 
@@ -21,66 +30,50 @@ import static java.util.Objects.requireNonNull;
 @Stateless
 public class UserService {
 
+    public static final Duration DEFAULT_REFRESH_EXPIRATION = Duration.ofDays(14);
+
     @Inject
     private UserDao userDao;
 
+    @Inject
+    private RefreshTokenDao refreshTokenDao;
+
     @Inject
     private UserValidation validator;
 
     @Inject
     private AuthTokenManager tokenManager;
 
+    @Inject
+    private KdfManager kdfManager;
+
     public UserService() {
     }
 
-    public Optional<ProblemDto> createUser(String username, String masterPswd) {
+    // first half of a sign-up: checks it and starts its KDF, pending then has what completeCreateUser needs
+    public Optional<ProblemDto> startCreateUser(String username, String masterPswd, PendingAuthentication pending) {
         User user = new User();
         user.setUsername(username);
 
         Optional<ProblemDto> maybeProblemDto = validator.validate(user);
         if (maybeProblemDto.isEmpty()) {  // user validation OK
-            try {
-                ProblemDto problemDto;
-                if (userDao.userWithNameExists(username)) {  // username not unique
-                    problemDto = UserProblems.createDefaultUsernameProblem();
-                    UserProblems.usernameNotUniqueProblem(problemDto);
-                    return Optional.of(problemDto);  // return username not unique problem
-                }
-                else {  // proceed with masterPswd checks
-                    byte[] decodedPswd = null;
-                    problemDto = UserProblems.createDefaultPasswordProblem();
-
-                    try {
-                        decodedPswd = requireNonNull(decodePswd(requireNonNull(masterPswd)));
-                        if (decodedPswd.length != KDF_INPUT_LENGTH_BYTES) {
-                            clearArray(decodedPswd);
-                            UserProblems.masterPswdLengthProblem(problemDto);
-                            return Optional.of(problemDto);  // return length problem
-                        }
-                    }
-                    catch (IllegalArgumentException | NullPointerException e) {
-                        clearArray(decodedPswd);
-                        UserProblems.masterPswdFormatProblem(problemDto);
-                        return Optional.of(problemDto);  // return base64 format problem
-                    }
-
-                    // KDF
-                    byte[] salt = genSalt();
-                    byte[] kdfOutput = kdfAndSalt(decodedPswd, salt);
-                    user.setSalt(salt);
-                    user.setMasterPswd(kdfOutput);
-
-                    // clean up
-                    clearArray(decodedPswd);
-                    clearArray(salt);
-                    clearArray(kdfOutput);
-
-                    userDao.create(user);  // persist user in DB
-                    return Optional.empty();  // return OK
-                }
+            ProblemDto problemDto;
+            if (userDao.userWithNameExists(username)) {  // username not unique
+                problemDto = UserProblems.createDefaultUsernameProblem();
+                UserProblems.usernameNotUniqueProblem(problemDto);
+                return Optional.of(problemDto);  // return username not unique problem
             }
-            catch (EntityExistsException e) {
-                throw new AssertionError("EntityExistsException: userDao.userWithNameExists(username) check failed");
+            else {  // proceed with masterPswd checks
+                problemDto = UserProblems.createDefaultPasswordProblem();
+                byte[] decodedPswd = decodeNewMasterPswd(masterPswd, problemDto);
+                if (decodedPswd == null) {
+                    return Optional.of(problemDto);  // return length or base64 format problem
+                }
+                pending.username = username;
+                pending.decodedPswd = decodedPswd;
+                pending.salt = genSalt();
+                pending.params = kdfManager.getCurrentParams();
+                return startKdf(pending, KdfPriority.SIGNUP);  // empty, or server busy problem
             }
         }
         else {  // user validation error
@@ -88,11 +81,76 @@ public class UserService {
         }
     }
 
-    public Optional<ProblemDto> login(String username, String masterPswd, final AuthTokenResponseDto tokenDto) {
+    // second half of a sign-up, once its KDF is done
+    public Optional<ProblemDto> completeCreateUser(PendingAuthentication pending, byte[] kdfOutput) {
+        try {
+            if (userDao.userWithNameExists(pending.username)) {  // taken while the KDF ran
+                ProblemDto problemDto = UserProblems.createDefaultUsernameProblem();
+                UserProblems.usernameNotUniqueProblem(problemDto);
+                return Optional.of(problemDto);
+            }
+            User user = new User();
+            user.setUsername(pending.username);
+            user.setSalt(pending.salt);
+            user.setMasterPswd(kdfOutput);
+            user.setKdfParams(pending.params);
+            userDao.create(user);  // persist user in DB
+            return Optional.empty();  // return OK
+        }
+        catch (EntityExistsException e) {
+            throw new AssertionError("EntityExistsException: userDao.userWithNameExists(username) check failed");
+        }
+        finally {
+            // clean up
+            pending.clear();
+            clearArray(kdfOutput);
+        }
+    }
+
+    private Optional<ProblemDto> startKdf(PendingAuthentication pending, KdfPriority priority) {
+        try {
+            pending.kdf = kdfManager.kdfAndSaltAsync(pending.decodedPswd, pending.salt, pending.params, priority);
+            return Optional.empty();
+        }
+        catch (KdfRejectedException ex) {
+            pending.clear();
+            return Optional.of(UserProblems.createKdfBusyProblem());
+        }
+    }
+
+    // null if masterPswd can't be a master password, problemDto then says why
+    static byte[] decodeNewMasterPswd(String masterPswd, ProblemDto problemDto) {
+        byte[] decodedPswd = null;
+        try {
+            decodedPswd = requireNonNull(decodePswd(requireNonNull(masterPswd)));
+            if (decodedPswd.length != KDF_INPUT_LENGTH_BYTES) {
+                clearArray(decodedPswd);
+                UserProblems.masterPswdLengthProblem(problemDto);
+                return null;
+            }
+            return decodedPswd;
+        }
+        catch (IllegalArgumentException | NullPointerException e) {
+            clearArray(decodedPswd);
+            UserProblems.masterPswdFormatProblem(problemDto);
+            return null;
+        }
+    }
+
+    // all in one transaction, so their inserts are sent in JDBC batches; if one fails, none is created
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void createUsers(List<User> users) {
+        for (User user : users) {
+            userDao.create(user);
+        }
+    }
+
+    // first half of a login: finds the user and starts the KDF, pending then has what completeLogin needs
+    public Optional<ProblemDto> startLogin(String username, String masterPswd, PendingAuthentication pending) {
         ProblemDto problemDto;
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {  // username found in DB
-            User user = maybeUser.get();
+        Optional<UserRecord> maybeUser = userDao.findRecordByName(username);
+        if (maybeUser.isPresent()) {  // username found
+            UserRecord user = maybeUser.get();
 
             byte[] decodedPswd = null;
             try {
@@ -104,36 +162,138 @@ public class UserService {
                 UserProblems.authProblem(problemDto);
                 return Optional.of(problemDto);
             }
+            pending.user = user;
+            pending.decodedPswd = decodedPswd;
+            pending.salt = user.getSalt();
+            pending.params = user.getKdfParams();
+            return startKdf(pending, KdfPriority.LOGIN);  // empty, or server busy problem
+        }
+        else {  // username not found
+            problemDto = UserProblems.createDefaultAuthProblem();
+            UserProblems.authProblem(problemDto);
+            return Optional.of(problemDto);
+        }
+    }
 
-            // KDF
-            byte[] kdfOutput = kdfAndSalt(decodedPswd, user.getSalt());
-            if (Arrays.equals(kdfOutput, user.getMasterPswd())) {  // correct password
-                tokenDto.setToken(tokenManager.generateToken(username));
-                tokenDto.setTokenType(AuthTokenResponseDto.BEARER);
-                tokenDto.setExpiration(tokenManager.getTokenExpirationMs(tokenDto.getToken()));
+    // second half of a login, once its KDF is done
+    public Optional<ProblemDto> completeLogin(PendingAuthentication pending, byte[] kdfOutput, final AuthTokenResponseDto tokenDto) {
+        UserRecord user = pending.user;
+        try {
+            // by id, EclipseLink's shared cache usually has it; empty if the user was deleted since it was cached
+            Optional<User> maybeEntity = Arrays.equals(kdfOutput, user.getMasterPswd())
+                ? userDao.findOne(user.getId())
+                : Optional.empty();
+            if (maybeEntity.isPresent()) {  // correct password
+                try {
+                    issueTokens(maybeEntity.get(), genRandomLong(), tokenDto);  // new login, new refresh token family
+                }
+                catch (TokenStoreFullException ex) {
+                    return Optional.of(UserProblems.createTokenStoreFullProblem());
+                }
+                if (!user.getKdfParams().equals(kdfManager.getCurrentParams())) {
+                    rehash(maybeEntity.get(), pending.decodedPswd);
+                }
+                return Optional.empty();
             }
             else {
-                problemDto = UserProblems.createDefaultAuthProblem();
+                ProblemDto problemDto = UserProblems.createDefaultAuthProblem();
                 UserProblems.authProblem(problemDto);
                 return Optional.of(problemDto);
             }
-
+        }
+        finally {
             // clean up
-            clearArray(decodedPswd);
+            pending.clear();
             clearArray(kdfOutput);
+        }
+    }
 
-            return Optional.empty();
+    // exchanges a refresh token for a new access token and a new refresh token, no KDF involved
+    public Optional<ProblemDto> refresh(String refreshToken, final AuthTokenResponseDto tokenDto) {
+        byte[] decodedToken;
+        try {
+            decodedToken = requireNonNull(decodeToken(requireNonNull(refreshToken)));
         }
-        else {  // username not in DB
-            tokenManager.deleteTokenForUsername(username);
-            problemDto = UserProblems.createDefaultAuthProblem();
-            UserProblems.authProblem(problemDto);
-            return Optional.of(problemDto);
+        catch (IllegalArgumentException | NullPointerException e) {
+            return Optional.of(UserProblems.refreshTokenProblem(UserProblems.createDefaultRefreshTokenProblem()));
         }
+        if (decodedToken.length != RefreshToken.TOKEN_LENGTH_BYTES) {
+            return Optional.of(UserProblems.refreshTokenProblem(UserProblems.createDefaultRefreshTokenProblem()));
+        }
+
+        Optional<RefreshToken> maybeToken = refreshTokenDao.findByHash(sha256(decodedToken));
+        clearArray(decodedToken);
+        if (maybeToken.isEmpty() || maybeToken.get().getExpirationMs() <= System.currentTimeMillis()) {
+            return Optional.of(UserProblems.refreshTokenProblem(UserProblems.createDefaultRefreshTokenProblem()));
+        }
+        RefreshToken presented = maybeToken.get();
+        if (presented.isUsed() || !refreshTokenDao.markUsed(presented)) {
+            // somebody else refreshed with this token before, it has leaked, so end every session derived from it
+            refreshTokenDao.deleteFamily(presented.getFamily());
+            return Optional.of(UserProblems.refreshTokenProblem(UserProblems.createDefaultRefreshTokenProblem()));
+        }
+        try {
+            issueTokens(presented.getUser(), presented.getFamily(), tokenDto);
+        }
+        catch (TokenStoreFullException ex) {  // rolls back markUsed, so the client can retry with the same token
+            return Optional.of(UserProblems.createTokenStoreFullProblem());
+        }
+        return Optional.empty();
+    }
+
+    // logs out the session of token, or every session of the user if all is true; the session's refresh tokens go too,
+    // or they would mint new access tokens after the logout
+    public void logout(UserPrincipal user, String token, boolean all) {
+        if (all) {
+            tokenManager.deleteAllTokens(user);
+            refreshTokenDao.deleteForUser(userDao.getReference(user.getId()));
+        }
+        else {
+            tokenManager.deleteToken(user, token);
+            refreshTokenDao.findByAccessTokenHash(sha256(token.getBytes(StandardCharsets.US_ASCII)))
+                .ifPresent(refreshToken -> refreshTokenDao.deleteFamily(refreshToken.getFamily()));
+        }
+    }
+
+    // only while the password is at hand, i.e. right after it was verified; the user is logged in whether it works or not;
+    // waits for its KDF, but only the first login after a parameter change does this
+    private void rehash(User user, byte[] decodedPswd) {
+        KdfParams kdfParams = kdfManager.getCurrentParams();
+        byte[] salt = genSalt();
+        try {
+            byte[] kdfOutput = kdfManager.kdfAndSalt(decodedPswd, salt, kdfParams, KdfPriority.REHASH);
+            user.setSalt(salt);
+            user.setMasterPswd(kdfOutput);
+            user.setKdfParams(kdfParams);
+            userDao.update(user);
+            clearArray(kdfOutput);
+        }
+        catch (KdfRejectedException ex) {
+            // too busy, the next login tries again
+        }
+        finally {
+            clearArray(salt);
+        }
+    }
+
+    private void issueTokens(User user, long refreshFamily, AuthTokenResponseDto tokenDto) {
+        tokenDto.setToken(tokenManager.generateToken(user.getId(), user.getUsername()));
+        tokenDto.setTokenType(AuthTokenResponseDto.BEARER);
+        tokenDto.setExpiration(tokenManager.getTokenExpirationMs(tokenDto.getToken()));
+
+        byte[] refreshToken = genRandomBytes(RefreshToken.TOKEN_LENGTH_BYTES);
+        Duration refreshExpiration = Duration.ofDays(ServerConfig.getLong("token.refreshExpirationDays", DEFAULT_REFRESH_EXPIRATION.toDays()));
+        long refreshExpirationMs = Instant.now().plus(refreshExpiration).toEpochMilli();
+        byte[] accessTokenHash = sha256(tokenDto.getToken().getBytes(StandardCharsets.US_ASCII));
+        refreshTokenDao.create(new RefreshToken(sha256(refreshToken), accessTokenHash, user, refreshFamily, refreshExpirationMs));
+        tokenDto.setRefreshToken(encodeToken(refreshToken));
+        tokenDto.setRefreshExpiration(refreshExpirationMs);
+        clearArray(refreshToken);
     }
 
-    public void logout(String username) {
-        tokenManager.deleteTokenForUsername(username);
+    @Schedule(hour = "*", minute = "17", persistent = false)
+    private void deleteExpiredRefreshTokens() {
+        refreshTokenDao.deleteExpired(System.currentTimeMillis());
     }
 
 }
@@ -9,12 +9,24 @@
 package com.github.miltenplescott.pswdmngrserver.vault;
 
 import com.github.miltenplescott.pswdmngrserver.GenericDao;
-import java.util.List;
+import java.io.IOException;
+import java.util.Optional;
 
 public interface VaultDao extends GenericDao<VaultEntry> {
 
-    public List<VaultEntry> findAll(long userId);
+    // reads the entries with afterId < id <= lastId, at most limit of them, in id order, through a cursor, and hands
+    // each to the consumer as it arrives, without keeping any of them
+    public void forEach(long userId, long afterId, long lastId, int limit, VaultEntryConsumer consumer) throws IOException;
+
+    // the id of the last of the limit entries after afterId, empty if there are no more entries after those
+    public Optional<Long> findPageEnd(long userId, long afterId, int limit);
 
     public int deleteAll(long userId);
 
+    // in a single UPDATE, returns the number of updated entries (0 or 1)
+    public int updateEncData(long id, long userId, byte[] encData);
+
+    // in a single DELETE, returns the number of deleted entries (0 or 1)
+    public int delete(long id, long userId);
+
 }
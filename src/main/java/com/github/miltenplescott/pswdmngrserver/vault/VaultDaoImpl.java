@@ -9,38 +9,89 @@
 package com.github.miltenplescott.pswdmngrserver.vault;
 
 import com.github.miltenplescott.pswdmngrserver.GenericDaoImpl;
-import com.github.miltenplescott.pswdmngrserver.user.User_;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
+import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
 import javax.enterprise.context.ApplicationScoped;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaDelete;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.config.ResultSetType;
+import org.eclipse.persistence.queries.ScrollableCursor;
 
 @ApplicationScoped
 public class VaultDaoImpl extends GenericDaoImpl<VaultEntry> implements VaultDao {
 
+    // entries are up to 1 MiB, the driver holds this many of them at a time
+    static final int DEFAULT_FETCH_SIZE = 8;
+
+    private static final int FETCH_SIZE = ServerConfig.getInt("vault.fetchSize", DEFAULT_FETCH_SIZE);
+
     public VaultDaoImpl() {
         super(VaultEntry.class);
     }
 
+    // id and encData only, so the rows don't become entities in the persistence context or the shared cache, and a
+    // forward only cursor, so the driver doesn't keep the rows it has already returned
     @Override
-    public List<VaultEntry> findAll(long userId) {
-        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
-        CriteriaQuery<VaultEntry> cq = cb.createQuery(VaultEntry.class);
-        Root<VaultEntry> vaultEntry = cq.from(VaultEntry.class);
-        cq.select(vaultEntry).where(cb.equal(vaultEntry.get(VaultEntry_.user).get(User_.id), userId));
+    public void forEach(long userId, long afterId, long lastId, int limit, VaultEntryConsumer consumer) throws IOException {
+        ScrollableCursor cursor = (ScrollableCursor) getEntityManager()
+            .createNamedQuery(VaultEntry.QUERY_FIND_ENC_DATA)
+            .setParameter("userId", userId)
+            .setParameter("afterId", afterId)
+            .setParameter("lastId", lastId)
+            .setMaxResults(limit)
+            .setHint(QueryHints.SCROLLABLE_CURSOR, true)
+            .setHint(QueryHints.RESULT_SET_TYPE, ResultSetType.ForwardOnly)
+            .setHint(QueryHints.JDBC_FETCH_SIZE, FETCH_SIZE)
+            .getSingleResult();
+        try {
+            while (cursor.hasNext()) {
+                Object[] row = (Object[]) cursor.next();
+                consumer.accept((Long) row[0], (byte[]) row[1]);
+            }
+        }
+        finally {
+            cursor.close();
+        }
+    }
 
-        return getEntityManager().createQuery(cq).getResultList();
+    // ids only, from the (fk_user, id) index, so a page costs the same however deep it is
+    @Override
+    public Optional<Long> findPageEnd(long userId, long afterId, int limit) {
+        List<Long> ids = getEntityManager().createNamedQuery(VaultEntry.QUERY_FIND_IDS, Long.class)
+            .setParameter("userId", userId)
+            .setParameter("afterId", afterId)
+            .setFirstResult(limit - 1)
+            .setMaxResults(2)
+            .getResultList();
+        if (ids.size() < 2) {  // the page is the last one
+            return Optional.empty();
+        }
+        return Optional.of(ids.get(0));
     }
 
     @Override
     public int deleteAll(long userId) {
-        CriteriaBuilder cb = getEntityManager().getCriteriaBuilder();
-        CriteriaDelete<VaultEntry> cd = cb.createCriteriaDelete(VaultEntry.class);
-        Root<VaultEntry> vaultEntry = cd.from(VaultEntry.class);
-        cd.where(cb.equal(vaultEntry.get(VaultEntry_.user).get(User_.id), userId));
-        return getEntityManager().createQuery(cd).executeUpdate();
+        return getEntityManager().createNamedQuery(VaultEntry.QUERY_DELETE_ALL)
+            .setParameter("userId", userId)
+            .executeUpdate();
+    }
+
+    @Override
+    public int updateEncData(long id, long userId, byte[] encData) {
+        return getEntityManager().createNamedQuery(VaultEntry.QUERY_UPDATE_ENC_DATA)
+            .setParameter("encData", encData)
+            .setParameter("id", id)
+            .setParameter("userId", userId)
+            .executeUpdate();
+    }
+
+    @Override
+    public int delete(long id, long userId) {
+        return getEntityManager().createNamedQuery(VaultEntry.QUERY_DELETE)
+            .setParameter("id", id)
+            .setParameter("userId", userId)
+            .executeUpdate();
     }
 
 }
@@ -11,22 +11,54 @@ package com.github.miltenplescott.pswdmngrserver.vault;
 import com.github.miltenplescott.pswdmngrserver.BaseEntity;
 import com.github.miltenplescott.pswdmngrserver.user.User;
 import java.io.Serializable;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.IdClass;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
 import javax.persistence.Transient;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
 @Entity
 @IdClass(VaultEntryPk.class)
+// entries are written by bulk updates and on other nodes, and read once per request, so not kept in the shared cache
+@Cacheable(false)
+// a user's entries in id order, for the pages of GET /vault
+@Table(indexes = @Index(name = "vault_entry_user_id", columnList = "fk_user, id"))
+@NamedQueries({
+    @NamedQuery(name = VaultEntry.QUERY_FIND_ENC_DATA, query = "SELECT e.id, e.encData FROM VaultEntry e WHERE e.user.id = :userId AND e.id > :afterId AND e.id <= :lastId ORDER BY e.id"),
+    @NamedQuery(name = VaultEntry.QUERY_FIND_IDS, query = "SELECT e.id FROM VaultEntry e WHERE e.user.id = :userId AND e.id > :afterId ORDER BY e.id"),
+    @NamedQuery(name = VaultEntry.QUERY_DELETE_ALL, query = "DELETE FROM VaultEntry e WHERE e.user.id = :userId"),
+    @NamedQuery(name = VaultEntry.QUERY_UPDATE_ENC_DATA, query = "UPDATE VaultEntry e SET e.encData = :encData WHERE e.id = :id AND e.user.id = :userId"),
+    @NamedQuery(name = VaultEntry.QUERY_DELETE, query = "DELETE FROM VaultEntry e WHERE e.id = :id AND e.user.id = :userId")
+})
 public class VaultEntry extends BaseEntity implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // hot queries are parsed once, when the persistence unit is deployed
+    @Transient
+    public static final String QUERY_FIND_ENC_DATA = "VaultEntry.findEncDataByUser";
+
+    @Transient
+    public static final String QUERY_FIND_IDS = "VaultEntry.findIdsByUser";
+
+    @Transient
+    public static final String QUERY_DELETE_ALL = "VaultEntry.deleteAll";
+
+    @Transient
+    public static final String QUERY_UPDATE_ENC_DATA = "VaultEntry.updateEncData";
+
+    @Transient
+    public static final String QUERY_DELETE = "VaultEntry.delete";
+
     /**
      * 1 B
      */
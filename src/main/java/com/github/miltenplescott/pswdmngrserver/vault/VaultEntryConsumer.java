@@ -0,0 +1,22 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.vault;
+
+import java.io.IOException;
+
+/**
+ * Takes a user's vault entries one at a time, as they are read, see {@link VaultDao#forEach}.
+ */
+@FunctionalInterface
+public interface VaultEntryConsumer {
+
+    // encData is only read from the database for this call, it isn't copied
+    public void accept(long id, byte[] encData) throws IOException;
+
+}
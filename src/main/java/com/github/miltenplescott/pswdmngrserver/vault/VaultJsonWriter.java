@@ -0,0 +1,48 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.vault;
+
+import java.io.OutputStream;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Writes vault entries as they arrive, as the same JSON array JSON-B makes of a list of {@link VaultEntryDto}.
+ *
+ * Nothing of an entry is kept once it's written, only the generator's buffer, so the memory a GET /vault holds
+ * doesn't grow with the vault.
+ */
+final class VaultJsonWriter implements VaultEntryConsumer {
+
+    private final JsonGenerator generator;
+
+    VaultJsonWriter(OutputStream output) {
+        this.generator = Json.createGenerator(output);
+        generator.writeStartArray();
+    }
+
+    // enc_data is an array of numbers, JSON-B's default for binary data
+    @Override
+    public void accept(long id, byte[] encData) {
+        generator.writeStartObject();
+        generator.write("id", id);
+        generator.writeStartArray("enc_data");
+        for (byte b : encData) {
+            generator.write(b);
+        }
+        generator.writeEnd();
+        generator.writeEnd();
+    }
+
+    void finish() {
+        generator.writeEnd();
+        generator.flush();
+    }
+
+}
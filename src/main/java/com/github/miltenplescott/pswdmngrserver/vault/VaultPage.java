@@ -0,0 +1,50 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.vault;
+
+/**
+ * Entries of GET /vault, those with afterId < id <= lastId, at most limit of them. Pages are keyed by entry id, so the
+ * next page is the one after lastId.
+ */
+public final class VaultPage {
+
+    private final long afterId;
+    private final long lastId;
+    private final int limit;
+    private final boolean hasNext;
+
+    VaultPage(long afterId, long lastId, int limit, boolean hasNext) {
+        this.afterId = afterId;
+        this.lastId = lastId;
+        this.limit = limit;
+        this.hasNext = hasNext;
+    }
+
+    // every entry after afterId
+    static VaultPage rest(long afterId) {
+        return new VaultPage(afterId, Long.MAX_VALUE, Integer.MAX_VALUE, false);
+    }
+
+    public long getAfterId() {
+        return afterId;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean hasNext() {
+        return hasNext;
+    }
+
+}
@@ -16,9 +16,11 @@ public class VaultProblems {
     public static final String PROBLEM_TITLE_ENC_DATA = "Invalid encrypted data.";
     public static final String PROBLEM_TITLE_VAULT_ENTRY_ID = "Invalid vault entry ID.";
     public static final String PROBLEM_TITLE_EMPTY_VAULT = "Vault is empty.";
+    public static final String PROBLEM_TITLE_PAGE = "Invalid page.";
 
     public static final String MSG_VAULT_ENTRY_ID = "Vault entry with the specified ID not found.";
     public static final String MSG_EMPTY_VAULT = "This user's vault contains no vault entries.";
+    public static final String MSG_LIMIT = "Limit is required to be between 1 and %d.";
 
     private VaultProblems() {
         throw new AssertionError("Suppress default constructor for noninstantiability.");
@@ -36,6 +38,10 @@ public class VaultProblems {
         return new ProblemDto(PROBLEM_TITLE_EMPTY_VAULT);
     }
 
+    public static ProblemDto createDefaultPageProblem() {
+        return new ProblemDto(PROBLEM_TITLE_PAGE);
+    }
+
     public static void encDataViolationToProblemDto(ProblemDto dto, ConstraintViolation<VaultEntry> cv) {
         dto.getInvalidParams().add(new ProblemDto.Extension("encData", cv.getMessage()));
     }
@@ -50,4 +56,9 @@ public class VaultProblems {
         return dto;
     }
 
+    public static ProblemDto limitProblem(ProblemDto dto, int maxLimit) {
+        dto.getInvalidParams().add(new ProblemDto.Extension("limit", String.format(MSG_LIMIT, maxLimit)));
+        return dto;
+    }
+
 }
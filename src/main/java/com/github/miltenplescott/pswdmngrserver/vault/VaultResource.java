@@ -10,9 +10,10 @@ package com.github.miltenplescott.pswdmngrserver.vault;
 
 import com.github.miltenplescott.pswdmngrserver.ApplicationConfig;
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
+import com.github.miltenplescott.pswdmngrserver.ServerConfig;
 import com.github.miltenplescott.pswdmngrserver.user.Secured;
+import com.github.miltenplescott.pswdmngrserver.user.UserPrincipal;
 import com.github.miltenplescott.pswdmngrserver.user.UserResource;
-import java.util.List;
 import java.util.Optional;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
@@ -26,10 +27,15 @@ import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
@@ -38,19 +44,48 @@ import javax.ws.rs.core.UriInfo;
 @Secured
 public class VaultResource {
 
+    static final int DEFAULT_MAX_LIMIT = 1000;
+
+    private static final int MAX_LIMIT = ServerConfig.getInt("vault.maxLimit", DEFAULT_MAX_LIMIT);
+
     @Inject
     private VaultService vaultService;
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response getVault(@Context HttpServletRequest request) {
-        Optional<String> maybeUsername = UserResource.getUsername(request);
-        if (maybeUsername.isPresent()) {
-            List<VaultEntryDto> vaultEntries = vaultService.getAllVaultEntries(maybeUsername.get());
-            return Response
+    @Produces({MediaType.APPLICATION_JSON, ProblemDto.MEDIA_TYPE_PROBLEM_JSON})
+    public Response getVault(@Context HttpServletRequest request, @Context Request conditions, @Context UriInfo uriInfo,
+        @QueryParam("limit") Integer limit, @QueryParam("after") Long afterId) {
+        Optional<UserPrincipal> maybeUser = UserResource.getPrincipal(request);
+        if (maybeUser.isPresent()) {
+            if (limit != null && (limit < 1 || limit > MAX_LIMIT)) {
+                return buildProblemResponse(VaultProblems.limitProblem(VaultProblems.createDefaultPageProblem(), MAX_LIMIT),
+                    Response.Status.BAD_REQUEST);
+            }
+            long userId = maybeUser.get().getId();
+            EntityTag etag = vaultEtag(userId);
+            Response.ResponseBuilder notModified = conditions.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.tag(etag).build();
+            }
+            long after = (afterId == null) ? Long.MIN_VALUE : afterId;
+            // without a limit, every entry after afterId, in one response like before paging
+            VaultPage page = (limit == null) ? VaultPage.rest(after) : vaultService.findVaultPage(userId, after, limit);
+            // entries are written as they are read, after this returns
+            StreamingOutput vault = output -> {
+                VaultJsonWriter writer = new VaultJsonWriter(output);
+                vaultService.writeVaultEntries(userId, page, writer);
+                writer.finish();
+            };
+            Response.ResponseBuilder builder = Response
                 .status(Response.Status.OK)
                 .type(MediaType.APPLICATION_JSON + ApplicationConfig.UTF8_SUFFIX)
-                .entity(vaultEntries).build();
+                .tag(etag)
+                .entity(vault);
+            if (page.hasNext()) {
+                UriBuilder next = uriInfo.getRequestUriBuilder().replaceQueryParam("after", page.getLastId());
+                builder.links(Link.fromUriBuilder(next).rel("next").build());
+            }
+            return builder.build();
         }
         else {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
@@ -61,9 +96,9 @@ public class VaultResource {
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @ValidatedInput
     public Response createVaultEntry(@Context HttpServletRequest request, @Context UriInfo uriInfo, byte[] encData) {
-        Optional<String> maybeUsername = UserResource.getUsername(request);
-        if (maybeUsername.isPresent()) {
-            long createdId = vaultService.createVaultEntry(maybeUsername.get(), encData);
+        Optional<UserPrincipal> maybeUser = UserResource.getPrincipal(request);
+        if (maybeUser.isPresent()) {
+            long createdId = vaultService.createVaultEntry(maybeUser.get().getId(), encData);
             UriBuilder builder = uriInfo.getAbsolutePathBuilder().path(Long.toString(createdId));
             return Response
                 .status(Response.Status.CREATED)
@@ -84,9 +119,9 @@ public class VaultResource {
     @DELETE
     @Produces(ProblemDto.MEDIA_TYPE_PROBLEM_JSON)
     public Response deleteVault(@Context HttpServletRequest request) {
-        Optional<String> maybeUsername = UserResource.getUsername(request);
-        if (maybeUsername.isPresent()) {
-            Optional<ProblemDto> maybeProblem = vaultService.deleteAllVaultEntries(maybeUsername.get());
+        Optional<UserPrincipal> maybeUser = UserResource.getPrincipal(request);
+        if (maybeUser.isPresent()) {
+            Optional<ProblemDto> maybeProblem = vaultService.deleteAllVaultEntries(maybeUser.get().getId());
             if (maybeProblem.isEmpty()) {
                 return Response.status(Response.Status.NO_CONTENT).build();
             }
@@ -102,15 +137,21 @@ public class VaultResource {
     @GET
     @Path("/{id:}")
     @Produces({MediaType.APPLICATION_JSON, ProblemDto.MEDIA_TYPE_PROBLEM_JSON})
-    public Response getVaultEntryById(@Context HttpServletRequest request, @PathParam("id") long id) {
-        Optional<String> maybeUsername = UserResource.getUsername(request);
-        if (maybeUsername.isPresent()) {
+    public Response getVaultEntryById(@Context HttpServletRequest request, @Context Request conditions, @PathParam("id") long id) {
+        Optional<UserPrincipal> maybeUser = UserResource.getPrincipal(request);
+        if (maybeUser.isPresent()) {
+            EntityTag etag = vaultEtag(maybeUser.get().getId());
+            Response.ResponseBuilder notModified = conditions.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.tag(etag).build();
+            }
             VaultEntryDto vaultEntryDto = new VaultEntryDto();
-            Optional<ProblemDto> maybeProblem = vaultService.getVaultEntry(maybeUsername.get(), id, vaultEntryDto);
+            Optional<ProblemDto> maybeProblem = vaultService.getVaultEntry(maybeUser.get().getId(), id, vaultEntryDto);
             if (maybeProblem.isEmpty()) {
                 return Response
                     .status(Response.Status.OK)
                     .type(MediaType.APPLICATION_JSON + ApplicationConfig.UTF8_SUFFIX)
+                    .tag(etag)
                     .entity(vaultEntryDto).build();
             }
             else {
@@ -136,9 +177,9 @@ public class VaultResource {
     @Produces(ProblemDto.MEDIA_TYPE_PROBLEM_JSON)
     @ValidatedInput
     public Response updateVaultEntryById(@Context HttpServletRequest request, @PathParam("id") long id, byte[] encData) {
-        Optional<String> maybeUsername = UserResource.getUsername(request);
-        if (maybeUsername.isPresent()) {
-            Optional<ProblemDto> maybeProblem = vaultService.updateVaultEntry(maybeUsername.get(), id, encData);
+        Optional<UserPrincipal> maybeUser = UserResource.getPrincipal(request);
+        if (maybeUser.isPresent()) {
+            Optional<ProblemDto> maybeProblem = vaultService.updateVaultEntry(maybeUser.get().getId(), id, encData);
             if (maybeProblem.isEmpty()) {
                 return Response.status(Response.Status.NO_CONTENT).build();
             }
@@ -155,9 +196,9 @@ public class VaultResource {
     @Path("/{id}")
     @Produces(ProblemDto.MEDIA_TYPE_PROBLEM_JSON)
     public Response deleteVaultEntryById(@Context HttpServletRequest request, @PathParam("id") long id) {
-        Optional<String> maybeUsername = UserResource.getUsername(request);
-        if (maybeUsername.isPresent()) {
-            Optional<ProblemDto> maybeProblem = vaultService.deleteVaultEntry(maybeUsername.get(), id);
+        Optional<UserPrincipal> maybeUser = UserResource.getPrincipal(request);
+        if (maybeUser.isPresent()) {
+            Optional<ProblemDto> maybeProblem = vaultService.deleteVaultEntry(maybeUser.get().getId(), id);
             if (maybeProblem.isEmpty()) {
                 return Response.status(Response.Status.NO_CONTENT).build();
             }
@@ -170,6 +211,12 @@ public class VaultResource {
         }
     }
 
+    // the same for every representation of the vault while it doesn't change, so a client that has one gets a 304
+    // without the vault being read
+    private EntityTag vaultEtag(long userId) {
+        return new EntityTag(Long.toString(vaultService.getVaultRevision(userId)));
+    }
+
     private Response buildProblemResponse(ProblemDto problem, Response.Status statusCode) {
         problem.setStatus(statusCode.getStatusCode());
         return Response
@@ -9,12 +9,9 @@
 package com.github.miltenplescott.pswdmngrserver.vault;
 
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
-import com.github.miltenplescott.pswdmngrserver.user.User;
 import com.github.miltenplescott.pswdmngrserver.user.UserDao;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
 import java.util.Optional;
-import java.util.stream.Collectors;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 
@@ -30,103 +27,71 @@ public class VaultService {
     public VaultService() {
     }
 
-    public long createVaultEntry(String username, byte[] encData) {
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {
-            User user = maybeUser.get();
-            VaultEntry vaultEntry = new VaultEntry(encData, user);
-            vaultDao.create(vaultEntry);
-            return vaultEntry.getId();
-        }
-        else {
-            throw new AssertionError("Username not found.");
-        }
+    // userId comes from the authenticated request, see UserResource.getPrincipal, so the user isn't looked up
+    public long createVaultEntry(long userId, byte[] encData) {
+        VaultEntry vaultEntry = new VaultEntry(encData, userDao.getReference(userId));
+        vaultDao.create(vaultEntry);
+        userDao.bumpVaultRevision(userId);
+        return vaultEntry.getId();
     }
 
-    public Optional<ProblemDto> updateVaultEntry(String username, long vaultEntryId, byte[] encData) {
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {
-            User user = maybeUser.get();
-            Optional<VaultEntry> maybeVaultEntry = vaultDao.findOne(new VaultEntryPk(vaultEntryId, user.getId()));
-            if (maybeVaultEntry.isPresent()) {
-                VaultEntry vaultEntry = maybeVaultEntry.get();
-                vaultEntry.setEncData(encData);
-                vaultDao.update(vaultEntry);
-                return Optional.empty();
-            }
-            else {  // vault entry not found
-                return Optional.of(getVaultEntryIdProblemDto());
-            }
+    public Optional<ProblemDto> updateVaultEntry(long userId, long vaultEntryId, byte[] encData) {
+        if (vaultDao.updateEncData(vaultEntryId, userId, encData) > 0) {
+            userDao.bumpVaultRevision(userId);
+            return Optional.empty();
         }
-        else {
-            throw new AssertionError("Username not found.");
+        else {  // vault entry not found
+            return Optional.of(getVaultEntryIdProblemDto());
         }
     }
 
-    public Optional<ProblemDto> deleteVaultEntry(String username, long vaultEntryId) {
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {
-            User user = maybeUser.get();
-            Optional<VaultEntry> maybeVaultEntry = vaultDao.findOne(new VaultEntryPk(vaultEntryId, user.getId()));
-            if (maybeVaultEntry.isPresent()) {  // vault entry found
-                vaultDao.delete(maybeVaultEntry.get());  // delete it
-                return Optional.empty();
-            }
-            else {  // vault entry not found
-                return Optional.of(getVaultEntryIdProblemDto());
-            }
+    public Optional<ProblemDto> deleteVaultEntry(long userId, long vaultEntryId) {
+        if (vaultDao.delete(vaultEntryId, userId) > 0) {  // vault entry found and deleted
+            userDao.bumpVaultRevision(userId);
+            return Optional.empty();
         }
-        else {
-            throw new AssertionError("Username not found.");
+        else {  // vault entry not found
+            return Optional.of(getVaultEntryIdProblemDto());
         }
     }
 
-    public Optional<ProblemDto> deleteAllVaultEntries(String username) {
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {
-            User user = maybeUser.get();
-            int deleted = vaultDao.deleteAll(user.getId());
-            if (deleted > 0) {
-                return Optional.empty();
-            }
-            else {  // nothing to delete
-                return Optional.of(getEmptyVaultProblemDto());
-            }
+    public Optional<ProblemDto> deleteAllVaultEntries(long userId) {
+        int deleted = vaultDao.deleteAll(userId);
+        if (deleted > 0) {
+            userDao.bumpVaultRevision(userId);
+            return Optional.empty();
         }
-        else {
-            throw new AssertionError("Username not found.");
+        else {  // nothing to delete
+            return Optional.of(getEmptyVaultProblemDto());
         }
     }
 
-    public List<VaultEntryDto> getAllVaultEntries(String username) {
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {
-            User user = maybeUser.get();
-            List<VaultEntry> vaultEntries = vaultDao.findAll(user.getId());
-            return vaultEntryListToDto(vaultEntries);
-        }
-        else {
-            throw new AssertionError("Username not found.");
-        }
+    // changes with every create, update and delete of the user's entries, in their transaction
+    public long getVaultRevision(long userId) {
+        return userDao.findVaultRevision(userId);
     }
 
-    public Optional<ProblemDto> getVaultEntry(String username, long vaultEntryId, final VaultEntryDto vaultEntryDto) {
-        Optional<User> maybeUser = userDao.findByName(username);
-        if (maybeUser.isPresent()) {
-            User user = maybeUser.get();
-            Optional<VaultEntry> maybeVaultEntry = vaultDao.findOne(new VaultEntryPk(vaultEntryId, user.getId()));
-            if (maybeVaultEntry.isPresent()) {  // no problem
-                VaultEntry vaultEntry = maybeVaultEntry.get();
-                vaultEntryDto.setId(vaultEntry.getId());
-                vaultEntryDto.setEncData(vaultEntry.getEncData());
-                return Optional.empty();
-            }
-            else {  // vault entry with id-username combination not found problem
-                return Optional.of(getVaultEntryIdProblemDto());
-            }
+    // called while the response is written, the cursor stays open in this method's transaction
+    public void writeVaultEntries(long userId, VaultPage page, VaultEntryConsumer consumer) throws IOException {
+        vaultDao.forEach(userId, page.getAfterId(), page.getLastId(), page.getLimit(), consumer);
+    }
+
+    // the entries of the page are fixed here, so an entry created or deleted before they are written doesn't shift them
+    public VaultPage findVaultPage(long userId, long afterId, int limit) {
+        Optional<Long> pageEnd = vaultDao.findPageEnd(userId, afterId, limit);
+        return new VaultPage(afterId, pageEnd.orElse(Long.MAX_VALUE), limit, pageEnd.isPresent());
+    }
+
+    public Optional<ProblemDto> getVaultEntry(long userId, long vaultEntryId, final VaultEntryDto vaultEntryDto) {
+        Optional<VaultEntry> maybeVaultEntry = vaultDao.findOne(new VaultEntryPk(vaultEntryId, userId));
+        if (maybeVaultEntry.isPresent()) {  // no problem
+            VaultEntry vaultEntry = maybeVaultEntry.get();
+            vaultEntryDto.setId(vaultEntry.getId());
+            vaultEntryDto.setEncData(vaultEntry.getEncData());
+            return Optional.empty();
         }
-        else {
-            throw new AssertionError("Username not found.");
+        else {  // vault entry with id-username combination not found problem
+            return Optional.of(getVaultEntryIdProblemDto());
         }
     }
 
@@ -142,29 +107,4 @@ public class VaultService {
         return problemDto;
     }
 
-    private VaultEntryDto vaultEntryToDto(VaultEntry vaultEntry) {
-        return new VaultEntryDto(vaultEntry.getId(), vaultEntry.getEncData());
-
-    }
-
-    private List<VaultEntryDto> vaultEntryListToDto(List<VaultEntry> vaultEntries) {
-        List<VaultEntryDto> dtoList = new ArrayList<>();
-        for (VaultEntry ve : vaultEntries) {
-            dtoList.add(vaultEntryToDto(ve));
-        }
-        return dtoList;
-    }
-
-    private List<VaultEntryDto> vaultEntryListToDto2(List<VaultEntry> vaultEntries) {
-        return vaultEntries.stream()
-            .map(x -> vaultEntryToDto(x))
-            .collect(Collectors.toList());
-    }
-
-    private List<VaultEntryDto> vaultEntryListToDto3(List<VaultEntry> vaultEntries) {
-        return vaultEntries.stream()
-            .map(this::vaultEntryToDto)
-            .collect(Collectors.toList());
-    }
-
 }
@@ -0,0 +1,71 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthorizationHeaderParserTest {
+
+    private static final String TOKEN = "FY7iq0Y1ja2loHmMurgM7w==";
+
+    public AuthorizationHeaderParserTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+    }
+
+    private static String token(String header) {
+        int start = AuthorizationHeaderParser.tokenStart(header);
+        return (start < 0) ? null : header.substring(start, AuthorizationHeaderParser.tokenEnd(header, start));
+    }
+
+    @Test
+    public void schemeInAnyCase_givesToken() {
+        assertEquals(TOKEN, token("Bearer " + TOKEN));
+        assertEquals(TOKEN, token("bEARER " + TOKEN));
+        assertEquals(TOKEN, token("Bearer   " + TOKEN + " \t"));
+    }
+
+    @Test
+    public void emptyToken_givesEmptyRange() {
+        assertEquals("", token("Bearer "));
+        assertEquals("", token("Bearer    "));
+    }
+
+    @Test
+    public void wrongHeader_givesNoToken() {
+        assertNull(token(null));
+        assertNull(token(""));
+        assertNull(token("Bearer"));
+        assertNull(token("Bearer" + TOKEN));
+        assertNull(token("Basic " + TOKEN));
+        assertNull(token("Bearerx " + TOKEN));
+        assertNull(token(" Bearer " + TOKEN));
+        assertNull(token("Bearer " + TOKEN + ", Bearer " + TOKEN));
+    }
+
+    @Test
+    public void sameTokenAsLowerCasingAndTrimming() {
+        String[] headers = {"Bearer " + TOKEN, "BEARER x", "bearer  a b ", "Bearer\t" + TOKEN, "Bearer \u00e9"};
+        for (String header : headers) {
+            String expected = header.toLowerCase().startsWith("bearer ") ? header.substring(6).trim() : null;
+            assertEquals(expected, token(header), header);
+        }
+    }
+
+}
@@ -9,7 +9,20 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.util.encoders.Hex;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -118,4 +131,114 @@ public class CryptoUtilsTest {
         );
     }
 
+    @Test
+    public void genRandomBytesFromManyThreadsTest() throws Exception {
+        int threads = 8;
+        int tokensPerThread = 1000;
+        Set<String> tokens = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < tokensPerThread; j++) {
+                        tokens.add(CryptoUtils.encodeToken(CryptoUtils.genRandomBytes(AuthTokenManager.TOKEN_LENGTH_BYTES)));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * tokensPerThread, tokens.size(), "Random bytes should never be handed out twice");
+        assertFalse(tokens.contains(CryptoUtils.encodeToken(new byte[AuthTokenManager.TOKEN_LENGTH_BYTES])));
+    }
+
+    @Test
+    public void genRandomBytesLongerThanBlockTest() {
+        byte[] bytes = CryptoUtils.genRandomBytes(100_000);
+        assertEquals(100_000, bytes.length);
+        assertFalse(Arrays.equals(new byte[100_000], bytes));
+    }
+
+    @Test
+    public void kdfAndSaltTest() {
+        byte[] pswd = CryptoUtils.decodePswd(EXAMPLE_BASE64_STRING);
+        byte[] salt = CryptoUtils.genSalt();
+        byte[] kdfOutput = CryptoUtils.kdfAndSalt(pswd, salt, KdfParams.LEGACY);
+        assertEquals(CryptoUtils.KDF_OUTPUT_LENGTH_BYTES, kdfOutput.length);
+        assertArrayEquals(kdfOutput, CryptoUtils.kdfAndSalt(pswd, salt, KdfParams.LEGACY), "Same password, salt and parameters should give the same output");
+        KdfParams cheaper = new KdfParams(1, KdfParams.LEGACY.getMemoryKb(), KdfParams.LEGACY.getParallelism());
+        assertFalse(Arrays.equals(kdfOutput, CryptoUtils.kdfAndSalt(pswd, salt, cheaper)), "Different parameters should give a different output");
+        assertArrayEquals(kdfOutput, CryptoUtils.kdfAndSaltUnpooled(pswd, salt, KdfParams.LEGACY), "Unpooled KDF should give the same output");
+    }
+
+    @Test
+    public void kdfParamsBelowArgon2MinimumTest() {
+        assertThrows(IllegalArgumentException.class, () -> new KdfParams(0, 1024, 4), "Zero iterations should throw an exception");
+        assertThrows(IllegalArgumentException.class, () -> new KdfParams(1, 31, 4), "Less than 8 KiB per lane should throw an exception");
+    }
+
+    @Test
+    public void kdfAndSaltMatchesBouncyCastleTest() {
+        KdfParams[] params = new KdfParams[]{
+            KdfParams.LEGACY,
+            new KdfParams(1, 8, 1),
+            new KdfParams(2, 37, 1),  // not a multiple of the sync points
+            new KdfParams(1, 1024, 1),  // segments longer than one block of addresses
+            new KdfParams(3, 100, 3),
+            new KdfParams(2, 256, 8)
+        };
+        for (KdfParams p : params) {
+            byte[] pswd = new byte[rng.nextInt(CryptoUtils.KDF_INPUT_LENGTH_BYTES) + 1];
+            rng.nextBytes(pswd);
+            byte[] salt = CryptoUtils.genSalt();
+
+            Argon2BytesGenerator generator = new Argon2BytesGenerator();
+            generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withSalt(salt)
+                .withParallelism(p.getParallelism())
+                .withMemoryAsKB(p.getMemoryKb())
+                .withIterations(p.getIterations())
+                .build());
+            byte[] expected = new byte[CryptoUtils.KDF_OUTPUT_LENGTH_BYTES];
+            generator.generateBytes(pswd, expected);
+
+            assertArrayEquals(expected, CryptoUtils.kdfAndSalt(pswd, salt, p), "Output should be the same as BouncyCastle's for " + p);
+        }
+    }
+
+    @Test
+    public void kdfAndSaltWithReusedMemoryTest() {
+        byte[] pswd = CryptoUtils.decodePswd(EXAMPLE_BASE64_STRING);
+        byte[] salt = CryptoUtils.genSalt();
+        byte[] expected = CryptoUtils.kdfAndSalt(pswd, salt, KdfParams.LEGACY);
+        CryptoUtils.kdfAndSalt(pswd, salt, new KdfParams(1, 2048, 8));  // grows the working memory
+        CryptoUtils.kdfAndSalt(pswd, salt, new KdfParams(1, 8, 1));
+        assertArrayEquals(expected, CryptoUtils.kdfAndSalt(pswd, salt, KdfParams.LEGACY), "Reused working memory should not change the output");
+    }
+
+    @Test
+    public void kdfAndSaltTestVectorsTest() {
+        // made with BouncyCastle's Argon2BytesGenerator, password is bytes 0 to 31, salt is 16 times 0x02
+        byte[] pswd = new byte[CryptoUtils.KDF_INPUT_LENGTH_BYTES];
+        for (int i = 0; i < pswd.length; i++) {
+            pswd[i] = (byte) i;
+        }
+        byte[] salt = new byte[CryptoUtils.SALT_LENGTH_BYTES];
+        Arrays.fill(salt, (byte) 0x02);
+        assertEquals("c422548501d840104fca80973b4bb0472197222c4cda27720c817752301362a5",
+            Hex.toHexString(CryptoUtils.kdfAndSalt(pswd, salt, KdfParams.LEGACY)));
+        assertEquals("3d072fcb5a88ef7870a056ae3c0000b04adf5e91fba0d71cb4f7ac5c36244d75",
+            Hex.toHexString(CryptoUtils.kdfAndSalt(pswd, salt, new KdfParams(1, 64, 2))));
+        assertEquals("2d2fd870111bfb7f7edac4a71db82772f58518a5deb45fffdc3862be8f42f9b1",
+            Hex.toHexString(CryptoUtils.kdfAndSalt(pswd, salt, new KdfParams(3, 256, 4))));
+        assertEquals("a651706f43168da91589d89721aa6be4a1f2a6979ca8648426681247f2b63e04",
+            Hex.toHexString(CryptoUtils.kdfAndSalt(pswd, salt, new KdfParams(2, 40, 1))));
+    }
+
 }
@@ -0,0 +1,101 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatagramTransportTest {
+
+    private static final String EXAMPLE_USERNAME = "JohnDoe";
+    private static final long TIMEOUT_MS = 5000;
+
+    private byte[] key;
+    private DatagramTransport receiving;
+    private SocketAddress receivingAddress;
+    private BlockingQueue<TokenEvent> received;
+
+    public DatagramTransportTest() {
+    }
+
+    @BeforeEach
+    public void initEach() throws Exception {
+        key = CryptoUtils.genRandomBytes(DatagramTransport.KEY_LENGTH_BYTES);
+        receiving = DatagramTransport.open(Executors.defaultThreadFactory(), 0, List.of(), key);
+        receivingAddress = new InetSocketAddress("localhost", receiving.getLocalPort());
+        received = new LinkedBlockingQueue<>();
+        receiving.setReceiver(received::add);
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+        receiving.close();
+    }
+
+    private static TokenEvent event(long sequence) {
+        return new TokenEvent(TokenEvent.Type.ISSUE, 7, sequence, 123, 4, 5, 6, 789, EXAMPLE_USERNAME);
+    }
+
+    @Test
+    public void send_isReceivedByPeer() throws Exception {
+        try (DatagramTransport sending = DatagramTransport.open(Executors.defaultThreadFactory(), 0, List.of(receivingAddress), key)) {
+            sending.send(event(1));
+            TokenEvent event = received.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(event);
+            assertEquals(TokenEvent.Type.ISSUE, event.type);
+            assertEquals(7, event.origin);
+            assertEquals(1, event.sequence);
+            assertEquals(123, event.sentAtMs);
+            assertEquals(4, event.tokenHigh);
+            assertEquals(5, event.tokenLow);
+            assertEquals(6, event.userId);
+            assertEquals(789, event.expirationMs);
+            assertEquals(EXAMPLE_USERNAME, event.username);
+        }
+    }
+
+    @Test
+    public void forgedOrForeignDatagrams_areDropped() throws Exception {
+        byte[] otherKey = CryptoUtils.genRandomBytes(DatagramTransport.KEY_LENGTH_BYTES);
+        try (DatagramTransport foreign = DatagramTransport.open(Executors.defaultThreadFactory(), 0, List.of(receivingAddress), otherKey);
+            DatagramTransport sending = DatagramTransport.open(Executors.defaultThreadFactory(), 0, List.of(receivingAddress), key);
+            DatagramSocket raw = new DatagramSocket()) {
+            foreign.send(event(1));
+            byte[] garbage = event(2).encode();  // right format, but not encrypted
+            raw.send(new DatagramPacket(garbage, garbage.length, receivingAddress));
+            sending.send(event(3));
+
+            TokenEvent event = received.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull(event);
+            assertEquals(3, event.sequence);
+            assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void parsePeers_readsHostsAndPorts() {
+        List<SocketAddress> peers = DatagramTransport.parsePeers(" localhost:7470, 127.0.0.1:7471 ,");
+        assertEquals(List.of(new InetSocketAddress("localhost", 7470), new InetSocketAddress("127.0.0.1", 7471)), peers);
+        assertThrows(IllegalArgumentException.class, () -> DatagramTransport.parsePeers("localhost"));
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiryWheelTest {
+
+    private static final Duration TICK = Duration.ofSeconds(1);
+    private static final int WHEEL_SIZE = 8;
+    private static final long START = 1_000_000L;
+
+    private ExpiryWheel<Long> wheel;  // elements are their own deadlines
+    private List<Long> expired;
+
+    public ExpiryWheelTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        wheel = new ExpiryWheel<>(TICK, WHEEL_SIZE, Long::longValue, START);
+        expired = new ArrayList<>();
+    }
+
+    private int advance(long nowMillis) {
+        return wheel.advance(nowMillis, expired::add);
+    }
+
+    @Test
+    public void element_isNotExpiredBeforeItsDeadline() {
+        wheel.schedule(START + 3_500);
+        assertEquals(0, advance(START + 3_000));
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    public void element_isExpiredWithinOneTickAfterItsDeadline() {
+        wheel.schedule(START + 3_500);
+        assertEquals(1, advance(START + 3_500 + TICK.toMillis()));
+        assertEquals(List.of(START + 3_500), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void elementSeveralRotationsAway_survivesEarlierRotations() {
+        long deadline = START + 3 * WHEEL_SIZE * TICK.toMillis() + 500;
+        wheel.schedule(deadline);
+        for (long now = START; now < deadline; now += TICK.toMillis()) {
+            advance(now);
+        }
+        assertTrue(expired.isEmpty());
+        advance(deadline + TICK.toMillis());
+        assertEquals(List.of(deadline), expired);
+    }
+
+    @Test
+    public void lateAdvance_stillExpiresEverythingDue() {
+        for (int i = 0; i < 3 * WHEEL_SIZE; i++) {
+            wheel.schedule(START + i * TICK.toMillis());
+        }
+        assertEquals(3 * WHEEL_SIZE, advance(START + 10 * WHEEL_SIZE * TICK.toMillis()));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void pollSoonest_returnsElementsInDeadlineOrder() {
+        long laterRotation = START + 2_050 + 2 * WHEEL_SIZE * TICK.toMillis();  // same bucket as START + 2_100
+        wheel.schedule(laterRotation);
+        wheel.schedule(START + 5_700);
+        wheel.schedule(START + 2_900);
+        wheel.schedule(START + 2_100);
+        List<Long> polled = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            polled.add(wheel.pollSoonest());
+        }
+        assertEquals(List.of(START + 2_100, START + 2_900, START + 5_700, laterRotation), polled);
+        assertNull(wheel.pollSoonest());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void elementAlreadyDue_isExpiredOnNextAdvance() {
+        advance(START + 5_000);
+        wheel.schedule(START);
+        assertEquals(1, advance(START + 5_000 + 2 * TICK.toMillis()));
+    }
+
+}
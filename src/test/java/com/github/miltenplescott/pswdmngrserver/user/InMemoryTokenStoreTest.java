@@ -0,0 +1,283 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryTokenStoreTest {
+
+    private static final String EXAMPLE_USERNAME = "JohnDoe";
+    private static final String EXAMPLE_USERNAME_2 = "SomeoneElse";
+    private static final long EXAMPLE_USER_ID = 1;
+    private static final long EXAMPLE_USER_ID_2 = 2;
+    private static final int MAX_SESSIONS = 3;
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 10_000;
+
+    private TokenHasher hasher;
+    private InMemoryTokenStore store;
+    private AtomicInteger tokenCounter;
+    private Instant future;
+
+    public InMemoryTokenStoreTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        hasher = TokenHasher.withRandomKey();
+        store = new InMemoryTokenStore(MAX_SESSIONS, hasher);
+        tokenCounter = new AtomicInteger();
+        future = Instant.ofEpochMilli(System.currentTimeMillis()).plus(Duration.ofMinutes(15));  // tokens expire at ms precision
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+    }
+
+    private byte[] nextToken() {
+        return token(tokenCounter.incrementAndGet());
+    }
+
+    private static byte[] token(int seed) {
+        byte[] token = new byte[AuthTokenManager.TOKEN_LENGTH_BYTES];
+        token[token.length - 1] = (byte) seed;
+        token[token.length - 2] = (byte) (seed >>> 8);
+        token[token.length - 3] = (byte) (seed >>> 16);
+        return token;
+    }
+
+    private void revoke(String username, AuthToken token) {
+        revoke(store, username, token);
+    }
+
+    private void revoke(InMemoryTokenStore from, String username, AuthToken token) {
+        byte[] key = hasher.hash(TokenTable.decodeHigh(token.getToken()), TokenTable.decodeLow(token.getToken()));
+        from.revoke(username, TokenTable.high(key), TokenTable.low(key));
+    }
+
+    @Test
+    public void put_thenGet_returnsSameRecord() {
+        AuthToken issued = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken found = store.get(issued.getToken()).orElseThrow();
+        assertEquals(EXAMPLE_USERNAME, found.getUsername());
+        assertEquals(EXAMPLE_USER_ID, found.getUserId());
+        assertEquals(future, found.getExpiration());
+    }
+
+    @Test
+    public void findUser_ofExpiredToken_returnsNull() {
+        Instant now = Instant.now();
+        AuthToken issued = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, now.plusSeconds(1), this::nextToken);
+        byte[] key = hasher.hash(TokenTable.decodeHigh(issued.getToken()), TokenTable.decodeLow(issued.getToken()));
+        long high = TokenTable.high(key);
+        long low = TokenTable.low(key);
+        assertEquals(new UserPrincipal(EXAMPLE_USER_ID, EXAMPLE_USERNAME), store.findUser(high, low, now.toEpochMilli()));
+        assertNull(store.findUser(high, low, now.plusSeconds(1).toEpochMilli()));
+    }
+
+    @Test
+    public void findUser_byTokenInsteadOfItsKey_returnsNull() {
+        AuthToken issued = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        long nowMs = System.currentTimeMillis();
+        assertNull(store.findUser(TokenTable.decodeHigh(issued.getToken()), TokenTable.decodeLow(issued.getToken()), nowMs));
+        assertTrue(store.get(issued.getToken()).isPresent());
+    }
+
+    @Test
+    public void put_forSameUsername_keepsPreviousSessions() {
+        AuthToken first = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken second = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        assertTrue(store.get(first.getToken()).isPresent());
+        assertTrue(store.get(second.getToken()).isPresent());
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void put_overSessionLimit_evictsOldestSession() {
+        List<AuthToken> issued = new ArrayList<>();
+        for (int i = 0; i <= MAX_SESSIONS; i++) {
+            issued.add(store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken));
+        }
+        assertTrue(store.get(issued.get(0).getToken()).isEmpty());
+        for (int i = 1; i <= MAX_SESSIONS; i++) {
+            assertTrue(store.get(issued.get(i).getToken()).isPresent());
+        }
+        assertEquals(MAX_SESSIONS, store.size());
+    }
+
+    @Test
+    public void put_withCollidingToken_generatesAnotherOne() {
+        AuthToken first = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, () -> token(1));
+        byte[][] candidates = {token(1), token(2)};
+        AtomicInteger i = new AtomicInteger();
+        AuthToken second = store.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, () -> candidates[i.getAndIncrement()]);
+        assertEquals(CryptoUtils.encodeToken(token(2)), second.getToken());
+        assertEquals(EXAMPLE_USERNAME, store.get(first.getToken()).orElseThrow().getUsername());
+    }
+
+    @Test
+    public void revoke_removesThatSessionOnly() {
+        AuthToken first = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken second = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        revoke(EXAMPLE_USERNAME, first);
+        assertTrue(store.get(first.getToken()).isEmpty());
+        assertTrue(store.get(second.getToken()).isPresent());
+    }
+
+    @Test
+    public void revoke_withTokenOfAnotherUser_doesNothing() {
+        store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken other = store.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, this::nextToken);
+        revoke(EXAMPLE_USERNAME, other);
+        assertTrue(store.get(other.getToken()).isPresent());
+    }
+
+    @Test
+    public void revokeAll_removesEverySessionOfThatUsernameOnly() {
+        AuthToken first = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken second = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken other = store.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, this::nextToken);
+        store.revokeAll(EXAMPLE_USERNAME);
+        assertTrue(store.get(first.getToken()).isEmpty());
+        assertTrue(store.get(second.getToken()).isEmpty());
+        assertTrue(store.get(other.getToken()).isPresent());
+    }
+
+    @Test
+    public void removeExpired_removesOnlyExpiredTokens() {
+        Instant now = Instant.now();
+        AuthToken expired = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, now.minusSeconds(1), this::nextToken);
+        AuthToken valid = store.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, this::nextToken);
+        // expired tokens are dropped once the wheel has moved past the tick of their deadline
+        assertEquals(1, store.removeExpired(now.plus(InMemoryTokenStore.EXPIRY_TICK.multipliedBy(2))));
+        assertTrue(store.get(expired.getToken()).isEmpty());
+        assertTrue(store.get(valid.getToken()).isPresent());
+    }
+
+    @Test
+    public void removeExpired_skipsTokensThatWereAlreadyRevoked() {
+        Instant now = Instant.now();
+        store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, now.minusSeconds(1), this::nextToken);
+        store.revokeAll(EXAMPLE_USERNAME);
+        assertTrue(store.getDeadTokenBytes() > 0, "Revoked token is still referenced from the expiry wheel");
+        assertEquals(0, store.removeExpired(now.plus(InMemoryTokenStore.EXPIRY_TICK.multipliedBy(2))));
+        assertEquals(0, store.getDeadTokenBytes());
+    }
+
+    @Test
+    public void put_intoFullStore_evictsSoonestExpiringToken() {
+        InMemoryTokenStore capped = new InMemoryTokenStore(Instant.now(), MAX_SESSIONS, null, 2, TokenCapPolicy.EVICT_SOONEST, hasher);
+        AuthToken later = capped.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future.plusSeconds(60), this::nextToken);
+        AuthToken sooner = capped.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, this::nextToken);
+        List<String> evicted = new ArrayList<>();
+        AuthToken newest = capped.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future.plusSeconds(30), this::nextToken, (name, high, low) -> evicted.add(name));
+        assertTrue(capped.get(sooner.getToken()).isEmpty());
+        assertTrue(capped.get(later.getToken()).isPresent());
+        assertTrue(capped.get(newest.getToken()).isPresent());
+        assertEquals(List.of(EXAMPLE_USERNAME_2), evicted);
+        assertEquals(1, capped.getCapEvictions());
+        assertEquals(2L * InMemoryTokenStore.ESTIMATED_BYTES_PER_TOKEN, capped.getEstimatedBytes());
+        assertEquals(capped.getMaxBytes(), capped.getEstimatedBytes());
+    }
+
+    @Test
+    public void put_intoFullStore_reclaimsRevokedTokensFirst() {
+        InMemoryTokenStore capped = new InMemoryTokenStore(Instant.now(), MAX_SESSIONS, null, 2, TokenCapPolicy.EVICT_SOONEST, hasher);
+        AuthToken revoked = capped.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        AuthToken kept = capped.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future.plusSeconds(60), this::nextToken);
+        revoke(capped, EXAMPLE_USERNAME, revoked);
+        capped.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        assertTrue(capped.get(kept.getToken()).isPresent());
+        assertEquals(0, capped.getCapEvictions());
+    }
+
+    @Test
+    public void put_intoFullStore_withRejectPolicy_throwsException() {
+        InMemoryTokenStore capped = new InMemoryTokenStore(Instant.now(), MAX_SESSIONS, null, 1, TokenCapPolicy.REJECT, hasher);
+        AuthToken first = capped.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+        assertThrows(TokenStoreFullException.class, () -> capped.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, this::nextToken));
+        assertTrue(capped.get(first.getToken()).isPresent());
+        assertEquals(1, capped.getCapRejections());
+        assertEquals(1, capped.size());
+
+        // room again once the token expired
+        capped.removeExpired(future.plus(InMemoryTokenStore.EXPIRY_TICK.multipliedBy(2)));
+        capped.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future.plusSeconds(60), this::nextToken);
+        assertEquals(1, capped.size());
+    }
+
+    @Test
+    public void concurrentPuts_neverExceedTokenCap() throws Exception {
+        int maxTokens = 100;
+        InMemoryTokenStore capped = new InMemoryTokenStore(Instant.now(), MAX_SESSIONS, null, maxTokens, TokenCapPolicy.EVICT_SOONEST, hasher);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    capped.put(i, "user" + thread + "-" + i, future, this::nextToken);
+                    assertTrue(capped.size() <= maxTokens);
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertEquals(maxTokens, capped.size());
+        assertEquals(THREADS * ITERATIONS - maxTokens, capped.getCapEvictions());
+    }
+
+    @Test
+    public void concurrentPutAndRevoke_neverExceedSessionLimit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final boolean revoking = (t % 2 == 0);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    if (revoking && i % 3 == 0) {
+                        store.revokeAll(EXAMPLE_USERNAME);
+                    }
+                    else {
+                        AuthToken issued = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, this::nextToken);
+                        store.get(issued.getToken());  // lookups run alongside writers
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(store.size() <= MAX_SESSIONS, "Tokens of evicted or revoked sessions must not stay in the store");
+    }
+
+}
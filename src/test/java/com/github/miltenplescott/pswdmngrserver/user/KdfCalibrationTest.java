@@ -0,0 +1,108 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KdfCalibrationTest {
+
+    private static final int SAMPLES = 3;
+    private static final int THREADS = 2;
+
+    public KdfCalibrationTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+    }
+
+    // takes 1 ms per iteration and MiB, so the cost of a grid point is its latency
+    private static void sleepingKdf(KdfParams params) {
+        try {
+            Thread.sleep((long) params.getIterations() * params.getMemoryKb() / 1024);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private KdfCalibration calibration(List<KdfParams> grid, Duration latencyBudget, Consumer<KdfParams> kdf) {
+        return new KdfCalibration(Executors.defaultThreadFactory(), grid, SAMPLES, THREADS, latencyBudget, kdf);
+    }
+
+    @Test
+    public void grid_isEveryValidCombination() {
+        List<KdfParams> grid = KdfCalibration.grid("1, 2", "16,64", "1,4");
+        assertEquals(List.of(
+            new KdfParams(1, 16, 1), new KdfParams(1, 64, 1), new KdfParams(1, 64, 4),
+            new KdfParams(2, 16, 1), new KdfParams(2, 64, 1), new KdfParams(2, 64, 4)), grid);  // 16 KiB is too little for 4 lanes
+    }
+
+    @Test
+    public void run_measuresEveryGridPoint() {
+        List<KdfParams> grid = KdfCalibration.grid("1,2", "10240", "1");
+        KdfCalibration calibration = calibration(grid, Duration.ofSeconds(1), KdfCalibrationTest::sleepingKdf);
+        List<KdfCalibration.Result> results = calibration.run();
+
+        assertEquals(2, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            KdfCalibration.Result result = results.get(i);
+            long expectedMs = 10L * (i + 1);
+            assertEquals(grid.get(i), result.params);
+            assertTrue(result.p50Nanos >= expectedMs * 1_000_000);
+            assertTrue(result.p50Nanos <= result.p95Nanos && result.p95Nanos <= result.p99Nanos);
+            // every thread runs a KDF at once, so at most threads per latency
+            assertTrue(result.loginsPerSecond > 0 && result.loginsPerSecond <= THREADS * 1000.0 / expectedMs);
+        }
+        assertEquals(results, calibration.getResults());
+    }
+
+    @Test
+    public void run_recommendsStrongestWithinBudget() {
+        List<KdfParams> grid = KdfCalibration.grid("1,2,40", "1024,2048", "1");
+        KdfCalibration calibration = calibration(grid, Duration.ofMillis(30), KdfCalibrationTest::sleepingKdf);
+        calibration.run();
+
+        assertEquals(new KdfParams(2, 2048, 1), calibration.getRecommended().params);
+    }
+
+    @Test
+    public void run_nothingWithinBudget_recommendsNothing() {
+        List<KdfParams> grid = KdfCalibration.grid("10", "2048", "1");
+        KdfCalibration calibration = calibration(grid, Duration.ofMillis(1), KdfCalibrationTest::sleepingKdf);
+        calibration.run();
+
+        assertNull(calibration.getRecommended());
+        assertEquals(1, calibration.getResults().size());
+    }
+
+    @Test
+    public void run_kdfFails_keepsLastResults() {
+        KdfCalibration calibration = calibration(KdfCalibration.grid("1", "64", "1"), Duration.ofSeconds(1), params -> {
+            throw new IllegalStateException();
+        });
+        assertThrows(IllegalStateException.class, calibration::run);
+        assertTrue(calibration.getResults().isEmpty());
+        assertNull(calibration.getRecommended());
+    }
+
+}
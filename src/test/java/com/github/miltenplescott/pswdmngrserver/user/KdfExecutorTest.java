@@ -0,0 +1,214 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KdfExecutorTest {
+
+    private static final int QUEUE_CAPACITY = 4;
+    private static final Duration MAX_QUEUE_WAIT = Duration.ofSeconds(10);
+    private static final long TIMEOUT_MS = 5000;
+
+    private KdfExecutor executor;
+    private ExecutorService callers;
+    private CountDownLatch release;
+
+    public KdfExecutorTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        callers = Executors.newCachedThreadPool();
+        release = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+        callers.shutdownNow();
+    }
+
+    // occupies the only KDF thread until release is counted down
+    private Future<byte[]> blockThread() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        Future<byte[]> blocker = callers.submit(() -> executor.run(KdfPriority.LOGIN, () -> {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return new byte[0];
+        }));
+        assertTrue(started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        return blocker;
+    }
+
+    private Future<byte[]> submit(KdfPriority priority, byte marker, List<Byte> order) throws InterruptedException {
+        int depth = executor.getQueueDepth();
+        Future<byte[]> future = callers.submit(() -> executor.run(priority, () -> {
+            order.add(marker);
+            return new byte[]{marker};
+        }));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (executor.getQueueDepth() == depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return future;
+    }
+
+    @Test
+    public void run_returnsKdfResult() {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 2, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        assertArrayEquals(new byte[]{1, 2, 3}, executor.run(KdfPriority.SIGNUP, () -> new byte[]{1, 2, 3}));
+        assertEquals(1, executor.getCompletedJobs());
+        assertEquals(0, executor.getQueueDepth());
+    }
+
+    @Test
+    public void completedJobs_isCountedBeforeCallerGetsResult() {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 2, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        for (int i = 1; i <= 1000; i++) {
+            executor.run(KdfPriority.LOGIN, () -> new byte[0]);
+            assertEquals(i, executor.getCompletedJobs());
+        }
+    }
+
+    @Test
+    public void run_rethrowsKdfException() {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        assertThrows(IllegalStateException.class, () -> executor.run(KdfPriority.LOGIN, () -> {
+            throw new IllegalStateException();
+        }));
+    }
+
+    @Test
+    public void queuedLogins_runBeforeQueuedSignups() throws Exception {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        List<Byte> order = Collections.synchronizedList(new ArrayList<>());
+        Future<byte[]> blocker = blockThread();
+        Future<byte[]> signup = submit(KdfPriority.SIGNUP, (byte) 1, order);
+        Future<byte[]> firstLogin = submit(KdfPriority.LOGIN, (byte) 2, order);
+        Future<byte[]> secondLogin = submit(KdfPriority.LOGIN, (byte) 3, order);
+        assertEquals(3, executor.getQueueDepth());
+
+        release.countDown();
+        for (Future<byte[]> future : List.of(blocker, signup, firstLogin, secondLogin)) {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(List.of((byte) 2, (byte) 3, (byte) 1), order);
+    }
+
+    @Test
+    public void submit_doesNotWait_andBulkRunsAfterSignups() throws Exception {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        List<Byte> order = Collections.synchronizedList(new ArrayList<>());
+        blockThread();
+        CompletableFuture<byte[]> bulk = executor.submit(KdfPriority.BULK, () -> {
+            order.add((byte) 1);
+            return new byte[]{1};
+        });
+        Future<byte[]> signup = submit(KdfPriority.SIGNUP, (byte) 2, order);
+        assertFalse(bulk.isDone());
+        release.countDown();
+
+        assertArrayEquals(new byte[]{1}, bulk.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        signup.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(List.of((byte) 2, (byte) 1), order);
+    }
+
+    @Test
+    public void fullQueue_rejectsSignupsFirst_thenLogins() throws Exception {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        List<Byte> order = Collections.synchronizedList(new ArrayList<>());
+        blockThread();
+        for (int i = 0; i < QUEUE_CAPACITY / 2; i++) {
+            submit(KdfPriority.SIGNUP, (byte) i, order);
+        }
+        assertThrows(KdfRejectedException.class, () -> executor.run(KdfPriority.SIGNUP, () -> new byte[0]));
+
+        for (int i = QUEUE_CAPACITY / 2; i < QUEUE_CAPACITY; i++) {  // rest of the queue is kept for logins
+            submit(KdfPriority.LOGIN, (byte) i, order);
+        }
+        assertEquals(QUEUE_CAPACITY, executor.getQueueDepth());
+        assertThrows(KdfRejectedException.class, () -> executor.run(KdfPriority.LOGIN, () -> new byte[0]));
+        assertEquals(2, executor.getRejectedJobs());
+    }
+
+    @Test
+    public void jobWaitingTooLong_isDroppedWithoutRunning() throws Exception {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, Duration.ofMillis(50));
+        AtomicBoolean ran = new AtomicBoolean();
+        blockThread();
+        Future<byte[]> late = callers.submit(() -> executor.run(KdfPriority.LOGIN, () -> {
+            ran.set(true);
+            return new byte[0];
+        }));
+        Thread.sleep(100);
+        release.countDown();
+
+        Exception ex = assertThrows(Exception.class, () -> late.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(ex.getCause() instanceof KdfRejectedException);
+        assertFalse(ran.get());
+        assertEquals(1, executor.getTimedOutJobs());
+        assertTrue(executor.getMaxQueueWaitMs() > 50);
+    }
+
+    @Test
+    public void cancelledJob_doesNotRun() throws Exception {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        AtomicBoolean ran = new AtomicBoolean();
+        Future<byte[]> blocker = blockThread();
+        CompletableFuture<byte[]> cancelled = executor.submit(KdfPriority.LOGIN, () -> {
+            ran.set(true);
+            return new byte[0];
+        });
+        cancelled.cancel(false);
+        release.countDown();
+        blocker.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // the job after it shows the thread has been past it
+        assertArrayEquals(new byte[]{1}, executor.submit(KdfPriority.LOGIN, () -> new byte[]{1}).get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertFalse(ran.get());
+        assertEquals(1, executor.getTimedOutJobs());
+    }
+
+    @Test
+    public void shutdown_rejectsQueuedJobs() throws Exception {
+        executor = new KdfExecutor(Executors.defaultThreadFactory(), 1, QUEUE_CAPACITY, MAX_QUEUE_WAIT);
+        blockThread();
+        Future<byte[]> queued = submit(KdfPriority.LOGIN, (byte) 1, new ArrayList<>());
+        executor.shutdown();
+
+        Exception ex = assertThrows(Exception.class, () -> queued.get(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(ex.getCause() instanceof KdfRejectedException);
+        assertThrows(KdfRejectedException.class, () -> executor.run(KdfPriority.LOGIN, () -> new byte[0]));
+    }
+
+}
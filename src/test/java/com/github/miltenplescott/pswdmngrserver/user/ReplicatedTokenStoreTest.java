@@ -0,0 +1,319 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicatedTokenStoreTest {
+
+    private static final String EXAMPLE_USERNAME = "JohnDoe";
+    private static final String EXAMPLE_USERNAME_2 = "SomeoneElse";
+    private static final long EXAMPLE_USER_ID = 1;
+    private static final long EXAMPLE_USER_ID_2 = 2;
+    private static final int MAX_SESSIONS = 2;
+    private static final Duration MAX_STALENESS = Duration.ofSeconds(15);
+    private static final long OTHER_NODE = 42;
+
+    // drops the events it is told to, as UDP may
+    private static final class LossyTransport implements TokenReplicationTransport {
+
+        private final TokenReplicationTransport delivered;
+        private int dropNext;
+
+        LossyTransport(TokenReplicationTransport delivered) {
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void send(TokenEvent event) {
+            if (dropNext > 0) {
+                dropNext--;
+                return;
+            }
+            delivered.send(event);
+        }
+
+        @Override
+        public void setReceiver(Consumer<TokenEvent> receiver) {
+            delivered.setReceiver(receiver);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delivered.close();
+        }
+
+    }
+
+    private LoopbackTransport.Hub hub;
+    private TokenHasher hasher;  // same key on all nodes
+    private AtomicLong clockMs;
+    private AtomicInteger tokenCounter;
+    private ReplicatedTokenStore nodeA;
+    private ReplicatedTokenStore nodeB;
+    private long futureMs;
+
+    public ReplicatedTokenStoreTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        clockMs = new AtomicLong(System.currentTimeMillis());
+        tokenCounter = new AtomicInteger();
+        hub = new LoopbackTransport.Hub();
+        hasher = TokenHasher.withRandomKey();
+        nodeA = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, hub.connect(), MAX_STALENESS, clockMs::get);
+        nodeB = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, hub.connect(), MAX_STALENESS, clockMs::get);
+        futureMs = clockMs.get() + Duration.ofMinutes(15).toMillis();
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+    }
+
+    private byte[] nextToken() {
+        byte[] token = new byte[AuthTokenManager.TOKEN_LENGTH_BYTES];
+        token[token.length - 1] = (byte) tokenCounter.incrementAndGet();
+        return token;
+    }
+
+    private AuthToken put(ReplicatedTokenStore node, long userId, String username) {
+        return node.put(userId, username, Instant.ofEpochMilli(futureMs), this::nextToken);
+    }
+
+    private byte[] key(AuthToken token) {
+        return hasher.hash(TokenTable.decodeHigh(token.getToken()), TokenTable.decodeLow(token.getToken()));
+    }
+
+    private String findUsername(ReplicatedTokenStore node, AuthToken token) {
+        byte[] key = key(token);
+        return username(node.findUser(TokenTable.high(key), TokenTable.low(key), clockMs.get()));
+    }
+
+    private void revoke(ReplicatedTokenStore node, AuthToken token) {
+        byte[] key = key(token);
+        node.revoke(token.getUsername(), TokenTable.high(key), TokenTable.low(key));
+    }
+
+    private TokenEvent event(TokenEvent.Type type, long sequence, long sentAtMs, int tokenSeed, String username) {
+        return new TokenEvent(type, OTHER_NODE, sequence, sentAtMs, 0, tokenSeed, EXAMPLE_USER_ID, futureMs, username);
+    }
+
+    private String findUsername(ReplicatedTokenStore node, int tokenSeed) {
+        return username(node.findUser(0, tokenSeed, clockMs.get()));
+    }
+
+    private static String username(UserPrincipal user) {
+        return (user == null) ? null : user.getName();
+    }
+
+    @Test
+    public void put_onOneNode_isFoundOnTheOther() {
+        AuthToken token = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeB, token));
+        assertEquals(EXAMPLE_USER_ID, nodeB.get(token.getToken()).orElseThrow().getUserId());
+        assertEquals(1, nodeB.getPeers());
+    }
+
+    @Test
+    public void revoke_onOtherNode_revokesEverywhere() {
+        AuthToken token = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        revoke(nodeB, token);
+        assertNull(findUsername(nodeA, token));
+        assertNull(findUsername(nodeB, token));
+    }
+
+    @Test
+    public void revokeAll_revokesTokensIssuedOnEveryNode() {
+        AuthToken first = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        AuthToken second = put(nodeB, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        AuthToken other = put(nodeB, EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2);
+        nodeA.revokeAll(EXAMPLE_USERNAME);
+        for (ReplicatedTokenStore node : new ReplicatedTokenStore[]{nodeA, nodeB}) {
+            assertNull(findUsername(node, first));
+            assertNull(findUsername(node, second));
+            assertEquals(EXAMPLE_USERNAME_2, findUsername(node, other));
+        }
+    }
+
+    @Test
+    public void evictedToken_isRevokedOnTheOtherNode() {
+        AuthToken oldest = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        }
+        assertNull(findUsername(nodeA, oldest));
+        assertNull(findUsername(nodeB, oldest));
+        assertEquals(MAX_SESSIONS, nodeB.size());
+    }
+
+    @Test
+    public void replicas_doNotCountAgainstTheLocalCap() {
+        LoopbackTransport.Hub pair = new LoopbackTransport.Hub();
+        ReplicatedTokenStore nodeC = new ReplicatedTokenStore(new InMemoryTokenStore(Instant.now(), MAX_SESSIONS, null, 1, TokenCapPolicy.REJECT, hasher),
+            InMemoryTokenStore::new, pair.connect(), MAX_STALENESS, clockMs::get);
+        ReplicatedTokenStore nodeD = new ReplicatedTokenStore(new InMemoryTokenStore(Instant.now(), MAX_SESSIONS, null, 1, TokenCapPolicy.REJECT, hasher),
+            InMemoryTokenStore::new, pair.connect(), MAX_STALENESS, clockMs::get);
+        AuthToken ownToken = put(nodeD, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        AuthToken peerToken = put(nodeC, EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2);
+
+        // nodeD's one token fills its cap, nodeC's token is still taken, and the other way round
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeD, ownToken));
+        assertEquals(EXAMPLE_USERNAME_2, findUsername(nodeD, peerToken));
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeC, ownToken));
+        assertEquals(0, nodeC.getCapRejections() + nodeD.getCapRejections());
+        assertEquals(0, nodeC.getReplicaDrops() + nodeD.getReplicaDrops());
+        assertEquals(2 * InMemoryTokenStore.ESTIMATED_BYTES_PER_TOKEN, nodeD.getMaxBytes());  // its own cap and nodeC's
+    }
+
+    @Test
+    public void lostEvent_dropsEverythingLearnedFromThatNode() {
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 0, clockMs.get(), 1, EXAMPLE_USERNAME));
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeB, 1));
+
+        // sequence number 1 is missing, it may have revoked token 1
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 2, clockMs.get(), 2, EXAMPLE_USERNAME));
+        assertNull(findUsername(nodeB, 1));
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeB, 2));
+        assertEquals(1, nodeB.getReplicaResets());
+        assertEquals(1, nodeB.getReplicaDrops());
+
+        // duplicates are ignored
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 2, clockMs.get(), 3, EXAMPLE_USERNAME));
+        assertNull(findUsername(nodeB, 3));
+    }
+
+    @Test
+    public void lostEvent_peerSendsItsTokensAgain() {
+        // a pair of its own: with nodeA listening too, the loopback would hand nodeD the snapshot nodeA asked for before
+        // the event that showed nodeD the gap
+        LoopbackTransport.Hub pair = new LoopbackTransport.Hub();
+        LossyTransport lossy = new LossyTransport(pair.connect());
+        ReplicatedTokenStore nodeC = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, lossy, MAX_STALENESS, clockMs::get);
+        ReplicatedTokenStore nodeD = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, pair.connect(), MAX_STALENESS, clockMs::get);
+        AuthToken first = put(nodeC, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        lossy.dropNext = 1;
+        AuthToken lost = put(nodeC, EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2);
+        assertNull(findUsername(nodeD, lost));
+
+        // the next event shows the gap, nodeD asks for a snapshot and nodeC answers right away over the loopback
+        long requestsBefore = nodeD.getSnapshotRequests();
+        clockMs.addAndGet(InMemoryTokenStore.EXPIRY_TICK.toMillis());
+        AuthToken next = put(nodeC, EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2);
+        assertEquals(1, nodeD.getReplicaResets());
+        assertEquals(requestsBefore + 1, nodeD.getSnapshotRequests());
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeD, first));
+        assertEquals(EXAMPLE_USERNAME_2, findUsername(nodeD, lost));
+        assertEquals(EXAMPLE_USERNAME_2, findUsername(nodeD, next));
+
+        // the snapshot was complete, so nodeD doesn't ask again
+        clockMs.addAndGet(InMemoryTokenStore.EXPIRY_TICK.toMillis());
+        nodeC.removeExpired(Instant.ofEpochMilli(clockMs.get()));
+        assertEquals(requestsBefore + 1, nodeD.getSnapshotRequests());
+    }
+
+    @Test
+    public void lostSnapshotEvent_snapshotIsRequestedAgain() {
+        // a pair of its own, see above
+        LoopbackTransport.Hub pair = new LoopbackTransport.Hub();
+        LossyTransport lossy = new LossyTransport(pair.connect());
+        ReplicatedTokenStore nodeC = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, lossy, MAX_STALENESS, clockMs::get);
+        ReplicatedTokenStore nodeD = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, pair.connect(), MAX_STALENESS, clockMs::get);
+        AuthToken token = put(nodeC, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        lossy.dropNext = 1;
+        revoke(nodeC, put(nodeC, EXAMPLE_USER_ID, EXAMPLE_USERNAME));  // the issue is lost, the gap shows right away
+
+        // the snapshot nodeD asked for lost its first event as well
+        lossy.dropNext = 1;
+        clockMs.addAndGet(InMemoryTokenStore.EXPIRY_TICK.toMillis());
+        nodeC.removeExpired(Instant.ofEpochMilli(clockMs.get()));
+        assertNull(findUsername(nodeD, token));
+
+        // so the next event after a tick asks again
+        clockMs.addAndGet(InMemoryTokenStore.EXPIRY_TICK.toMillis());
+        nodeC.removeExpired(Instant.ofEpochMilli(clockMs.get()));
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeD, token));
+    }
+
+    @Test
+    public void nodeStartedLater_learnsTokensIssuedBefore() {
+        AuthToken token = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        ReplicatedTokenStore nodeC = new ReplicatedTokenStore(new InMemoryTokenStore(MAX_SESSIONS, hasher), InMemoryTokenStore::new, hub.connect(), MAX_STALENESS, clockMs::get);
+        assertNull(findUsername(nodeC, token));
+
+        // first heartbeat nodeC hears from nodeA
+        clockMs.addAndGet(InMemoryTokenStore.EXPIRY_TICK.toMillis());
+        nodeA.removeExpired(Instant.ofEpochMilli(clockMs.get()));
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeC, token));
+        assertEquals(1, nodeC.getSnapshotRequests());
+    }
+
+    @Test
+    public void lateEvent_dropsReplica_andLagIsMeasured() {
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 0, clockMs.get() - 1000, 1, EXAMPLE_USERNAME));
+        assertEquals(1000, nodeB.getMaxLagMs());
+
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 1, clockMs.get() - MAX_STALENESS.toMillis() - 1, 2, EXAMPLE_USERNAME));
+        assertNull(findUsername(nodeB, 1));
+        assertNull(findUsername(nodeB, 2));
+        assertEquals(1, nodeB.getReplicaResets());
+        assertEquals(2, nodeB.getReplicaDrops());  // token 1 with the replica, token 2 too late
+        assertEquals(MAX_STALENESS.toMillis() + 1, nodeB.getMaxLagMs());
+    }
+
+    @Test
+    public void silentNode_isForgotten_afterMaxStaleness() {
+        AuthToken token = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        clockMs.addAndGet(MAX_STALENESS.toMillis() + 1);
+        nodeB.removeExpired(Instant.ofEpochMilli(clockMs.get()));  // nodeA sent no heartbeat in the meantime
+        assertEquals(0, nodeB.getPeers());
+        assertNull(findUsername(nodeB, token));
+        assertEquals(1, nodeB.getReplicaDrops());
+    }
+
+    @Test
+    public void heartbeats_keepNodesConnected() {
+        AuthToken token = put(nodeA, EXAMPLE_USER_ID, EXAMPLE_USERNAME);
+        for (int i = 0; i < 10; i++) {
+            clockMs.addAndGet(InMemoryTokenStore.EXPIRY_TICK.toMillis());
+            nodeA.removeExpired(Instant.ofEpochMilli(clockMs.get()));
+            nodeB.removeExpired(Instant.ofEpochMilli(clockMs.get()));
+        }
+        assertEquals(1, nodeB.getPeers());
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeB, token));
+    }
+
+    @Test
+    public void issueSentBeforeRevokeAll_isNotApplied() {
+        long revokedAtMs = clockMs.get();
+        nodeB.revokeAll(EXAMPLE_USERNAME);
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 0, revokedAtMs - 1, 1, EXAMPLE_USERNAME));
+        assertNull(findUsername(nodeB, 1));
+        nodeB.receive(event(TokenEvent.Type.ISSUE, 1, revokedAtMs + 1, 2, EXAMPLE_USERNAME));
+        assertEquals(EXAMPLE_USERNAME, findUsername(nodeB, 2));
+    }
+
+    @Test
+    public void maxStaleness_notLongerThanHeartbeatPeriod_throwsException() {
+        LoopbackTransport.Hub hub = new LoopbackTransport.Hub();
+        assertThrows(IllegalArgumentException.class,
+            () -> new ReplicatedTokenStore(new InMemoryTokenStore(), InMemoryTokenStore::new, hub.connect(), InMemoryTokenStore.EXPIRY_TICK));
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignedTokenManagerTest {
+
+    private static final String EXAMPLE_USERNAME = "JohnDoe";
+    private static final long EXAMPLE_USER_ID = 42;
+    private static final byte[] KEY_1 = CryptoUtils.genRandomBytes(SignedTokenManager.MIN_KEY_LENGTH_BYTES);
+    private static final byte[] KEY_2 = CryptoUtils.genRandomBytes(SignedTokenManager.MIN_KEY_LENGTH_BYTES);
+
+    private Map<Long, Integer> storedEpochs;  // stands in for the token_epoch column
+    private SignedTokenManager manager;
+    private Instant expiration;
+
+    public SignedTokenManagerTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        storedEpochs = new ConcurrentHashMap<>();
+        manager = manager(Map.of((byte) 1, KEY_1), (byte) 1, SignedTokenManager.DEFAULT_EPOCH_CACHE_EXPIRY);
+        expiration = Instant.now().plus(Duration.ofMinutes(15));
+    }
+
+    private SignedTokenManager manager(Map<Byte, byte[]> keys, byte activeKeyId, Duration epochCacheExpiry) {
+        return new SignedTokenManager(keys, activeKeyId, userId -> storedEpochs.getOrDefault(userId, 0), epochCacheExpiry);
+    }
+
+    // what AuthTokenManager does on logout
+    private void revoke(SignedTokenManager node, long userId) {
+        storedEpochs.merge(userId, 1, Integer::sum);
+        node.forgetEpoch(userId);
+    }
+
+    private AuthToken verify(SignedTokenManager verifier, String token) {
+        return verifier.verify(token, CryptoUtils.decodeToken(token)).orElse(null);
+    }
+
+    @Test
+    public void issuedToken_verifiesWithItsClaims() {
+        String token = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        AuthToken verified = verify(manager, token);
+        assertNotNull(verified);
+        assertEquals(EXAMPLE_USER_ID, verified.getUserId());
+        assertEquals(EXAMPLE_USERNAME, verified.getUsername());
+        assertEquals(expiration.toEpochMilli(), verified.getExpiration().toEpochMilli());
+    }
+
+    @Test
+    public void issuedToken_verifiesOnAnotherNodeWithTheSameKey() {
+        String token = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        SignedTokenManager otherNode = manager(Map.of((byte) 1, KEY_1), (byte) 1, SignedTokenManager.DEFAULT_EPOCH_CACHE_EXPIRY);
+        assertNotNull(verify(otherNode, token));
+    }
+
+    @Test
+    public void tamperedToken_isRejected() {
+        byte[] decoded = CryptoUtils.decodeToken(manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken());
+        decoded[3] ^= 1;  // part of user id
+        String tampered = CryptoUtils.encodeToken(decoded);
+        assertNull(verify(manager, tampered));
+    }
+
+    @Test
+    public void tokenSignedWithUnknownKey_isRejected() {
+        SignedTokenManager otherKey = manager(Map.of((byte) 1, KEY_2), (byte) 1, SignedTokenManager.DEFAULT_EPOCH_CACHE_EXPIRY);
+        String token = otherKey.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        assertNull(verify(manager, token));
+    }
+
+    @Test
+    public void tokenSignedWithRetiredKey_stillVerifiesAfterRotation() {
+        String oldToken = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        SignedTokenManager rotated = manager(Map.of((byte) 1, KEY_1, (byte) 2, KEY_2), (byte) 2, SignedTokenManager.DEFAULT_EPOCH_CACHE_EXPIRY);
+        assertNotNull(verify(rotated, oldToken));
+        assertNotNull(verify(rotated, rotated.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken()));
+    }
+
+    @Test
+    public void revoke_invalidatesEarlierTokensOnly() {
+        String before = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        revoke(manager, EXAMPLE_USER_ID);
+        String after = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        assertNull(verify(manager, before));
+        assertNotNull(verify(manager, after));
+    }
+
+    @Test
+    public void revoke_outlivesRestart() {
+        String before = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        revoke(manager, EXAMPLE_USER_ID);
+        SignedTokenManager restarted = manager(Map.of((byte) 1, KEY_1), (byte) 1, SignedTokenManager.DEFAULT_EPOCH_CACHE_EXPIRY);
+        assertNull(verify(restarted, before));
+    }
+
+    @Test
+    public void revoke_reachesOtherNodeOnceItsCacheExpires() {
+        String before = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        SignedTokenManager otherNode = manager(Map.of((byte) 1, KEY_1), (byte) 1, Duration.ZERO);  // nothing cached
+        assertNotNull(verify(otherNode, before));
+        revoke(manager, EXAMPLE_USER_ID);
+        assertNull(verify(otherNode, before));
+    }
+
+    @Test
+    public void deletedUser_tokensAreRejected() {
+        String token = manager.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken();
+        SignedTokenManager node = new SignedTokenManager(Map.of((byte) 1, KEY_1), (byte) 1, userId -> -1, Duration.ZERO);
+        assertNull(verify(node, token));
+    }
+
+    @Test
+    public void fromConfig_signsWithHighestKeyIdByDefault() {
+        System.setProperty("pswdmngr.token.signingKeys",
+            "2:" + CryptoUtils.encodeToken(KEY_2) + ",1:" + CryptoUtils.encodeToken(KEY_1) + ",7:" + CryptoUtils.encodeToken(KEY_1));
+        try {
+            SignedTokenManager configured = SignedTokenManager.fromConfig(userId -> 0);
+            byte[] decoded = CryptoUtils.decodeToken(configured.issue(EXAMPLE_USER_ID, EXAMPLE_USERNAME, expiration).getToken());
+            assertEquals(7, decoded[1]);  // key id
+        }
+        finally {
+            System.clearProperty("pswdmngr.token.signingKeys");
+        }
+    }
+
+    @Test
+    public void tokenOfMaximumUsernameLength_hasCorrectLength() {
+        String token = manager.issue(EXAMPLE_USER_ID, "x".repeat(User.USERNAME_MAX_LENGTH), expiration).getToken();
+        assertEquals(SignedTokenManager.MAX_TOKEN_LENGTH_BYTES, CryptoUtils.decodeToken(token).length);
+        assertTrue(manager.hasCorrectLength(CryptoUtils.decodeToken(token).length));
+        assertFalse(manager.hasCorrectLength(AuthTokenManager.TOKEN_LENGTH_BYTES));
+    }
+
+    @Test
+    public void shortSigningKey_isRefused() {
+        assertThrows(IllegalArgumentException.class,
+            () -> manager(Map.of((byte) 1, new byte[SignedTokenManager.MIN_KEY_LENGTH_BYTES - 1]), (byte) 1, Duration.ZERO));
+    }
+
+}
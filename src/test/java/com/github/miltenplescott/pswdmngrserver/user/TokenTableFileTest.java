@@ -0,0 +1,179 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenTableFileTest {
+
+    private static final String EXAMPLE_USERNAME = "JohnDoe";
+    private static final String EXAMPLE_USERNAME_2 = "SomeoneElse";
+    private static final long EXAMPLE_USER_ID = 1;
+    private static final long EXAMPLE_USER_ID_2 = 2;
+    private static final int SLOTS = 4;
+
+    private Path path;
+    private Instant now;
+    private Instant future;
+
+    public TokenTableFileTest() {
+    }
+
+    @BeforeEach
+    public void initEach() throws Exception {
+        path = Files.createTempFile("tokens", ".bin");
+        now = Instant.ofEpochMilli(System.currentTimeMillis());
+        future = now.plus(Duration.ofMinutes(15));
+    }
+
+    @AfterEach
+    public void tearDownEach() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    private static byte[] token(int seed) {
+        byte[] token = new byte[AuthTokenManager.TOKEN_LENGTH_BYTES];
+        token[0] = (byte) seed;
+        return token;
+    }
+
+    private List<Object[]> reopenAndLoad() throws Exception {
+        List<Object[]> loaded = new ArrayList<>();
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            file.load(now, (slot, keyHigh, keyLow, userId, username, expiration) -> loaded.add(new Object[]{keyLow, userId, username, expiration}));
+        }
+        return loaded;
+    }
+
+    @Test
+    public void write_thenReopen_loadsSameKey() throws Exception {
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            file.load(now, (slot, keyHigh, keyLow, userId, username, expiration) -> fail("New file has no tokens"));
+            assertTrue(file.write(0, 7, EXAMPLE_USER_ID, EXAMPLE_USERNAME, future) > 0);
+        }
+        List<Object[]> loaded = reopenAndLoad();
+        assertEquals(1, loaded.size());
+        assertEquals(7L, loaded.get(0)[0]);
+        assertEquals(EXAMPLE_USER_ID, loaded.get(0)[1]);
+        assertEquals(EXAMPLE_USERNAME, loaded.get(0)[2]);
+        assertEquals(future, loaded.get(0)[3]);
+    }
+
+    @Test
+    public void freedAndExpiredSlots_areNotLoaded() throws Exception {
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            file.load(now, (slot, keyHigh, keyLow, userId, username, expiration) -> {});
+            file.free(file.write(0, 1, EXAMPLE_USER_ID, EXAMPLE_USERNAME, future));
+            file.write(0, 2, EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, now.minusSeconds(1));
+        }
+        assertTrue(reopenAndLoad().isEmpty());
+    }
+
+    @Test
+    public void corruptedSlot_isNotLoaded() throws Exception {
+        int slot;
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            file.load(now, (s, keyHigh, keyLow, userId, username, expiration) -> {});
+            slot = file.write(0, 1, EXAMPLE_USER_ID, EXAMPLE_USERNAME, future);
+        }
+        try (RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+            raw.seek(slot * TokenTableFile.SLOT_SIZE_BYTES + 30L);  // inside user id
+            raw.write(0xff);
+        }
+        assertTrue(reopenAndLoad().isEmpty());
+    }
+
+    @Test
+    public void fullFile_returnsNoSlot() throws Exception {
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            file.load(now, (slot, keyHigh, keyLow, userId, username, expiration) -> {});
+            for (int i = 1; i < SLOTS; i++) {
+                assertTrue(file.write(0, i, i, EXAMPLE_USERNAME, future) > 0);
+            }
+            assertEquals(-1, file.write(0, SLOTS, SLOTS, EXAMPLE_USERNAME, future));
+            assertEquals(0, file.getFreeSlots());
+        }
+    }
+
+    @Test
+    public void differentlySizedFile_startsEmpty() throws Exception {
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS * 2)) {
+            file.load(now, (slot, keyHigh, keyLow, userId, username, expiration) -> {});
+            file.write(0, 1, EXAMPLE_USER_ID, EXAMPLE_USERNAME, future);
+        }
+        assertTrue(reopenAndLoad().isEmpty());
+    }
+
+    @Test
+    public void tokenStore_restoresLiveTokensAfterRestart() throws Exception {
+        String kept;
+        String revoked;
+        TokenHasher hasher = TokenHasher.withRandomKey();  // the server key stays the same across the restart
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            InMemoryTokenStore store = new InMemoryTokenStore(now, InMemoryTokenStore.DEFAULT_MAX_SESSIONS_PER_USER, file, hasher);
+            kept = store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, () -> token(1)).getToken();
+            revoked = store.put(EXAMPLE_USER_ID_2, EXAMPLE_USERNAME_2, future, () -> token(2)).getToken();
+            store.revokeAll(EXAMPLE_USERNAME_2);
+        }
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            InMemoryTokenStore store = new InMemoryTokenStore(now, InMemoryTokenStore.DEFAULT_MAX_SESSIONS_PER_USER, file, hasher);
+            assertEquals(EXAMPLE_USERNAME, store.get(kept).orElseThrow().getUsername());
+            assertTrue(store.get(revoked).isEmpty());
+            assertEquals(1, store.size());
+        }
+    }
+
+    @Test
+    public void tokenStore_restoresTokenInTwoSlotsOnce() throws Exception {
+        TokenHasher hasher = TokenHasher.withRandomKey();
+        byte[] key = hasher.hash(token(1));
+        long keyHigh = TokenTable.high(key);
+        long keyLow = TokenTable.low(key);
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            file.load(now, (slot, high, low, userId, username, expiration) -> {});
+            file.write(keyHigh, keyLow, EXAMPLE_USER_ID, EXAMPLE_USERNAME, future);
+            file.write(keyHigh, keyLow, EXAMPLE_USER_ID, EXAMPLE_USERNAME, future);
+        }
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            InMemoryTokenStore store = new InMemoryTokenStore(now, 2, file, hasher);
+            assertEquals(SLOTS - 2, file.getFreeSlots());
+            // counted as one session, so a second one doesn't end it
+            store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, () -> token(2));
+            assertTrue(store.get(CryptoUtils.encodeToken(token(1))).isPresent());
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    public void tokenStore_keepsNoTokenInTheFile() throws Exception {
+        byte[] token = CryptoUtils.genRandomBytes(AuthTokenManager.TOKEN_LENGTH_BYTES);
+        try (TokenTableFile file = TokenTableFile.open(path, SLOTS)) {
+            InMemoryTokenStore store = new InMemoryTokenStore(now, InMemoryTokenStore.DEFAULT_MAX_SESSIONS_PER_USER, file, TokenHasher.withRandomKey());
+            store.put(EXAMPLE_USER_ID, EXAMPLE_USERNAME, future, () -> token.clone());
+        }
+        byte[] content = Files.readAllBytes(path);
+        for (int i = 0; i + token.length <= content.length; i++) {
+            assertFalse(Arrays.equals(token, 0, token.length, content, i, i + token.length), "token found at offset " + i);
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenTableTest {
+
+    private static final String EXAMPLE_USERNAME = "JohnDoe";
+    private static final long EXAMPLE_USER_ID = 1;
+    private static final long NOW_MS = 1_000_000;
+    private static final long FUTURE_MS = NOW_MS + 60_000;
+    private static final int ENTRIES = 10_000;
+
+    private TokenTable table;
+    private Random random;
+
+    public TokenTableTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        table = new TokenTable();
+        random = new Random(42);
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+    }
+
+    @Test
+    public void putIfAbsent_thenFindUser_returnsUser() {
+        assertTrue(table.putIfAbsent(1, 2, FUTURE_MS, EXAMPLE_USER_ID, EXAMPLE_USERNAME, -1));
+        assertEquals(new UserPrincipal(EXAMPLE_USER_ID, EXAMPLE_USERNAME), table.findUser(1, 2, NOW_MS));
+        assertSame(table.findUser(1, 2, NOW_MS), table.findUser(1, 2, NOW_MS));  // nothing allocated per lookup
+        assertNull(table.findUser(2, 1, NOW_MS));
+    }
+
+    @Test
+    public void putIfAbsent_withExistingToken_returnsFalse() {
+        assertTrue(table.putIfAbsent(1, 2, FUTURE_MS, EXAMPLE_USER_ID, EXAMPLE_USERNAME, -1));
+        assertFalse(table.putIfAbsent(1, 2, FUTURE_MS, EXAMPLE_USER_ID, "SomeoneElse", -1));
+        assertEquals(EXAMPLE_USERNAME, table.findUser(1, 2, NOW_MS).getName());
+    }
+
+    @Test
+    public void findUser_ofExpiredToken_returnsNull() {
+        table.putIfAbsent(1, 2, NOW_MS, EXAMPLE_USER_ID, EXAMPLE_USERNAME, -1);
+        assertNull(table.findUser(1, 2, NOW_MS));
+        assertEquals(EXAMPLE_USER_ID, table.get("token", 1, 2).getUserId());
+    }
+
+    @Test
+    public void remove_returnsFileSlot() {
+        table.putIfAbsent(1, 2, FUTURE_MS, EXAMPLE_USER_ID, EXAMPLE_USERNAME, 7);
+        assertEquals(7, table.remove(1, 2));
+        assertEquals(TokenTable.MISSING, table.remove(1, 2));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void manyPutsAndRemoves_matchHashMap() {
+        Map<Long, UserPrincipal> expected = new HashMap<>();
+        long[] keys = new long[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            keys[i] = random.nextLong();
+            table.putIfAbsent(keys[i], ~keys[i], FUTURE_MS, i, "user" + i, i);
+            expected.put(keys[i], new UserPrincipal(i, "user" + i));
+        }
+        int capacityAtPeak = table.capacity();
+        for (int i = 0; i < ENTRIES; i += 2) {  // removing shifts probe runs back, the rest must stay reachable
+            assertEquals(i, table.remove(keys[i], ~keys[i]));
+            expected.remove(keys[i]);
+        }
+        for (int i = 0; i < ENTRIES; i++) {
+            assertEquals(expected.get(keys[i]), table.findUser(keys[i], ~keys[i], NOW_MS));
+        }
+        assertEquals(expected.size(), table.size());
+
+        for (int i = 1; i < ENTRIES; i += 2) {
+            table.remove(keys[i], ~keys[i]);
+        }
+        assertEquals(0, table.size());
+        assertTrue(table.capacity() < capacityAtPeak, "Table shrinks once most tokens are gone");
+    }
+
+    @Test
+    public void decode_matchesJavaBase64() {
+        for (int i = 0; i < 1000; i++) {
+            byte[] token = CryptoUtils.genRandomBytes(AuthTokenManager.TOKEN_LENGTH_BYTES);
+            String encoded = CryptoUtils.encodeToken(token);
+            assertEquals(AuthTokenManager.TOKEN_LENGTH_BYTES, TokenTable.decodedLength(encoded));
+            assertEquals(TokenTable.high(token), TokenTable.decodeHigh(encoded));
+            assertEquals(TokenTable.low(token), TokenTable.decodeLow(encoded));
+
+            String withoutPadding = Base64.getEncoder().withoutPadding().encodeToString(token);
+            assertEquals(AuthTokenManager.TOKEN_LENGTH_BYTES, TokenTable.decodedLength(withoutPadding));
+            String inHeader = "Bearer  " + encoded + " ";
+            assertEquals(AuthTokenManager.TOKEN_LENGTH_BYTES, TokenTable.decodedLength(inHeader, 8, inHeader.length() - 1));
+            assertEquals(TokenTable.high(token), TokenTable.decodeHigh(inHeader, 8));
+            assertEquals(TokenTable.low(token), TokenTable.decodeLow(inHeader, 8));
+        }
+    }
+
+    @Test
+    public void decodeAnyLength_matchesJavaBase64() {
+        for (int length = 0; length < 300; length++) {
+            byte[] token = CryptoUtils.genRandomBytes(length);
+            for (String encoded : List.of(CryptoUtils.encodeToken(token), Base64.getEncoder().withoutPadding().encodeToString(token))) {
+                String inHeader = "Bearer " + encoded + " ";
+                int decodedLength = TokenTable.decodedLength(inHeader, 7, inHeader.length() - 1);
+                assertEquals(length, decodedLength);
+                byte[] decoded = new byte[decodedLength];
+                TokenTable.decode(inHeader, 7, inHeader.length() - 1, decoded);
+                assertArrayEquals(token, decoded);
+            }
+        }
+    }
+
+    @Test
+    public void decodedLength_agreesWithJavaBase64() {
+        String[] samples = {"", "QQ==", "QUI=", "QUJD", "thisIsTooShort==", "QQ", "QQ=", "Q", "QQ===", "Q=Q=", "a b=", "\u00fc123", "QUJD\n"};
+        for (String sample : samples) {
+            int expected;
+            try {
+                expected = Base64.getDecoder().decode(sample).length;
+            }
+            catch (IllegalArgumentException ex) {
+                expected = -1;
+            }
+            assertEquals(expected, TokenTable.decodedLength(sample), sample);
+        }
+    }
+
+}
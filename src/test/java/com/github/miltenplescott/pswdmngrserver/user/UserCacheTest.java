@@ -0,0 +1,153 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.user;
+
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCacheTest {
+
+    private static final Duration EXPIRE_AFTER_WRITE = Duration.ofMinutes(10);
+
+    private Map<String, User> table;
+    private AtomicInteger queries;
+    private Function<String, Optional<UserRecord>> loader;
+
+    public UserCacheTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        table = new HashMap<>();
+        queries = new AtomicInteger();
+        loader = username -> {
+            queries.incrementAndGet();
+            return Optional.ofNullable(table.get(username)).map(UserRecord::new);
+        };
+        for (long id = 1; id <= 3; id++) {
+            User user = new User("user" + id, new byte[]{(byte) id});
+            user.setId(id);
+            user.setSalt(new byte[]{(byte) -id});
+            user.setKdfParams(new KdfParams(2, 1024, 1));
+            table.put(user.getUsername(), user);
+        }
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+    }
+
+    @Test
+    public void get_secondTime_doesNotQuery() {
+        UserCache cache = new UserCache(10, EXPIRE_AFTER_WRITE);
+        UserRecord first = cache.get("user1", loader).orElseThrow();
+        UserRecord second = cache.get("user1", loader).orElseThrow();
+
+        assertSame(first, second);
+        assertEquals(1, queries.get());
+        assertEquals(1, first.getId());
+        assertArrayEquals(new byte[]{1}, first.getMasterPswd());
+        assertArrayEquals(new byte[]{-1}, first.getSalt());
+        assertEquals(new KdfParams(2, 1024, 1), first.getKdfParams());
+        assertEquals(1, cache.stats().hitCount());
+        assertEquals(1, cache.stats().missCount());
+    }
+
+    @Test
+    public void get_unknownUsername_isNotCached() {
+        UserCache cache = new UserCache(10, EXPIRE_AFTER_WRITE);
+        assertTrue(cache.get("nobody", loader).isEmpty());
+
+        User user = new User("nobody", new byte[]{4});
+        user.setId(4L);
+        user.setSalt(new byte[]{-4});
+        table.put("nobody", user);
+        assertEquals(4, cache.get("nobody", loader).orElseThrow().getId());
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void invalidate_reloadsChangedUser() {
+        UserCache cache = new UserCache(10, EXPIRE_AFTER_WRITE);
+        cache.get("user1", loader);
+        table.get("user1").setMasterPswd(new byte[]{9});
+
+        assertArrayEquals(new byte[]{1}, cache.get("user1", loader).orElseThrow().getMasterPswd());
+        cache.invalidate("user1");
+        assertArrayEquals(new byte[]{9}, cache.get("user1", loader).orElseThrow().getMasterPswd());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void invalidate_duringLoad_staleRecordIsNotCached() throws Exception {
+        UserCache cache = new UserCache(10, EXPIRE_AFTER_WRITE);
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        Function<String, Optional<UserRecord>> slowLoader = username -> {
+            Optional<UserRecord> record = loader.apply(username);
+            loaded.countDown();
+            try {
+                invalidated.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return record;
+        };
+
+        // the load reads the old row, then the row changes and is invalidated before the load puts it
+        CompletableFuture<Optional<UserRecord>> load = CompletableFuture.supplyAsync(() -> cache.get("user1", slowLoader));
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+        table.get("user1").setMasterPswd(new byte[]{9});
+        cache.invalidate("user1");
+        invalidated.countDown();
+
+        assertArrayEquals(new byte[]{1}, load.get(10, TimeUnit.SECONDS).orElseThrow().getMasterPswd());
+        assertEquals(0, cache.size());
+        assertArrayEquals(new byte[]{9}, cache.get("user1", loader).orElseThrow().getMasterPswd());
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void fullCache_staysWithinMaxSize() {
+        UserCache cache = new UserCache(2, EXPIRE_AFTER_WRITE);
+        for (String username : table.keySet()) {
+            cache.get(username, loader);
+        }
+
+        assertTrue(cache.size() <= 2);
+        assertEquals(3 - cache.size(), cache.stats().evictionCount());
+    }
+
+    @Test
+    public void disabledCache_alwaysQueries() {
+        UserCache cache = new UserCache(0, EXPIRE_AFTER_WRITE);
+        cache.get("user1", loader);
+        cache.get("user1", loader);
+        cache.invalidate("user1");
+
+        assertEquals(2, queries.get());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getInvalidations());
+    }
+
+}
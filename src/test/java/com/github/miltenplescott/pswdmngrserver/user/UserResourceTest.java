@@ -9,12 +9,14 @@
 package com.github.miltenplescott.pswdmngrserver.user;
 
 import com.github.miltenplescott.pswdmngrserver.CryptoUtils;
+import com.github.miltenplescott.pswdmngrserver.KdfParams;
 import com.github.miltenplescott.pswdmngrserver.ProblemDto;
 import io.restassured.http.Header;
 import io.restassured.response.Response;
 import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import javax.json.bind.Jsonb;
@@ -24,6 +26,7 @@ import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.HttpHeaders;
@@ -38,6 +41,7 @@ import org.junit.jupiter.api.Test;
 import static io.restassured.RestAssured.*;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class UserResourceTest {
 
@@ -48,7 +52,10 @@ public class UserResourceTest {
     private static final int OK = javax.ws.rs.core.Response.Status.OK.getStatusCode();
     private static final int BAD_REQUEST = javax.ws.rs.core.Response.Status.BAD_REQUEST.getStatusCode();
     private static final int UNAUTHORIZED = javax.ws.rs.core.Response.Status.UNAUTHORIZED.getStatusCode();
+    private static final int FORBIDDEN = javax.ws.rs.core.Response.Status.FORBIDDEN.getStatusCode();
+    private static final int NOT_FOUND = javax.ws.rs.core.Response.Status.NOT_FOUND.getStatusCode();
     private static final int METHOD_NOT_ALLOWED = javax.ws.rs.core.Response.Status.METHOD_NOT_ALLOWED.getStatusCode();
+    private static final String BULK_ADMIN_KEY = System.getProperty("pswdmngr.account.bulk.adminKey");
 
     private static List<String> createdUsernames;
     private static EntityManagerFactory emf;
@@ -68,6 +75,7 @@ public class UserResourceTest {
     private static final ProblemDto tokenLengthProblem;
     private static final ProblemDto tokenFormatProblem;
     private static final ProblemDto tokenExpiredProblem;
+    private static final ProblemDto refreshTokenProblem;
 
     static {
         usernameProblem = UserProblems.createDefaultUsernameProblem();
@@ -87,6 +95,9 @@ public class UserResourceTest {
         UserProblems.tokenLengthProblem(tokenLengthProblem);
         UserProblems.tokenFormatProblem(tokenFormatProblem);
         UserProblems.tokenExpiredProblem(tokenExpiredProblem);
+
+        refreshTokenProblem = UserProblems.createDefaultRefreshTokenProblem();
+        UserProblems.refreshTokenProblem(refreshTokenProblem);
     }
 
     @BeforeAll
@@ -108,6 +119,10 @@ public class UserResourceTest {
             try {
                 em.getTransaction().begin();
                 CriteriaBuilder cb = em.getCriteriaBuilder();
+                CriteriaDelete<RefreshToken> rd = cb.createCriteriaDelete(RefreshToken.class);
+                Root<RefreshToken> refreshRoot = rd.from(RefreshToken.class);
+                rd.where(cb.equal(refreshRoot.get(RefreshToken_.user).get(User_.username), username));
+                em.createQuery(rd).executeUpdate();
                 CriteriaDelete<User> cd = cb.createCriteriaDelete(User.class);
                 Root<User> root = cd.from(User.class);
 //                cd.where(cb.equal(root.get("username"), username));  // using string
@@ -140,6 +155,13 @@ public class UserResourceTest {
         return a.isBefore(b.plusSeconds(10)) && a.isAfter(b.minusSeconds(10));
     }
 
+    // returns true, if an access token expiration lies within the jittered range, give or take 10 seconds
+    private static boolean isWithinJitter(Instant expiration) {
+        Instant latest = Instant.now().plus(AuthTokenManager.EXPIRATION_DURATION_MINUTES);
+        Instant earliest = latest.minus(AuthTokenManager.EXPIRATION_DURATION_MINUTES.multipliedBy(AuthTokenManager.DEFAULT_EXPIRATION_JITTER_PERCENT).dividedBy(100));
+        return expiration.isBefore(latest.plusSeconds(10)) && expiration.isAfter(earliest.minusSeconds(10));
+    }
+
     private void createValidAccount(String payload) {
         given().
             contentType(MediaType.APPLICATION_JSON).body(payload).
@@ -158,6 +180,27 @@ public class UserResourceTest {
                 post("pswd-mngr/account");
     }
 
+    // needs the server's admin key in the test's pswdmngr.account.bulk.adminKey system property
+    private List<BulkResultDto> createAccounts(String ndjson) {
+        assumeTrue(BULK_ADMIN_KEY != null, "pswdmngr.account.bulk.adminKey is not set");
+        Response response =
+            given().
+                header(UserResource.HEADER_ADMIN_KEY, BULK_ADMIN_KEY).
+                contentType(UserResource.MEDIA_TYPE_NDJSON).body(ndjson).
+            when().
+                post("pswd-mngr/account/bulk");
+        response.
+            then().assertThat().
+                statusCode(OK).
+                    and().
+                contentType(allOf(containsString(UserResource.MEDIA_TYPE_NDJSON), containsString(StandardCharsets.UTF_8.name())));
+        List<BulkResultDto> results = new ArrayList<>();
+        for (String line : response.getBody().asString().split("\n")) {
+            results.add(jsonb.fromJson(line, BulkResultDto.class));
+        }
+        return results;
+    }
+
     private Response login(String payload) {
         return
             given().
@@ -174,6 +217,16 @@ public class UserResourceTest {
                 post("pswd-mngr/account/logout");
     }
 
+    private Response refresh(String refreshToken) {
+        RefreshTokenDto dto = new RefreshTokenDto();
+        dto.setRefreshToken(refreshToken);
+        return
+            given().
+                contentType(MediaType.APPLICATION_JSON).body(jsonb.toJson(dto)).
+            when().
+                post("pswd-mngr/account/refresh");
+    }
+
     private Header getCorrectAuthHeader(String token) {
         return new Header(HttpHeaders.AUTHORIZATION, AuthenticationRequestFilter.AUTH_SCHEME + " " + token);
     }
@@ -240,6 +293,59 @@ public class UserResourceTest {
                 assertEquals(responseDto, pswdFormatProblem);
     }
 
+    @Test
+    public void createAccounts_createsValidRecords_andReportsEachRecord() {
+        String ndjson = String.join("\n",
+            createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD),
+            "not a record",
+            createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD_2),  // repeated in the same request
+            createAuthenticationDtoPayload(EXAMPLE_USERNAME_2, "thisIsTooShort=="));
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createdUsernames.add(EXAMPLE_USERNAME_2);
+
+        List<BulkResultDto> results = createAccounts(ndjson);
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).getIndex());
+        }
+        assertEquals(OK, results.get(0).getStatus());
+        assertNull(results.get(0).getProblem());
+        assertEquals(BAD_REQUEST, results.get(1).getStatus());
+        assertEquals(UserProblems.PROBLEM_TITLE_BULK_RECORD, results.get(1).getProblem().getTitle());
+        for (int i = 2; i < results.size(); i++) {
+            assertEquals(BAD_REQUEST, results.get(i).getStatus());
+            results.get(i).getProblem().setStatus(null);
+        }
+        assertEquals(usernameProblem, results.get(2).getProblem());
+        assertEquals(pswdLengthProblem, results.get(3).getProblem());
+
+        login(createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD)).then().assertThat().statusCode(OK);
+    }
+
+    @Test
+    public void createAccounts_existingUsername_returnsUsernameNotUniqueProblem() {
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD));
+
+        List<BulkResultDto> results = createAccounts(createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD_2));
+
+        assertEquals(1, results.size());
+        assertEquals(BAD_REQUEST, results.get(0).getStatus());
+        results.get(0).getProblem().setStatus(null);
+        assertEquals(usernameProblem, results.get(0).getProblem());
+    }
+
+    @Test
+    public void createAccounts_withoutAdminKey_isRefused() {
+        given().
+            contentType(UserResource.MEDIA_TYPE_NDJSON).body(createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD)).
+        when().
+            post("pswd-mngr/account/bulk").
+        then().assertThat().
+            statusCode(anyOf(is(FORBIDDEN), is(NOT_FOUND)));  // 404 if the server has no admin key
+    }
+
     @Test
     public void getAccount_returnsMethodNotAllowed() {
         when().
@@ -274,7 +380,42 @@ public class UserResourceTest {
                  // and()
                 assertEquals(responseDto.getTokenType(), AuthTokenResponseDto.BEARER);
                  // and()
-                assertTrue(areCloseEnough(Instant.ofEpochMilli(responseDto.getExpiration()), Instant.now().plus(AuthTokenManager.EXPIRATION_DURATION_MINUTES)));
+                assertTrue(isWithinJitter(Instant.ofEpochMilli(responseDto.getExpiration())));
+                 // and()
+                assertEquals(CryptoUtils.decodeToken(responseDto.getRefreshToken()).length, RefreshToken.TOKEN_LENGTH_BYTES);
+                 // and()
+                assertTrue(areCloseEnough(Instant.ofEpochMilli(responseDto.getRefreshExpiration()), Instant.now().plus(UserService.DEFAULT_REFRESH_EXPIRATION)));
+    }
+
+    @Test
+    public void login_withOutdatedKdfParams_returnsOk_andRehashesPassword() {
+        String payload = createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD);
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(payload);
+
+        // pretend the account was created when the KDF was cheaper
+        KdfParams outdated = new KdfParams(1, KdfParams.LEGACY.getMemoryKb(), KdfParams.LEGACY.getParallelism());
+        em.getTransaction().begin();
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<User> cq = cb.createQuery(User.class);
+        Root<User> root = cq.from(User.class);
+        cq.where(cb.equal(root.get(User_.username), EXAMPLE_USERNAME));
+        User user = em.createQuery(cq).getSingleResult();
+        byte[] outdatedSalt = user.getSalt();
+        user.setMasterPswd(CryptoUtils.kdfAndSalt(CryptoUtils.decodePswd(EXAMPLE_MASTERPSWD), outdatedSalt, outdated));
+        user.setKdfParams(outdated);
+        em.getTransaction().commit();
+
+        login(payload).
+            then().assertThat().
+                statusCode(OK);
+
+        em.refresh(user);
+        assertEquals(KdfParams.LEGACY, user.getKdfParams());  // server runs with the default parameters
+        assertFalse(Arrays.equals(outdatedSalt, user.getSalt()));
+        login(payload).  // new hash works as well
+            then().assertThat().
+                statusCode(OK);
     }
 
     @Test
@@ -548,6 +689,164 @@ public class UserResourceTest {
                 assertEquals(logoutResponseDto, tokenFormatProblem);
     }
 
+    @Test
+    public void logout_endsOnlyThatSession() {
+        // create account
+        String payload = createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD);
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(payload);
+
+        // login from two devices
+        AuthTokenResponseDto firstDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+        AuthTokenResponseDto secondDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+
+        // logout first device, second one stays logged in
+        logout(getCorrectAuthHeader(firstDto.getToken())).
+            then().assertThat().
+                statusCode(OK);
+        logout(getCorrectAuthHeader(firstDto.getToken())).
+            then().assertThat().
+                statusCode(UNAUTHORIZED);
+        logout(getCorrectAuthHeader(secondDto.getToken())).
+            then().assertThat().
+                statusCode(OK);
+    }
+
+    @Test
+    public void logout_withAll_endsEverySession() {
+        // create account
+        String payload = createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD);
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(payload);
+
+        // login from two devices
+        AuthTokenResponseDto firstDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+        AuthTokenResponseDto secondDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+
+        // logout everywhere
+        given().
+            header(getCorrectAuthHeader(firstDto.getToken())).queryParam("all", true).
+        when().
+            post("pswd-mngr/account/logout").
+        then().assertThat().
+            statusCode(OK);
+        logout(getCorrectAuthHeader(secondDto.getToken())).
+            then().assertThat().
+                statusCode(UNAUTHORIZED);
+    }
+
+    @Test
+    public void refresh_returnsOk_andNewTokens() {
+        // create account
+        String payload = createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD);
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(payload);
+
+        // login
+        AuthTokenResponseDto loginDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+
+        // refresh
+        Response response = refresh(loginDto.getRefreshToken());
+        AuthTokenResponseDto refreshDto = jsonb.fromJson(response.getBody().asString(), AuthTokenResponseDto.class);
+        response.
+            then().assertThat().
+                statusCode(OK).
+                    and().
+                contentType(mimeJsonMatcher);
+                 // and()
+                assertNotEquals(refreshDto.getToken(), loginDto.getToken());
+                 // and()
+                assertNotEquals(refreshDto.getRefreshToken(), loginDto.getRefreshToken());
+                 // and()
+                assertTrue(isWithinJitter(Instant.ofEpochMilli(refreshDto.getExpiration())));
+
+        // new access token works
+        logout(getCorrectAuthHeader(refreshDto.getToken())).
+            then().assertThat().
+                statusCode(OK);
+    }
+
+    @Test
+    public void refresh_withUsedRefreshToken_returnsRefreshTokenProblem_andRevokesItsSuccessors() {
+        // create account
+        String payload = createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD);
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(payload);
+
+        // login and refresh once
+        AuthTokenResponseDto loginDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+        AuthTokenResponseDto refreshDto = jsonb.fromJson(refresh(loginDto.getRefreshToken()).getBody().asString(), AuthTokenResponseDto.class);
+
+        // replaying the first refresh token means it leaked
+        Response response = refresh(loginDto.getRefreshToken());
+        ProblemDto responseDto = jsonb.fromJson(response.getBody().asString(), ProblemDto.class);
+        responseDto.setStatus(null);
+        response.
+            then().assertThat().
+                statusCode(BAD_REQUEST).
+                    and().
+                contentType(mimeProblemMatcher);
+                 // and()
+                assertEquals(responseDto, refreshTokenProblem);
+
+        // so the refresh token issued in its place is gone too
+        refresh(refreshDto.getRefreshToken()).
+            then().assertThat().
+                statusCode(BAD_REQUEST);
+    }
+
+    @Test
+    public void refresh_afterLogoutOfItsSession_returnsRefreshTokenProblem() {
+        // create account
+        String payload = createAuthenticationDtoPayload(EXAMPLE_USERNAME, EXAMPLE_MASTERPSWD);
+        createdUsernames.add(EXAMPLE_USERNAME);
+        createValidAccount(payload);
+
+        // two sessions, the first one refreshed once
+        AuthTokenResponseDto loginDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+        AuthTokenResponseDto otherDto = jsonb.fromJson(login(payload).getBody().asString(), AuthTokenResponseDto.class);
+        AuthTokenResponseDto refreshDto = jsonb.fromJson(refresh(loginDto.getRefreshToken()).getBody().asString(), AuthTokenResponseDto.class);
+
+        // logging out the first session
+        logout(getCorrectAuthHeader(refreshDto.getToken())).
+            then().assertThat().
+                statusCode(OK);
+
+        // ends its refresh token
+        refresh(refreshDto.getRefreshToken()).
+            then().assertThat().
+                statusCode(BAD_REQUEST);
+
+        // but not the other session's
+        refresh(otherDto.getRefreshToken()).
+            then().assertThat().
+                statusCode(OK);
+    }
+
+    @Test
+    public void refresh_withNonBase64RefreshToken_returnsRefreshTokenProblem() {
+        Response response = refresh("not a refresh token");
+        ProblemDto responseDto = jsonb.fromJson(response.getBody().asString(), ProblemDto.class);
+        responseDto.setStatus(null);
+        response.
+            then().assertThat().
+                statusCode(BAD_REQUEST).
+                    and().
+                contentType(mimeProblemMatcher);
+                 // and()
+                assertEquals(responseDto, refreshTokenProblem);
+    }
+
+    @Test
+    public void getRefresh_returnsMethodNotAllowed() {
+        when().
+            get("pswd-mngr/account/refresh").
+        then().assertThat().
+            statusCode(METHOD_NOT_ALLOWED).
+                and().
+            header(HttpHeaders.ALLOW, HttpMethod.POST);
+    }
+
     // test works, but takes 15 minutes to run so it's commented out, so run it only once in a while
 //    @Test
 //    public void logout_withExpiredToken_returnsTokenExpiredProblem() throws InterruptedException {
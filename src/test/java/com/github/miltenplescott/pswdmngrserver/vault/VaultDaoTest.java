@@ -0,0 +1,133 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.vault;
+
+import com.github.miltenplescott.pswdmngrserver.user.User;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// the queries of GET /vault against in-memory H2, without a server
+public class VaultDaoTest {
+
+    private static final int ENTRIES = 5;
+
+    private EntityManagerFactory emf;
+    private EntityManager em;
+    private VaultDao vaultDao;
+    private long userId;
+    private final List<Long> ids = new ArrayList<>();  // of the user's entries, ascending
+
+    public VaultDaoTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        // a new factory drops and creates the tables
+        emf = Persistence.createEntityManagerFactory("test-resource-local", Map.of("eclipselink.logging.level", "OFF"));
+        em = emf.createEntityManager();
+        vaultDao = new VaultDaoImpl() {
+            @Override
+            public EntityManager getEntityManager() {
+                return em;
+            }
+        };
+
+        em.getTransaction().begin();
+        User user = new User("user", new byte[]{1});
+        User other = new User("other", new byte[]{2});
+        user.setSalt(new byte[]{-1});
+        other.setSalt(new byte[]{-2});
+        em.persist(user);
+        em.persist(other);
+        for (int i = 0; i < ENTRIES; i++) {
+            VaultEntry entry = new VaultEntry(new byte[]{(byte) i}, user);
+            em.persist(entry);
+            em.persist(new VaultEntry(new byte[]{(byte) -i}, other));
+            em.flush();
+            ids.add(entry.getId());
+        }
+        em.getTransaction().commit();
+        em.clear();
+        userId = user.getId();
+        ids.sort(null);
+    }
+
+    @AfterEach
+    public void tearDownEach() {
+        em.close();
+        emf.close();
+    }
+
+    private List<Long> forEach(long afterId, long lastId, int limit, List<byte[]> encData) throws IOException {
+        List<Long> read = new ArrayList<>();
+        em.getTransaction().begin();
+        try {
+            vaultDao.forEach(userId, afterId, lastId, limit, (id, data) -> {
+                read.add(id);
+                encData.add(data);
+            });
+        }
+        finally {
+            em.getTransaction().rollback();
+        }
+        return read;
+    }
+
+    @Test
+    public void forEach_readsUsersEntriesBetweenIdsInIdOrder() throws IOException {
+        List<byte[]> encData = new ArrayList<>();
+        assertEquals(ids.subList(1, 4), forEach(ids.get(0), ids.get(3), ENTRIES, encData));
+        for (int i = 0; i < encData.size(); i++) {
+            assertArrayEquals(new byte[]{(byte) (i + 1)}, encData.get(i));
+        }
+    }
+
+    @Test
+    public void forEach_stopsAtLimit() throws IOException {
+        assertEquals(ids.subList(0, 2), forEach(0, Long.MAX_VALUE, 2, new ArrayList<>()));
+    }
+
+    @Test
+    public void forEach_nothingInRange_readsNothing() throws IOException {
+        assertTrue(forEach(ids.get(ENTRIES - 1), Long.MAX_VALUE, ENTRIES, new ArrayList<>()).isEmpty());
+    }
+
+    @Test
+    public void findPageEnd_pagesThroughAllEntries() throws IOException {
+        List<Long> read = new ArrayList<>();
+        long afterId = 0;
+        Optional<Long> pageEnd;
+        do {
+            pageEnd = vaultDao.findPageEnd(userId, afterId, 2);
+            read.addAll(forEach(afterId, pageEnd.orElse(Long.MAX_VALUE), 2, new ArrayList<>()));
+            afterId = pageEnd.orElse(afterId);
+        }
+        while (pageEnd.isPresent());
+
+        assertEquals(ids, read);
+    }
+
+    @Test
+    public void findPageEnd_lastPageFull_isEmpty() {
+        assertEquals(Optional.of(ids.get(2)), vaultDao.findPageEnd(userId, 0, 3));
+        assertEquals(Optional.empty(), vaultDao.findPageEnd(userId, ids.get(2), 2));
+    }
+
+}
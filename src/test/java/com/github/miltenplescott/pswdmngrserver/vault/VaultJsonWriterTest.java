@@ -0,0 +1,95 @@
+/*
+ * pswd-mngr-server
+ *
+ * Copyright (c) 2020, Milten Plescott. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ */
+
+package com.github.miltenplescott.pswdmngrserver.vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VaultJsonWriterTest {
+
+    private static final int LARGE_VAULT_ENTRIES = 32;
+
+    private Jsonb jsonb;
+
+    public VaultJsonWriterTest() {
+    }
+
+    @BeforeEach
+    public void initEach() {
+        jsonb = JsonbBuilder.create();
+    }
+
+    @AfterEach
+    public void tearDownEach() throws Exception {
+        jsonb.close();
+    }
+
+    private List<VaultEntryDto> parse(ByteArrayOutputStream output) {
+        // https://javaee.github.io/jsonb-spec/docs/user-guide.html#mapping-a-generic-collection
+        return jsonb.fromJson(output.toString(StandardCharsets.UTF_8), new ArrayList<VaultEntryDto>(){}.getClass().getGenericSuperclass());
+    }
+
+    @Test
+    public void write_isReadBackAsDtoList() {
+        List<VaultEntryDto> expected = List.of(
+            new VaultEntryDto(1L, new byte[]{0, -1, 127, -128}),
+            new VaultEntryDto(2L, new byte[]{42}));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        VaultJsonWriter writer = new VaultJsonWriter(output);
+        for (VaultEntryDto dto : expected) {
+            writer.accept(dto.getId(), dto.getEncData());
+        }
+        writer.finish();
+
+        assertEquals(expected, parse(output));
+        assertEquals(jsonb.toJson(expected), output.toString(StandardCharsets.UTF_8));  // same as the list was before
+    }
+
+    @Test
+    public void write_emptyVault_isEmptyArray() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new VaultJsonWriter(output).finish();
+        assertEquals("[]", output.toString(StandardCharsets.UTF_8));
+    }
+
+    // in a method of its own, so the test's frame doesn't hold on to the last entry
+    private static WeakReference<byte[]> writeMaxSizeEntry(VaultJsonWriter writer, long id) {
+        byte[] encData = new byte[VaultEntry.ENC_DATA_MAX_LENGTH];
+        writer.accept(id, encData);
+        return new WeakReference<>(encData);
+    }
+
+    @Test
+    public void write_largeVault_keepsNoEntry() {
+        VaultJsonWriter writer = new VaultJsonWriter(OutputStream.nullOutputStream());
+        List<WeakReference<byte[]>> written = new ArrayList<>();
+        for (int i = 0; i < LARGE_VAULT_ENTRIES; i++) {
+            written.add(writeMaxSizeEntry(writer, i));
+        }
+        writer.finish();
+
+        System.gc();
+        // every entry can be collected once it's written, so the heap a GET /vault needs doesn't grow with the vault
+        for (WeakReference<byte[]> entry : written) {
+            assertNull(entry.get());
+        }
+    }
+
+}
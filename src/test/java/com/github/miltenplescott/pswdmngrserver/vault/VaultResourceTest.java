@@ -12,6 +12,7 @@ import com.github.miltenplescott.pswdmngrserver.ProblemDto;
 import com.github.miltenplescott.pswdmngrserver.user.AuthTokenResponseDto;
 import com.github.miltenplescott.pswdmngrserver.user.AuthenticationDto;
 import com.github.miltenplescott.pswdmngrserver.user.AuthenticationRequestFilter;
+import com.github.miltenplescott.pswdmngrserver.user.RefreshToken;
 import com.github.miltenplescott.pswdmngrserver.user.User;
 import io.restassured.http.Header;
 import io.restassured.response.Response;
@@ -20,8 +21,10 @@ import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 import javax.json.bind.Jsonb;
@@ -58,9 +61,12 @@ public class VaultResourceTest {
     private static final int OK = javax.ws.rs.core.Response.Status.OK.getStatusCode();
     private static final int CREATED = javax.ws.rs.core.Response.Status.CREATED.getStatusCode();
     private static final int NO_CONTENT = javax.ws.rs.core.Response.Status.NO_CONTENT.getStatusCode();
+    private static final int NOT_MODIFIED = javax.ws.rs.core.Response.Status.NOT_MODIFIED.getStatusCode();
     private static final int BAD_REQUEST = javax.ws.rs.core.Response.Status.BAD_REQUEST.getStatusCode();
     private static final int NOT_FOUND = javax.ws.rs.core.Response.Status.NOT_FOUND.getStatusCode();
     private static final int METHOD_NOT_ALLOWED = javax.ws.rs.core.Response.Status.METHOD_NOT_ALLOWED.getStatusCode();
+    private static final int LARGE_VAULT_ENTRIES = 20_000;
+    private static final int PAGE_LIMIT = 50;
     private static final String EMPTY_JSON_ARRAY = "[]";
     private static final String EXPECTED_LOCATION_SUBSTRING = "/pswd-mngr/vault/";
 
@@ -120,6 +126,17 @@ public class VaultResourceTest {
         catch (Exception e) {
             em.getTransaction().rollback();
         }
+        try {
+            em.getTransaction().begin();
+            CriteriaBuilder cb = em.getCriteriaBuilder();
+            CriteriaDelete<RefreshToken> cd = cb.createCriteriaDelete(RefreshToken.class);
+            cd.from(RefreshToken.class);
+            em.createQuery(cd).executeUpdate();
+            em.getTransaction().commit();
+        }
+        catch (Exception e) {
+            em.getTransaction().rollback();
+        }
         try {
             em.getTransaction().begin();
             CriteriaBuilder cb = em.getCriteriaBuilder();
@@ -160,6 +177,14 @@ public class VaultResourceTest {
                 get("pswd-mngr/vault/" + id);
     }
 
+    private Response get(String token, String uri) {
+        return
+            given().
+                header(tokenToAuthHeader(token)).
+            when().
+                get(uri);
+    }
+
     private Response get(String token) {
         return
             given().
@@ -168,6 +193,15 @@ public class VaultResourceTest {
                 get("pswd-mngr/vault");
     }
 
+    private Response getIfNoneMatch(String token, String uri, String etag) {
+        return
+            given().
+                header(tokenToAuthHeader(token)).
+                header(HttpHeaders.IF_NONE_MATCH, etag).
+            when().
+                get(uri);
+    }
+
     private Response delete(String token, long id) {
         return
             given().
@@ -648,6 +682,223 @@ public class VaultResourceTest {
         logout(token);
     }
 
+    @Test
+    public void vaultEntryById_readAndWrites_makeTwoStatementsEach() {
+        createAccount();
+        String token = login();
+        long id = getIdFromLocationHeader(post(token, EXAMPLE_ENC_DATA));
+
+        // the entry's statement, and the read or bump of the vault revision
+        assertEquals(2, countStatements(() -> get(token, id).then().assertThat().statusCode(OK)));
+        assertEquals(2, countStatements(() -> put(token, id, EXAMPLE_ENC_DATA_2).then().assertThat().statusCode(NO_CONTENT)));
+        assertEquals(2, countStatements(() -> delete(token, id).then().assertThat().statusCode(NO_CONTENT)));
+
+        logout(token);
+    }
+
+    @Test
+    public void getVault_unchanged_returnsNotModifiedWithoutReadingVault() {
+        createAccount();
+        String token = login();
+        post(token, EXAMPLE_ENC_DATA);
+
+        String etag = get(token).getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertEquals(etag, get(token).getHeader(HttpHeaders.ETAG));
+        // only the revision is read
+        assertEquals(1, countStatements(() -> getIfNoneMatch(token, "pswd-mngr/vault", etag).then().assertThat().
+            statusCode(NOT_MODIFIED).
+                and().
+            header(HttpHeaders.ETAG, etag).
+                and().
+            body(isEmptyString())));
+
+        logout(token);
+    }
+
+    @Test
+    public void getVaultEntryById_unchanged_returnsNotModified() {
+        createAccount();
+        String token = login();
+        long id = getIdFromLocationHeader(post(token, EXAMPLE_ENC_DATA));
+
+        String etag = get(token, id).getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertEquals(1, countStatements(() -> getIfNoneMatch(token, "pswd-mngr/vault/" + id, etag).then().assertThat().
+            statusCode(NOT_MODIFIED)));
+
+        logout(token);
+    }
+
+    @Test
+    public void vaultEtag_changesWithEveryWrite() {
+        createAccount();
+        String token = login();
+        Set<String> etags = new HashSet<>();
+        etags.add(get(token).getHeader(HttpHeaders.ETAG));
+
+        long id = getIdFromLocationHeader(post(token, EXAMPLE_ENC_DATA));
+        etags.add(get(token).getHeader(HttpHeaders.ETAG));
+        put(token, id, EXAMPLE_ENC_DATA_2).then().assertThat().statusCode(NO_CONTENT);
+        etags.add(get(token).getHeader(HttpHeaders.ETAG));
+        post(token, EXAMPLE_ENC_DATA_3);
+        etags.add(get(token).getHeader(HttpHeaders.ETAG));
+        delete(token, id).then().assertThat().statusCode(NO_CONTENT);
+        etags.add(get(token).getHeader(HttpHeaders.ETAG));
+        delete(token).then().assertThat().statusCode(NO_CONTENT);
+        String last = get(token).getHeader(HttpHeaders.ETAG);
+        etags.add(last);
+        assertEquals(6, etags.size());
+
+        // nothing to change, so neither does the tag
+        put(token, id, EXAMPLE_ENC_DATA).then().assertThat().statusCode(NOT_FOUND);
+        getIfNoneMatch(token, "pswd-mngr/vault", last).then().assertThat().statusCode(NOT_MODIFIED);
+
+        logout(token);
+    }
+
+    @Test
+    public void getVault_withLimit_pagesFollowNextLinks() {
+        createAccount();
+        String token = login();
+        List<Long> posted = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            posted.add(getIdFromLocationHeader(post(token, EXAMPLE_ENC_DATA)));
+        }
+
+        List<Integer> pageSizes = new ArrayList<>();
+        List<Long> read = new ArrayList<>();
+        String uri = "pswd-mngr/vault?limit=10";
+        while (uri != null) {
+            Response response = get(token, uri);
+            response.then().assertThat().
+                statusCode(OK).
+                    and().
+                contentType(mimeJsonMatcher);
+            List<VaultEntryDto> page = parseVault(response);
+            pageSizes.add(page.size());
+            page.forEach(entry -> read.add(entry.getId()));
+            uri = getNextLink(response);
+        }
+
+        Collections.sort(posted);
+        assertEquals(List.of(10, 10, 5), pageSizes);
+        assertEquals(posted, read);  // every entry once, in id order
+
+        logout(token);
+    }
+
+    @Test
+    public void getVault_limitOutOfRange_returnsBadRequest() {
+        createAccount();
+        String token = login();
+        ProblemDto expected = VaultProblems.limitProblem(VaultProblems.createDefaultPageProblem(), VaultResource.DEFAULT_MAX_LIMIT);
+
+        for (int limit : new int[]{0, VaultResource.DEFAULT_MAX_LIMIT + 1}) {
+            Response response = get(token, "pswd-mngr/vault?limit=" + limit);
+            ProblemDto problemDto = jsonb.fromJson(response.getBody().asString(), ProblemDto.class);
+            problemDto.setStatus(null);
+
+            response.then().assertThat().
+                statusCode(BAD_REQUEST).
+                    and().
+                contentType(mimeProblemMatcher);
+                 // and()
+                assertEquals(expected, problemDto);
+        }
+
+        logout(token);
+    }
+
+    // the timing of the two is VaultPageBenchmark's
+    @Test
+    public void getVault_deepPage_runsSameStatementsAsFirstPage() {
+        createAccount();
+        String token = login();
+        List<Long> ids = seedVault("JohnDoe", LARGE_VAULT_ENTRIES);
+
+        // the next to last page, so that like the first one it has a next page
+        String firstPage = "pswd-mngr/vault?limit=" + PAGE_LIMIT;
+        String deepPage = firstPage + "&after=" + ids.get(ids.size() - 2 * PAGE_LIMIT - 1);
+        assertEquals(ids.subList(0, PAGE_LIMIT), parseVault(get(token, firstPage)).stream().map(VaultEntryDto::getId).collect(Collectors.toList()));
+        assertEquals(ids.subList(ids.size() - 2 * PAGE_LIMIT, ids.size() - PAGE_LIMIT), parseVault(get(token, deepPage)).stream().map(VaultEntryDto::getId).collect(Collectors.toList()));
+
+        // the same statements, returning the same rows, and every one that reads the vault starts after an id instead
+        // of at an offset into it, so it reads no entries before the page
+        Map<String, List<Long>> first = runStatements(() -> get(token, firstPage).then().assertThat().statusCode(OK));
+        Map<String, List<Long>> deep = runStatements(() -> get(token, deepPage).then().assertThat().statusCode(OK));
+        assertEquals(first, deep);
+        assertTrue(first.values().stream().allMatch(counts -> counts.get(1) <= PAGE_LIMIT));
+        List<String> vaultReads = first.keySet().stream()
+            .filter(sql -> sql.toUpperCase().contains("FROM VAULTENTRY"))
+            .collect(Collectors.toList());
+        assertEquals(2, vaultReads.size());  // the page's ids, then its entries
+        assertTrue(vaultReads.stream().allMatch(sql -> sql.toUpperCase().matches("(?s).*\\bID\\s*>\\s*\\?.*")));
+
+        logout(token);
+    }
+
+    // inserted directly, a request per entry would take too long; returns the ids in order
+    private static List<Long> seedVault(String username, int entries) {
+        User user = em.createNamedQuery(User.QUERY_FIND_BY_NAME, User.class).setParameter("username", username).getSingleResult();
+        List<VaultEntry> vault = new ArrayList<>(entries);
+        em.getTransaction().begin();
+        for (int i = 0; i < entries; i++) {
+            VaultEntry vaultEntry = new VaultEntry(EXAMPLE_ENC_DATA, user);
+            em.persist(vaultEntry);
+            vault.add(vaultEntry);
+        }
+        em.getTransaction().commit();
+        em.clear();
+        return vault.stream().map(VaultEntry::getId).sorted().collect(Collectors.toList());
+    }
+
+    private List<VaultEntryDto> parseVault(Response response) {
+        // https://javaee.github.io/jsonb-spec/docs/user-guide.html#mapping-a-generic-collection
+        return jsonb.fromJson(response.getBody().asString(), new ArrayList<VaultEntryDto>(){}.getClass().getGenericSuperclass());
+    }
+
+    // the URI of the Link header with rel="next", null on the last page
+    private static String getNextLink(Response response) {
+        String link = response.getHeader("Link");
+        if (link == null) {
+            return null;
+        }
+        assertTrue(link.contains("rel=\"next\""));
+        return link.substring(link.indexOf('<') + 1, link.indexOf('>'));
+    }
+
+    private static long countStatements(Runnable request) {
+        return runStatements(request).values().stream().mapToLong(counts -> counts.get(0)).sum();
+    }
+
+    // statements the database ran during request, each with how many times it ran and how many rows it returned in
+    // total; H2 keeps the statistics for every session, the server's included; vault entries are not in the shared
+    // cache, so reads of them the server could have answered from it are counted too
+    private static Map<String, List<Long>> runStatements(Runnable request) {
+        em.getTransaction().begin();
+        em.createNativeQuery("SET QUERY_STATISTICS FALSE").executeUpdate();  // drops the old ones
+        em.createNativeQuery("SET QUERY_STATISTICS TRUE").executeUpdate();
+        em.getTransaction().commit();
+        request.run();
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = em.createNativeQuery(
+            "SELECT SQL_STATEMENT, EXECUTION_COUNT, CUMULATIVE_ROW_COUNT FROM INFORMATION_SCHEMA.QUERY_STATISTICS").getResultList();
+        return rows.stream()
+            .filter(row -> !((String) row[0]).contains("QUERY_STATISTICS"))
+            .collect(Collectors.toMap(row -> (String) row[0],
+                row -> List.of(((Number) row[1]).longValue(), ((Number) row[2]).longValue())));
+    }
+
+    private Response put(String token, long id, byte[] encData) {
+        return
+            given().
+                header(tokenToAuthHeader(token)).
+                contentType(MediaType.APPLICATION_OCTET_STREAM).body(encData).
+            when().
+                put("pswd-mngr/vault/" + id);
+    }
+
     private void createAccount() {
         createAccount(getPayload());
     }